@@ -0,0 +1,115 @@
+package ru.euphoria.commons.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import ru.euphoria.commons.io.FileStreams;
+
+/**
+ * The throughput of get and put of the caches, which keep the values
+ * off the java heap or on disk, see {@link ByteCacheType}, on a Zipfian
+ * trace of keys. Unlike {@link GetPutBenchmark}, the values are byte arrays
+ * of {@code valueSize}, as the copying and the I/O are the most of the cost.
+ *
+ * <p>The cache holds a quarter of the values, so the reads miss sometimes
+ * and the writes of new keys evict, the tiered cache demotes to disk.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ByteCacheBenchmark {
+    private static final int TRACE_LENGTH = 1 << 16;
+    private static final int TRACE_MASK = TRACE_LENGTH - 1;
+    private static final int ITEMS = 1 << 12;
+
+    @Param({"OffHeapCache", "DiskLruCache", "TieredCache"})
+    ByteCacheType cacheType;
+
+    @Param({"1024", "16384"})
+    int valueSize;
+
+    File directory;
+    ByteCacheType.Store store;
+    String[] keys;
+    byte[] value;
+
+    /**
+     * The position of a thread in the trace, see {@link GetPutBenchmark.ThreadState}
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            index = ThreadLocalRandom.current().nextInt(TRACE_LENGTH);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Integer[] trace = ZipfianGenerator.trace(ITEMS, TRACE_LENGTH);
+        keys = new String[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            // valid keys of DiskLruCache
+            keys[i] = "key" + trace[i];
+        }
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+
+        directory = File.createTempFile("benchmark", null);
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        store = cacheType.open(directory, (long) ITEMS / 4 * valueSize);
+        // warm up to the steady state of the policy
+        for (String key : keys) {
+            if (store.get(key) == null) {
+                store.put(key, value);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        FileStreams.delete(directory);
+        directory.delete();
+    }
+
+    @Benchmark
+    public Object readOnly(ThreadState state) {
+        return store.get(keys[state.index++ & TRACE_MASK]);
+    }
+
+    /**
+     * 3 reads to 1 write, the write goes to the key, which was missed,
+     * like a cache of downloaded images
+     */
+    @Benchmark
+    public void readWrite(ThreadState state, Blackhole blackhole) {
+        int index = state.index++;
+        String key = keys[index & TRACE_MASK];
+        if ((index & 3) == 0) {
+            blackhole.consume(store.put(key, value));
+        } else {
+            blackhole.consume(store.get(key));
+        }
+    }
+}
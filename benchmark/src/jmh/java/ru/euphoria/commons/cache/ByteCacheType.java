@@ -0,0 +1,109 @@
+package ru.euphoria.commons.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The caches of byte values under benchmark, which keep the values
+ * off the java heap or on disk, all keyed by strings
+ *
+ * @since 1.2
+ */
+public enum ByteCacheType {
+    OffHeapCache {
+        @Override
+        public Store open(File directory, long maxSize) {
+            final OffHeapCache<String> cache = new OffHeapCache<>(maxSize);
+            return new Store() {
+                @Override
+                public Object get(String key) {
+                    return cache.get(key);
+                }
+
+                @Override
+                public boolean put(String key, byte[] value) {
+                    // the wrapper is the only allocation, the bytes are copied once
+                    return cache.put(key, ByteBuffer.wrap(value));
+                }
+
+                @Override
+                public void close() {
+                    cache.clear();
+                }
+            };
+        }
+    },
+    DiskLruCache {
+        @Override
+        public Store open(File directory, long maxSize) throws IOException {
+            final DiskLruCache cache = ru.euphoria.commons.cache.DiskLruCache.open(directory, 1, maxSize);
+            return new Store() {
+                @Override
+                public Object get(String key) {
+                    return cache.get(key);
+                }
+
+                @Override
+                public boolean put(String key, byte[] value) {
+                    return cache.put(key, value);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    cache.close();
+                }
+            };
+        }
+    },
+    TieredCache {
+        @Override
+        public Store open(File directory, long maxSize) throws IOException {
+            final DiskLruCache disk = ru.euphoria.commons.cache.DiskLruCache.open(directory, 1, maxSize);
+            // a tenth in memory, the rest is promoted from disk
+            final TieredCache<String, byte[]> cache = new TieredCache<String, byte[]>(maxSize / 10, disk) {
+                @Override
+                protected long sizeOf(String key, byte[] value) {
+                    return value.length;
+                }
+            };
+            return new Store() {
+                @Override
+                public Object get(String key) {
+                    return cache.get(key);
+                }
+
+                @Override
+                public boolean put(String key, byte[] value) {
+                    return cache.put(key, value);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // drops the pending demotions, so none writes to the closed disk
+                    cache.clear();
+                    disk.close();
+                }
+            };
+        }
+    };
+
+    /**
+     * Opens a new empty cache of this type
+     *
+     * @param directory the empty directory for the files of the cache
+     * @param maxSize   the maximum size of the values, in bytes
+     */
+    public abstract Store open(File directory, long maxSize) throws IOException;
+
+    /**
+     * The common view of the caches, whose values are not the same type
+     */
+    public interface Store {
+        Object get(String key);
+
+        boolean put(String key, byte[] value);
+
+        void close() throws IOException;
+    }
+}
@@ -0,0 +1,55 @@
+package ru.euphoria.commons.cache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The caches under benchmark, all keyed by integers
+ *
+ * @since 1.2
+ */
+public enum CacheType {
+    LruCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            return new LruCache<>(maxSize);
+        }
+    },
+    ConcurrentLruCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            return new ConcurrentLruCache<>(maxSize);
+        }
+    },
+    TinyLfuCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            return new TinyLfuCache<>(maxSize);
+        }
+    },
+    ArcCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            return new ArcCache<>(maxSize);
+        }
+    },
+    ExpiringLruCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            // long enough to never expire during a run, but the timestamps are still kept
+            return new ExpiringLruCache<>(maxSize, 0, 1, TimeUnit.HOURS);
+        }
+    },
+    IntObjectLruCache {
+        @Override
+        public Cache<Integer, Integer> create(int maxSize) {
+            return new IntObjectLruCache<>(maxSize);
+        }
+    };
+
+    /**
+     * Creates a new empty cache of this type
+     *
+     * @param maxSize the maximum number of entries
+     */
+    public abstract Cache<Integer, Integer> create(int maxSize);
+}
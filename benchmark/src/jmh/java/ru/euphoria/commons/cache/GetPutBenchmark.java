@@ -0,0 +1,96 @@
+package ru.euphoria.commons.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of {@link Cache#get} and {@link Cache#put} on a Zipfian
+ * trace of keys, for the read-heavy, write-heavy and mixed workloads.
+ * The number of threads is set by {@code -t} or {@code -Pthreads},
+ * {@link ScalingRunner} runs it at 1 to N threads. Run with
+ * {@code -prof gc} to see the allocation per operation.
+ *
+ * <p>The cache holds a quarter of the keys, so the reads miss sometimes
+ * and the writes of new keys evict.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetPutBenchmark {
+    private static final int TRACE_LENGTH = 1 << 20;
+    private static final int TRACE_MASK = TRACE_LENGTH - 1;
+    private static final int MAX_SIZE = 1 << 14;
+    private static final int ITEMS = MAX_SIZE * 4;
+
+    @Param({"LruCache", "ConcurrentLruCache", "TinyLfuCache", "ArcCache",
+            "ExpiringLruCache", "IntObjectLruCache"})
+    CacheType cacheType;
+
+    Cache<Integer, Integer> cache;
+    Integer[] keys;
+
+    /**
+     * The position of a thread in the trace, each thread starts
+     * at a random one, so the threads don't hit the same keys in lockstep
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            index = ThreadLocalRandom.current().nextInt(TRACE_LENGTH);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        keys = ZipfianGenerator.trace(ITEMS, TRACE_LENGTH);
+        cache = cacheType.create(MAX_SIZE);
+        // warm up to the steady state of the policy
+        for (Integer key : keys) {
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+    }
+
+    @Benchmark
+    public Integer readOnly(ThreadState state) {
+        return cache.get(keys[state.index++ & TRACE_MASK]);
+    }
+
+    @Benchmark
+    public boolean writeOnly(ThreadState state) {
+        Integer key = keys[state.index++ & TRACE_MASK];
+        return cache.put(key, key);
+    }
+
+    /**
+     * 3 reads to 1 write, the write goes to the key, which was missed,
+     * like a cache in front of the network
+     */
+    @Benchmark
+    public void readWrite(ThreadState state, Blackhole blackhole) {
+        int index = state.index++;
+        Integer key = keys[index & TRACE_MASK];
+        if ((index & 3) == 0) {
+            blackhole.consume(cache.put(key, key));
+        } else {
+            blackhole.consume(cache.get(key));
+        }
+    }
+}
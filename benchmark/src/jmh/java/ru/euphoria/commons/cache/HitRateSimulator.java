@@ -0,0 +1,182 @@
+package ru.euphoria.commons.cache;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import ru.euphoria.commons.io.Charsets;
+import ru.euphoria.commons.io.EasyStreams;
+
+/**
+ * Replays a trace of keys through each {@link CacheType} and prints
+ * the hit rates at several cache sizes. A miss puts the key, like
+ * a cache in front of the network.
+ *
+ * <pre>
+ *     java ru.euphoria.commons.cache.HitRateSimulator [--trace keys.txt[.gz]] [--sizes 1000,10000]
+ * </pre>
+ *
+ * <p>The trace is a text file with one key per line, e.g. the urls of images
+ * or the ids of users, logged by the app. Only the first word of a line
+ * is used, the lines, which start with '#', are skipped. Without a trace,
+ * the synthetic Zipfian traces are replayed: a plain one and one with
+ * the sequential scans of cold keys, which flush the recency-based caches.
+ * The default sizes are 1%, 5%, 10% and 25% of the distinct keys.
+ *
+ * @since 1.2
+ */
+public class HitRateSimulator {
+    private static final int SYNTHETIC_ITEMS = 100000;
+    private static final int SYNTHETIC_LENGTH = 2000000;
+    private static final int SCAN_INTERVAL = 100000;
+    private static final int SCAN_LENGTH = 20000;
+
+    public static void main(String[] args) throws IOException {
+        String tracePath = null;
+        String sizes = null;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if ("--trace".equals(args[i])) {
+                tracePath = args[i + 1];
+            } else if ("--sizes".equals(args[i])) {
+                sizes = args[i + 1];
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        LinkedHashMap<String, int[]> traces = new LinkedHashMap<>();
+        if (tracePath != null) {
+            traces.put(tracePath, readTrace(tracePath));
+        } else {
+            traces.put("zipf", zipf(false));
+            traces.put("zipf+scan", zipf(true));
+        }
+
+        for (Map.Entry<String, int[]> entry : traces.entrySet()) {
+            int[] trace = entry.getValue();
+            int distinct = distinct(trace);
+            int[] maxSizes = sizes != null ? parseSizes(sizes) : new int[] {
+                    distinct / 100, distinct / 20, distinct / 10, distinct / 4};
+
+            System.out.println(String.format("%s: %d requests, %d distinct keys",
+                    entry.getKey(), trace.length, distinct));
+            StringBuilder header = new StringBuilder(String.format("%-20s", "Cache"));
+            for (int maxSize : maxSizes) {
+                header.append(String.format("%10d", maxSize));
+            }
+            System.out.println(header);
+
+            for (CacheType type : CacheType.values()) {
+                StringBuilder line = new StringBuilder(String.format("%-20s", type.name()));
+                for (int maxSize : maxSizes) {
+                    line.append(String.format("%9.2f%%", hitRate(type, Math.max(1, maxSize), trace) * 100));
+                }
+                System.out.println(line);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Replays the trace through a new cache and returns the ratio of hits
+     */
+    public static double hitRate(CacheType type, int maxSize, int[] trace) {
+        Cache<Integer, Integer> cache = type.create(maxSize);
+        long hits = 0;
+        for (int key : trace) {
+            Integer boxed = key;
+            if (cache.get(boxed) != null) {
+                hits++;
+            } else {
+                cache.put(boxed, boxed);
+            }
+        }
+        return trace.length == 0 ? 0 : (double) hits / trace.length;
+    }
+
+    /**
+     * Reads the trace of keys from the text file, the keys are
+     * numbered in the order of their first appearance
+     */
+    public static int[] readTrace(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        if (path.endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+        try {
+            HashMap<String, Integer> ids = new HashMap<>();
+            ArrayList<Integer> trace = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int end = 0;
+                while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+
+                String key = line.substring(0, end);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key, id);
+                }
+                trace.add(id);
+            }
+
+            int[] result = new int[trace.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = trace.get(i);
+            }
+            return result;
+        } finally {
+            EasyStreams.close(reader);
+        }
+    }
+
+    private static int[] zipf(boolean scans) {
+        ZipfianGenerator generator = new ZipfianGenerator(SYNTHETIC_ITEMS, ZipfianGenerator.DEFAULT_SKEW, 42);
+        int[] trace = new int[SYNTHETIC_LENGTH];
+        int cold = SYNTHETIC_ITEMS;
+        int i = 0;
+        while (i < trace.length) {
+            if (scans && i > 0 && i % SCAN_INTERVAL == 0) {
+                // a burst of keys, which are requested once, e.g. a long scroll
+                for (int j = 0; j < SCAN_LENGTH && i < trace.length; j++) {
+                    trace[i++] = cold++;
+                }
+            } else {
+                trace[i++] = generator.next();
+            }
+        }
+        return trace;
+    }
+
+    private static int distinct(int[] trace) {
+        HashMap<Integer, Boolean> keys = new HashMap<>();
+        for (int key : trace) {
+            keys.put(key, Boolean.TRUE);
+        }
+        return keys.size();
+    }
+
+    private static int[] parseSizes(String sizes) {
+        String[] parts = sizes.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i].trim());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,101 @@
+package ru.euphoria.commons.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead of {@link LoadingCache#get} over the cache it wraps,
+ * on the same Zipfian trace as {@link GetPutBenchmark}. The loader
+ * returns the key, so a miss costs the bookkeeping of the load only:
+ * the deduplication of the concurrent loads and, with the refresh
+ * duration, the write times of the keys.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadingCacheBenchmark {
+    private static final int TRACE_LENGTH = 1 << 20;
+    private static final int TRACE_MASK = TRACE_LENGTH - 1;
+    private static final int MAX_SIZE = 1 << 14;
+    private static final int ITEMS = MAX_SIZE * 4;
+
+    /** Runs the refreshes on the calling thread, so they are measured too */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final CacheLoader<Integer, Integer> LOADER = new CacheLoader<Integer, Integer>() {
+        @Override
+        public Integer load(Integer key) {
+            return key;
+        }
+    };
+
+    @Param({"LruCache", "ConcurrentLruCache", "TinyLfuCache"})
+    CacheType cacheType;
+
+    /** The refresh duration in seconds, 0 to not refresh */
+    @Param({"0", "60"})
+    int refreshSeconds;
+
+    Cache<Integer, Integer> cache;
+    LoadingCache<Integer, Integer> loading;
+    Integer[] keys;
+
+    /**
+     * The position of a thread in the trace, see {@link GetPutBenchmark.ThreadState}
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            index = ThreadLocalRandom.current().nextInt(TRACE_LENGTH);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        keys = ZipfianGenerator.trace(ITEMS, TRACE_LENGTH);
+        cache = cacheType.create(MAX_SIZE);
+        loading = new LoadingCache<>(cache, LOADER, DIRECT,
+                refreshSeconds, TimeUnit.SECONDS, Ticker.SYSTEM);
+        // warm up to the steady state of the policy
+        for (Integer key : keys) {
+            loading.get(key);
+        }
+    }
+
+    /**
+     * Loads the missed keys on the calling thread
+     */
+    @Benchmark
+    public Integer get(ThreadState state) {
+        return loading.get(keys[state.index++ & TRACE_MASK]);
+    }
+
+    /**
+     * The wrapped cache alone, the baseline of {@link #get}
+     */
+    @Benchmark
+    public Integer getPresent(ThreadState state) {
+        return cache.get(keys[state.index++ & TRACE_MASK]);
+    }
+}
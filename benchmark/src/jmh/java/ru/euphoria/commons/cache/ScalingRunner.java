@@ -0,0 +1,80 @@
+package ru.euphoria.commons.cache;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Runs {@link GetPutBenchmark} at 1, 2, 4... threads up to the number
+ * of cores and prints the throughput and the allocation per operation
+ * of each cache at each number of threads.
+ *
+ * <pre>
+ *     java -cp benchmarks.jar ru.euphoria.commons.cache.ScalingRunner [regexp]
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class ScalingRunner {
+    /** The bytes allocated per operation, reported by {@link GCProfiler} */
+    private static final String ALLOC_RATE_NORM = "\u00B7gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : GetPutBenchmark.class.getSimpleName();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        ArrayList<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+
+        ArrayList<String> lines = new ArrayList<>();
+        for (int threads : counts) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .forks(1)
+                    .warmupIterations(5)
+                    .iterations(5)
+                    .addProfiler(GCProfiler.class)
+                    .jvmArgs("-Xms1g", "-Xmx1g")
+                    .build();
+
+            Collection<RunResult> results = new Runner(options).run();
+            for (RunResult result : results) {
+                lines.add(format(threads, result));
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-52s %7s %14s %12s", "Benchmark", "Threads", "ops/us", "B/op"));
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+
+    private static String format(int threads, RunResult result) {
+        String name = result.getParams().getBenchmark();
+        name = name.substring(name.lastIndexOf('.') + 1);
+        String cacheType = result.getParams().getParam("cacheType");
+        if (cacheType != null) {
+            name += " " + cacheType;
+        }
+
+        double allocated = Double.NaN;
+        Result norm = result.getSecondaryResults().get(ALLOC_RATE_NORM);
+        if (norm != null) {
+            allocated = norm.getScore();
+        }
+        return String.format("%-52s %7d %14.3f %12.1f", name, threads,
+                result.getPrimaryResult().getScore(), allocated);
+    }
+}
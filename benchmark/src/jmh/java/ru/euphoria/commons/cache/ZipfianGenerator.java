@@ -0,0 +1,106 @@
+package ru.euphoria.commons.cache;
+
+import java.util.Random;
+
+/**
+ * Generates the keys with the Zipfian distribution: the key of the rank
+ * {@code i} is requested with the probability proportional to {@code 1 / i^skew},
+ * like the popular photos or users of a social network. The algorithm is
+ * from "Quickly Generating Billion-Record Synthetic Databases" by Gray et al.,
+ * also used by YCSB.
+ *
+ * <p>The ranks are shuffled, so the hot keys are spread over the whole range.
+ *
+ * @since 1.2
+ */
+public class ZipfianGenerator {
+    /** The skew of YCSB, about 80% of requests go to 20% of keys */
+    public static final double DEFAULT_SKEW = 0.99;
+
+    private final int items;
+    private final double skew;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final int[] keyOfRank;
+    private final Random random;
+
+    /**
+     * Creates a new {@link ZipfianGenerator}
+     *
+     * @param items the number of distinct keys, 0 to items - 1
+     * @param skew  the skew, 0 is uniform, must be less than 1
+     * @param seed  the seed, the same seed generates the same keys
+     */
+    public ZipfianGenerator(int items, double skew, long seed) {
+        if (items <= 0) {
+            throw new IllegalArgumentException("items <= 0");
+        }
+        if (skew < 0 || skew >= 1) {
+            throw new IllegalArgumentException("skew < 0 || skew >= 1");
+        }
+        this.items = items;
+        this.skew = skew;
+        this.random = new Random(seed);
+        this.zetaN = zeta(items, skew);
+        this.alpha = 1 / (1 - skew);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - skew)) / (1 - zeta(2, skew) / zetaN);
+
+        keyOfRank = new int[items];
+        for (int i = 0; i < items; i++) {
+            keyOfRank[i] = i;
+        }
+        for (int i = items - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = keyOfRank[i];
+            keyOfRank[i] = keyOfRank[j];
+            keyOfRank[j] = tmp;
+        }
+    }
+
+    /**
+     * Returns the next key
+     */
+    public int next() {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        int rank;
+        if (uz < 1) {
+            rank = 0;
+        } else if (uz < 1 + Math.pow(0.5, skew)) {
+            rank = 1;
+        } else {
+            rank = (int) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+        return keyOfRank[Math.min(rank, items - 1)];
+    }
+
+    /**
+     * Returns the trace of keys. The keys are boxed once here, so the benchmarks
+     * measure the allocations of the caches, not of {@link Integer#valueOf}.
+     *
+     * @param items  the number of distinct keys
+     * @param length the length of the trace
+     */
+    public static Integer[] trace(int items, int length) {
+        ZipfianGenerator generator = new ZipfianGenerator(items, DEFAULT_SKEW, 42);
+        Integer[] boxed = new Integer[items];
+        for (int i = 0; i < items; i++) {
+            boxed[i] = i;
+        }
+
+        Integer[] trace = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            trace[i] = boxed[generator.next()];
+        }
+        return trace;
+    }
+
+    private static double zeta(int n, double skew) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, skew);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.euphoria.commons.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The skeletal implementation of {@link Cache}, which implements the bulk
+ * operations by the single ones. Implementations of {@link Cache}, which were
+ * written before the bulk operations, extend this class to compile again.
+ *
+ * @since 1.2
+ */
+public abstract class AbstractCache<K, V> implements Cache<K, V> {
+
+    /**
+     * Looks up each key by {@link #get}. Override to look up
+     * all keys in one pass.
+     */
+    @Override
+    public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds each entry by {@link #put}. Override to add
+     * all entries in one pass.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache that holds strong references to a limited number of values,
+ * which uses the Adaptive Replacement Cache (ARC) policy to decide
+ * which entries to keep.
+ *
+ * <p>The entries are split into two LRU queues: the recent queue holds
+ * the entries, which were requested once, and the frequent queue holds
+ * the entries, which were requested at least twice. Both queues
+ * remember the keys of their evicted entries as ghosts. A miss on a ghost
+ * of the recent queue shows, that the recent queue is too small, and moves
+ * the target split towards recency. A miss on a ghost of the frequent queue
+ * moves it towards frequency. So the cache adapts online to the workload,
+ * e.g. to scrolling through new messages or to reusing the same avatars.
+ *
+ * <p>The split and the ghosts are measured in the units of {@link #sizeOf},
+ * so the policy works for the weighted caches too. The {@link #sizeOf},
+ * {@link #entryRemoved} and {@link #create} hooks have the same
+ * semantics as in {@link LruCache}.
+ *
+ * @since 1.2
+ */
+public class ArcCache<K, V> implements Cache<K, V>, Trimmable {
+    /** Resident entries, which were requested once */
+    private static final int RECENT = 0;
+    /** Resident entries, which were requested at least twice */
+    private static final int FREQUENT = 1;
+    /** Keys of entries, which were evicted from the recent queue */
+    private static final int RECENT_GHOST = 2;
+    /** Keys of entries, which were evicted from the frequent queue */
+    private static final int FREQUENT_GHOST = 3;
+
+    /** Resident and ghost entries */
+    private final HashMap<K, Node<K, V>> map;
+    private final Node<K, V>[] heads;
+    /** The sum of weights of each queue */
+    private final long[] sizes = new long[4];
+    private final int[] counts = new int[4];
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private long size;
+    private long maxSize;
+    /** The adaptive target size of the recent queue, from 0 to maxSize */
+    private long recentTarget;
+
+    private final Weigher<? super K, ? super V> weigher;
+    private final StatsCounter stats = new StatsCounter();
+    private volatile RemovalListener<K, V> removalListener;
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ArcCache(long maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Creates a cache, which is bounded by the total weight of entries,
+     * e.g. by the size of values in bytes, see {@link Weighers}
+     *
+     * @param maxSize the maximum sum of weights of the entries in this cache
+     * @param weigher the weigher of entries, or null to use {@link #sizeOf}
+     */
+    public ArcCache(long maxSize, Weigher<? super K, ? super V> weigher) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.weigher = weigher;
+        this.map = new HashMap<>();
+        // generic arrays can't be created, the array holds only the sentinels of this cache
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] heads = (Node<K, V>[]) new Node<?, ?>[4];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = new Node<>(null, null, 0, i);
+        }
+        this.heads = heads;
+    }
+
+    /**
+     * Sets the size of the cache. The target split is scaled
+     * in the same proportion.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            recentTarget = (long) ((double) recentTarget / this.maxSize * maxSize);
+            this.maxSize = maxSize;
+            evicted = evictEntries(maxSize, false);
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the frequent queue. This returns null if a value is not cached
+     * and cannot be created.
+     */
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        synchronized (this) {
+            Node<K, V> node = map.get(key);
+            if (node != null && node.isResident()) {
+                onAccess(node);
+                stats.recordHits(1);
+                return node.value;
+            }
+            stats.recordMisses(1);
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        long start = System.nanoTime();
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        trimmer.onInsert();
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        V mapValue = null;
+        ArrayList<Node<K, V>> evicted = null;
+        synchronized (this) {
+            Node<K, V> node = map.get(key);
+            if (node != null && node.isResident()) {
+                mapValue = node.value;
+            } else {
+                boolean frequentGhost = add(key, createdValue);
+                evicted = evictEntries(maxSize, frequentGhost);
+            }
+        }
+
+        if (mapValue != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            notifyEvicted(evicted);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. A new value is added to the recent
+     * queue, or to the frequent queue, if the key was evicted recently.
+     * A replaced value is moved to the head of the frequent queue.
+     */
+    @Override
+    public final boolean put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        trimmer.onInsert();
+
+        V previous;
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            stats.recordPuts(1);
+            Node<K, V> node = map.get(key);
+            if (node != null && node.isResident()) {
+                previous = replace(node, value);
+                evicted = evictEntries(maxSize, false);
+            } else {
+                previous = null;
+                boolean frequentGhost = add(key, value);
+                evicted = evictEntries(maxSize, frequentGhost);
+            }
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return true;
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache. The found
+     * values are moved to the head of the frequent queue. Unlike {@link #get},
+     * the missing values are not created. The lock is taken once for all keys.
+     */
+    @Override
+    public final Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                Node<K, V> node = map.get(key);
+                if (node != null && node.isResident()) {
+                    onAccess(node);
+                    stats.recordHits(1);
+                    result.put(key, node.value);
+                } else {
+                    stats.recordMisses(1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}, but takes
+     * the lock once for all entries and evicts once at the end.
+     */
+    @Override
+    public final void putAll(Map<? extends K, ? extends V> entries) {
+        trimmer.onInsert();
+
+        LinkedHashMap<K, V> replaced = null;
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            boolean frequentGhost = false;
+            for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+
+                stats.recordPuts(1);
+                Node<K, V> node = map.get(key);
+                if (node != null && node.isResident()) {
+                    if (replaced == null) {
+                        replaced = new LinkedHashMap<>();
+                    }
+                    replaced.put(key, replace(node, value));
+                } else {
+                    frequentGhost |= add(key, value);
+                }
+            }
+            evicted = evictEntries(maxSize, frequentGhost);
+        }
+
+        if (replaced != null) {
+            for (Map.Entry<K, V> entry : replaced.entrySet()) {
+                notifyRemoved(RemovalCause.REPLACED, entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists. The cache also forgets,
+     * that the key was evicted recently.
+     */
+    @Override
+    public final boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Node<K, V> previous;
+        synchronized (this) {
+            previous = map.remove(key);
+            if (previous != null) {
+                unlink(previous);
+                if (previous.isResident()) {
+                    size -= previous.weight;
+                } else {
+                    previous = null;
+                }
+            }
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.EXPLICIT, key, previous.value, null);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the entries until the total of remaining entries is at or
+     * below the requested size. The victims are chosen by the same policy
+     * as on a put and are remembered as ghosts.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements and to forget all ghosts.
+     */
+    public void trimToSize(long maxSize) {
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            evicted = evictEntries(maxSize, false);
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed,
+     * see {@link LruCache#entryRemoved}. The default implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    private void notifyRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        RemovalListener<K, V> listener = removalListener;
+        if (listener != null) {
+            listener.onRemoval(new RemovalNotification<K, V>(key, oldValue, cause));
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key,
+     * see {@link LruCache#create}. The default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units, see {@link LruCache#sizeOf}. The default
+     * implementation returns the weight of the {@link Weigher}, if set, or 1.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected long sizeOf(K key, V value) {
+        return weigher != null ? weigher.weigh(key, value) : 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    @Override
+    public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in this cache, like
+     * {@link #size()}, but without the limit of {@link Integer#MAX_VALUE}.
+     */
+    public synchronized final long weightedSize() {
+        return size;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current target size of the recent queue, from 0 to
+     * {@link #maxSize()}. Grows in recency-heavy phases of the workload
+     * and shrinks in frequency-heavy ones.
+     */
+    public synchronized final long recentTarget() {
+        return recentTarget;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final long createCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from
+     * the coldest to the hottest entries: the recent queue and then
+     * the frequent queue, each from least recently accessed to most
+     * recently accessed.
+     */
+    public synchronized final Map<K, V> snapshot() {
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>(counts[RECENT] + counts[FREQUENT]);
+        for (int queue = RECENT; queue <= FREQUENT; queue++) {
+            Node<K, V> head = heads[queue];
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                snapshot.put(node.key, node.value);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override public synchronized final String toString() {
+        long hitCount = stats.hitCount();
+        long missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("ArcCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+
+    /**
+     * Adds a new entry. If the key is a ghost, adapts the target split
+     * and adds the entry to the frequent queue, otherwise to the recent one.
+     * Must be called under the lock.
+     *
+     * @return true, if the key was a ghost of the frequent queue
+     */
+    private boolean add(K key, V value) {
+        long weight = safeSizeOf(key, value);
+        Node<K, V> ghost = map.get(key);
+        int queue = RECENT;
+        if (ghost != null) {
+            // the entry would still be here, if its queue was larger
+            long delta;
+            if (ghost.queue == RECENT_GHOST) {
+                delta = adaptation(ghost.weight, sizes[FREQUENT_GHOST], sizes[RECENT_GHOST]);
+                recentTarget = Math.min(maxSize, recentTarget + delta);
+            } else {
+                delta = adaptation(ghost.weight, sizes[RECENT_GHOST], sizes[FREQUENT_GHOST]);
+                recentTarget = Math.max(0, recentTarget - delta);
+            }
+            unlink(ghost);
+            queue = FREQUENT;
+        }
+
+        Node<K, V> node = new Node<>(key, value, weight, queue);
+        map.put(key, node);
+        size += weight;
+        link(node, queue);
+        return ghost != null && ghost.queue == FREQUENT_GHOST;
+    }
+
+    /**
+     * Replaces the value of the resident entry, which counts as a request.
+     * Must be called under the lock.
+     *
+     * @return the replaced value
+     */
+    private V replace(Node<K, V> node, V value) {
+        V previous = node.value;
+        long weight = safeSizeOf(node.key, value);
+        unlink(node);
+        size += weight - node.weight;
+        node.value = value;
+        node.weight = weight;
+        link(node, FREQUENT);
+        return previous;
+    }
+
+    /** Moves the requested entry to the head of the frequent queue. Must be called under the lock */
+    private void onAccess(Node<K, V> node) {
+        unlink(node);
+        link(node, FREQUENT);
+    }
+
+    /**
+     * Evicts the entries until the cache fits into the requested size.
+     * The victim is the eldest entry of the recent queue, if the queue
+     * is larger than its target, otherwise of the frequent queue.
+     * The evicted keys are kept as ghosts, while the ghosts and the recent
+     * queue fit into {@link #maxSize}, and all queues into the double of it.
+     * Must be called under the lock.
+     *
+     * @param maxSize       the size to trim to, -1 to forget the ghosts too
+     * @param frequentGhost true, if the latest added key was a ghost
+     *                      of the frequent queue
+     * @return the evicted entries, to notify outside the lock
+     */
+    private ArrayList<Node<K, V>> evictEntries(long maxSize, boolean frequentGhost) {
+        checkSize();
+
+        ArrayList<Node<K, V>> evicted = null;
+        while (size > maxSize && counts[RECENT] + counts[FREQUENT] > 0) {
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+
+            boolean recentFirst = counts[RECENT] > 0 && (counts[FREQUENT] == 0
+                    || sizes[RECENT] > recentTarget
+                    || (frequentGhost && sizes[RECENT] == recentTarget));
+            Node<K, V> victim = heads[recentFirst ? RECENT : FREQUENT].next;
+
+            map.remove(victim.key);
+            unlink(victim);
+            size -= victim.weight;
+            stats.recordEviction(victim.weight);
+            evicted.add(victim);
+
+            if (maxSize >= 0) {
+                // the victim keeps its value for the notification
+                Node<K, V> ghost = new Node<>(victim.key, null, victim.weight, 0);
+                map.put(victim.key, ghost);
+                link(ghost, recentFirst ? RECENT_GHOST : FREQUENT_GHOST);
+            }
+        }
+
+        trimGhosts(maxSize);
+        return evicted;
+    }
+
+    /**
+     * Forgets the eldest ghosts, until they fit into their bounds. The number
+     * of ghosts is bounded by the number of resident entries too, so the zero
+     * sized entries do not leave unlimited ghosts. Must be called under the lock.
+     */
+    private void trimGhosts(long maxSize) {
+        long limit = Math.max(0, Math.min(maxSize, this.maxSize));
+        while (counts[RECENT_GHOST] > 0
+                && sizes[RECENT] + sizes[RECENT_GHOST] > limit) {
+            forget(heads[RECENT_GHOST].next);
+        }
+        while (counts[FREQUENT_GHOST] > 0
+                && size + sizes[RECENT_GHOST] + sizes[FREQUENT_GHOST] > 2 * limit) {
+            forget(heads[FREQUENT_GHOST].next);
+        }
+
+        int residents = counts[RECENT] + counts[FREQUENT];
+        while (counts[RECENT_GHOST] + counts[FREQUENT_GHOST] > residents) {
+            int queue = counts[FREQUENT_GHOST] > counts[RECENT_GHOST] ? FREQUENT_GHOST : RECENT_GHOST;
+            forget(heads[queue].next);
+        }
+    }
+
+    private void forget(Node<K, V> ghost) {
+        map.remove(ghost.key);
+        unlink(ghost);
+    }
+
+    /**
+     * Returns the change of the target split on a ghost hit: the weight
+     * of the ghost, scaled by the ratio of the opposite ghost queue,
+     * so the smaller ghost queue moves the target faster
+     */
+    private static long adaptation(long weight, long opposite, long own) {
+        long delta = Math.max(1, weight);
+        if (opposite > own && own > 0) {
+            delta = (long) ((double) delta * opposite / own);
+        }
+        return delta;
+    }
+
+    private void notifyEvicted(ArrayList<Node<K, V>> evicted) {
+        if (evicted != null) {
+            for (int i = 0; i < evicted.size(); i++) {
+                Node<K, V> node = evicted.get(i);
+                notifyRemoved(RemovalCause.SIZE, node.key, node.value, null);
+            }
+        }
+    }
+
+    private void link(Node<K, V> node, int queue) {
+        Node<K, V> head = heads[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        sizes[queue] += node.weight;
+        counts[queue]++;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        sizes[node.queue] -= node.weight;
+        counts[node.queue]--;
+    }
+
+    private void checkSize() {
+        if (size < 0 || (counts[RECENT] + counts[FREQUENT] == 0 && size != 0)) {
+            throw new IllegalStateException(getClass().getName()
+                    + ".sizeOf() is reporting inconsistent results!");
+        }
+    }
+
+    private long safeSizeOf(K key, V value) {
+        long result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * The entry of the cache, which is linked in one of the queues.
+     * The ghosts have no value. The heads of the queues are sentinel nodes.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        long weight;
+        int queue;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, int queue) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.queue = queue;
+            // the sentinel is linked to itself
+            this.prev = this;
+            this.next = this;
+        }
+
+        boolean isResident() {
+            return queue == RECENT || queue == FREQUENT;
+        }
+    }
+}
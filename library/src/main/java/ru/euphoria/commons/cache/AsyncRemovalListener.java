@@ -0,0 +1,179 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ru.euphoria.commons.concurrent.ThreadExecutor;
+
+/**
+ * A {@link RemovalListener}, which delivers the notifications to the
+ * specified listener on an executor, so the slow work, e.g. closing files,
+ * does not delay the thread, which evicted the entries.
+ *
+ * <p>The notifications are put into a bounded queue. A single drain task
+ * delivers them in batches, in the order they were queued. The caches call
+ * the listener outside of their locks, so the removals of the same key
+ * by different threads may be queued, and delivered, in another order
+ * than they happened in the cache. If the queue is full, the removing
+ * thread delivers a batch itself, which limits the memory held by pending
+ * notifications.
+ *
+ * <pre>
+ *     LruCache&lt;String, Bitmap&gt; cache = new LruCache&lt;&gt;(100);
+ *     cache.setRemovalListener(new AsyncRemovalListener&lt;&gt;(
+ *             new RemovalListener&lt;String, Bitmap&gt;() {
+ *                 &#064;Override
+ *                 public void onRemoval(RemovalNotification&lt;String, Bitmap&gt; notification) {
+ *                     saveToDisk(notification.getKey(), notification.getValue());
+ *                 }
+ *             }));
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class AsyncRemovalListener<K, V> implements RemovalListener<K, V> {
+    /** The default capacity of the queue */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /** The maximum number of notifications, which are delivered by one drain */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Runs the drain tasks by {@link ThreadExecutor#execute}, not on the cpu
+     * threads, as the listeners usually block on i/o, e.g. closing files
+     */
+    private static final Executor DEFAULT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ThreadExecutor.execute(command);
+        }
+    };
+
+    private final RemovalListener<K, V> listener;
+    private final Executor executor;
+    private final ArrayBlockingQueue<RemovalNotification<K, V>> queue;
+    /** True, if a drain task is scheduled or running */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** Held while delivering, so the batches are delivered one after another */
+    private final Object drainLock = new Object();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainScheduled();
+        }
+    };
+
+    /**
+     * Creates a new {@link AsyncRemovalListener}, which delivers notifications
+     * on {@link ThreadExecutor} with the default capacity of the queue
+     *
+     * @param listener the listener to deliver notifications
+     */
+    public AsyncRemovalListener(RemovalListener<K, V> listener) {
+        this(listener, DEFAULT_EXECUTOR, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new {@link AsyncRemovalListener}
+     *
+     * @param listener the listener to deliver notifications
+     * @param executor the executor to run the drain tasks
+     * @param capacity the maximum number of pending notifications
+     */
+    public AsyncRemovalListener(RemovalListener<K, V> listener, Executor executor, int capacity) {
+        if (listener == null || executor == null) {
+            throw new NullPointerException("listener == null || executor == null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        this.listener = listener;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues the notification and schedules the delivery. If the queue
+     * is full, delivers the pending notifications on the current thread.
+     */
+    @Override
+    public void onRemoval(RemovalNotification<K, V> notification) {
+        while (!queue.offer(notification)) {
+            // the executor does not keep up, deliver on the caller
+            drain();
+        }
+        schedule();
+    }
+
+    /**
+     * Delivers all pending notifications on the current thread,
+     * e.g. before closing the resources, which the listener uses
+     */
+    public void flush() {
+        while (!queue.isEmpty()) {
+            drain();
+        }
+    }
+
+    /**
+     * Returns the number of notifications, which are not delivered yet
+     */
+    public int pendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Called, if the listener throws an exception. The notification is
+     * dropped, the following ones are delivered. The default implementation
+     * prints the stack trace.
+     */
+    protected void onError(RemovalNotification<K, V> notification, RuntimeException e) {
+        e.printStackTrace();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RuntimeException e) {
+                // rejected, the next removal or the queue overflow will deliver
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drainScheduled() {
+        try {
+            drain();
+        } finally {
+            scheduled.set(false);
+        }
+        // the notifications, which were queued while draining the last batch
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Delivers one batch of notifications. The queue is polled and the batch
+     * is delivered under the same lock, so a later batch is never delivered
+     * before an earlier one
+     */
+    private void drain() {
+        ArrayList<RemovalNotification<K, V>> batch = new ArrayList<>(BATCH_SIZE);
+        synchronized (drainLock) {
+            queue.drainTo(batch, BATCH_SIZE);
+            for (int i = 0; i < batch.size(); i++) {
+                RemovalNotification<K, V> notification = batch.get(i);
+                try {
+                    listener.onRemoval(notification);
+                } catch (RuntimeException e) {
+                    onError(notification, e);
+                }
+            }
+        }
+    }
+}
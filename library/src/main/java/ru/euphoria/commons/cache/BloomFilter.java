@@ -0,0 +1,314 @@
+package ru.euphoria.commons.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A probabilistic set of strings, which answers whether a key might have
+ * been added, e.g. to skip the lookups of a disk cache for the keys,
+ * which were never stored. A key, which was added, is always found.
+ * A key, which was not added, is found with the configured
+ * false positive probability.
+ *
+ * <p>The filter is scalable: when the current slice is full, a new slice
+ * with the double capacity and a tighter false positive rate is added,
+ * so the total rate stays below the configured one, however many keys
+ * are added. The keys can't be removed, rebuild the filter from
+ * the current keys to forget the removed ones.
+ *
+ * <p>{@link #mightContain} does not take locks, so it can be called
+ * while another thread adds the keys.
+ *
+ * @since 1.2
+ */
+public class BloomFilter {
+    /** "BLM1", the format and the version of the serialized filter */
+    private static final int MAGIC = 0x424C4D31;
+    /** The capacity of each next slice is multiplied by this */
+    private static final int GROWTH = 2;
+    /** The false positive rate of each next slice is multiplied by this */
+    private static final double TIGHTENING = 0.5;
+    private static final double LN2 = Math.log(2);
+
+    private final int expectedInsertions;
+    private final double falsePositiveRate;
+    private volatile Slice[] slices;
+
+    /**
+     * Creates a new {@link BloomFilter}
+     *
+     * @param expectedInsertions the capacity of the first slice
+     * @param falsePositiveRate  the maximum probability, that
+     *                           {@link #mightContain} returns true for a key,
+     *                           which was not added, e.g. 0.01
+     */
+    public BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions <= 0");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("falsePositiveRate <= 0 || falsePositiveRate >= 1");
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.slices = new Slice[] {new Slice(expectedInsertions, sliceRate(falsePositiveRate, 0))};
+    }
+
+    private BloomFilter(int expectedInsertions, double falsePositiveRate, Slice[] slices) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.slices = slices;
+    }
+
+    /**
+     * Adds the key to this filter
+     */
+    public synchronized void add(String key) {
+        long hash = hash(key);
+        Slice[] slices = this.slices;
+        Slice last = slices[slices.length - 1];
+        if (last.contains(hash)) {
+            return;
+        }
+
+        if (last.count >= last.capacity) {
+            last = new Slice(nextCapacity(last.capacity), sliceRate(falsePositiveRate, slices.length));
+
+            Slice[] grown = new Slice[slices.length + 1];
+            System.arraycopy(slices, 0, grown, 0, slices.length);
+            grown[slices.length] = last;
+            this.slices = grown;
+        }
+        last.add(hash);
+    }
+
+    /**
+     * Returns true, if the key might have been added to this filter,
+     * or false, if it definitely was not
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        Slice[] slices = this.slices;
+        for (int i = slices.length - 1; i >= 0; i--) {
+            if (slices[i].contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all keys from this filter
+     */
+    public synchronized void clear() {
+        slices = new Slice[] {new Slice(expectedInsertions, sliceRate(falsePositiveRate, 0))};
+    }
+
+    /**
+     * Returns the number of added keys. The keys, which were
+     * already reported by {@link #mightContain}, are not counted.
+     */
+    public synchronized int count() {
+        int count = 0;
+        for (Slice slice : slices) {
+            count += slice.count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the configured false positive rate
+     */
+    public final double falsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Returns the size of the bit arrays in bytes
+     */
+    public synchronized long sizeInBytes() {
+        long size = 0;
+        for (Slice slice : slices) {
+            size += slice.bits.length() * 8L;
+        }
+        return size;
+    }
+
+    /**
+     * Writes this filter to the stream
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(expectedInsertions);
+        out.writeDouble(falsePositiveRate);
+        out.writeInt(slices.length);
+        for (Slice slice : slices) {
+            out.writeInt(slice.capacity);
+            out.writeInt(slice.count);
+            out.writeInt(slice.hashCount);
+            out.writeInt(slice.bits.length());
+            for (int i = 0; i < slice.bits.length(); i++) {
+                out.writeLong(slice.bits.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads the filter, which was written by {@link #writeTo}. The sizes of
+     * the slices are checked against the sizes, which the filter would have
+     * chosen itself, so a damaged or hostile stream can't allocate huge arrays
+     * or make the lookups loop over a huge number of hashes.
+     *
+     * @throws IOException if an I/O error occurs or the data is malformed
+     */
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Unknown filter format");
+        }
+        int expectedInsertions = in.readInt();
+        double falsePositiveRate = in.readDouble();
+        int count = in.readInt();
+        if (expectedInsertions <= 0 || !(falsePositiveRate > 0 && falsePositiveRate < 1)
+                || count <= 0 || count > 32) {
+            throw new IOException("Malformed filter header");
+        }
+
+        Slice[] slices = new Slice[count];
+        int expectedCapacity = expectedInsertions;
+        for (int i = 0; i < count; i++) {
+            int capacity = in.readInt();
+            int keys = in.readInt();
+            int hashCount = in.readInt();
+            int length = in.readInt();
+
+            // one more word and hash for the rounding of Math.log on another platform
+            long maxLength = Slice.wordCount(expectedCapacity, sliceRate(falsePositiveRate, i)) + 1L;
+            int maxHashCount = Slice.hashCount(maxLength * 64, expectedCapacity) + 1;
+            if (capacity != expectedCapacity || keys < 0 || keys > capacity
+                    || hashCount <= 0 || hashCount > maxHashCount
+                    || length <= 0 || length > maxLength) {
+                throw new IOException("Malformed filter slice");
+            }
+
+            AtomicLongArray bits = new AtomicLongArray(length);
+            for (int j = 0; j < length; j++) {
+                bits.set(j, in.readLong());
+            }
+            slices[i] = new Slice(capacity, keys, hashCount, bits);
+            expectedCapacity = nextCapacity(capacity);
+        }
+        return new BloomFilter(expectedInsertions, falsePositiveRate, slices);
+    }
+
+    @Override public synchronized String toString() {
+        return String.format("BloomFilter[count=%d,slices=%d,bytes=%d,falsePositiveRate=%s]",
+                count(), slices.length, sizeInBytes(), falsePositiveRate);
+    }
+
+    /**
+     * Returns the capacity of the slice, which is added after the full one
+     */
+    private static int nextCapacity(int capacity) {
+        return (int) Math.min((long) capacity * GROWTH, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Returns the false positive rate of the slice, so the sum of rates
+     * of all slices is a geometric series, which is below the configured rate
+     */
+    private static double sliceRate(double falsePositiveRate, int index) {
+        return falsePositiveRate * (1 - TIGHTENING) * Math.pow(TIGHTENING, index);
+    }
+
+    /**
+     * Returns the 64-bit hash of the key: FNV-1a of the chars,
+     * mixed by the finalizer of MurmurHash3
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A classic bloom filter of the fixed capacity. The indices of the key
+     * are derived from two halves of its hash by double hashing.
+     */
+    private static final class Slice {
+        final int capacity;
+        final int hashCount;
+        final AtomicLongArray bits;
+        final long bitCount;
+        /** The number of added keys, changed under the lock of the filter */
+        int count;
+
+        Slice(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            int words = wordCount(capacity, falsePositiveRate);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashCount = hashCount(bitCount, capacity);
+        }
+
+        Slice(int capacity, int count, int hashCount, AtomicLongArray bits) {
+            this.capacity = capacity;
+            this.count = count;
+            this.hashCount = hashCount;
+            this.bits = bits;
+            this.bitCount = bits.length() * 64L;
+        }
+
+        /**
+         * Returns the number of longs in the bit array of the slice
+         */
+        static int wordCount(int capacity, double falsePositiveRate) {
+            long bitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bitCount + 63) / 64));
+        }
+
+        /**
+         * Returns the optimal number of hashes for the size of the bit array
+         */
+        static int hashCount(long bitCount, int capacity) {
+            return Math.max(1, (int) Math.round((double) bitCount / capacity * LN2));
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                // the writers are serialized by the filter, the readers see
+                // the bits by the volatile semantics of the array
+                bits.set(word, bits.get(word) | mask);
+            }
+            count++;
+        }
+
+        boolean contains(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long index = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitCount;
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package ru.euphoria.commons.cache;
 
+import java.util.Map;
+
 /**
  * The base interface for caching objects
  *
+ * <p>Since 1.2 the interface has the bulk operations {@link #getAllPresent}
+ * and {@link #putAll}. Implementations, which do not look up keys in one pass,
+ * extend {@link AbstractCache} instead of implementing this interface.
+ *
  * @author Igor Morozkin
  * @since 1.0
  */
@@ -26,6 +32,24 @@ public interface Cache<K, V> {
      */
     V get(K key);
 
+    /**
+     * Returns the values at the specified keys, which this cache contain.
+     * Implementations look up all keys in one pass, e.g. under a single lock
+     *
+     * @param keys the keys for get values
+     * @return the map of the present keys to values, in the order of keys.
+     *         The keys, which this cache does not contain, are absent
+     */
+    Map<K, V> getAllPresent(Iterable<? extends K> keys);
+
+    /**
+     * Adds all entries of the specified map at the this cache,
+     * like {@link #put} for each entry, but in one pass
+     *
+     * @param map the entries to add
+     */
+    void putAll(Map<? extends K, ? extends V> map);
+
     /**
      * Removes value at the specified key
      *
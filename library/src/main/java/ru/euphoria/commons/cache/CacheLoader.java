@@ -0,0 +1,100 @@
+package ru.euphoria.commons.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes or retrieves values, based on a key, for use
+ * in populating a {@link LoadingCache}. For example, executes
+ * an HTTP request and parses the response.
+ *
+ * <pre>
+ *     CacheLoader&lt;Integer, VKUser&gt; loader = new CacheLoader&lt;Integer, VKUser&gt;() {
+ *         &#64;Override
+ *         public VKUser load(Integer id) throws Exception {
+ *             return new VKUser(Client.execute(usersGet(id)).asJson());
+ *         }
+ *     };
+ * </pre>
+ *
+ * @since 1.2
+ */
+public abstract class CacheLoader<K, V> {
+
+    /**
+     * Computes or retrieves the value corresponding to {@code key}.
+     * The method is called without synchronization of the cache.
+     *
+     * @param key the non-null key whose value should be loaded
+     * @return the value associated with {@code key}, or null if
+     *         the value does not exist
+     * @throws Exception if unable to load the result
+     */
+    public abstract V load(K key) throws Exception;
+
+    /**
+     * Computes or retrieves the values corresponding to {@code keys}
+     * in one batch, e.g. one users.get request for all user ids.
+     * Called by {@link LoadingCache#getAll}.
+     *
+     * <p>The default implementation calls {@link #load} for each key.
+     * Override it, if the source supports bulk requests.
+     *
+     * @param keys the unique, non-null keys whose values should be loaded
+     * @return the map of keys to loaded values. The keys,
+     *         which values do not exist, may be absent
+     * @throws Exception if unable to load the result
+     */
+    public Map<K, V> loadAll(Iterable<? extends K> keys) throws Exception {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes or retrieves a replacement value for {@code key}, which
+     * is already cached. Called by {@link LoadingCache} in background, when
+     * the value is older than the refresh duration. If this method throws
+     * or returns null, the old value is kept in the cache.
+     *
+     * <p>The default implementation calls {@link #load}. Override it, if the
+     * new value can be computed from the old one, e.g. by a conditional request.
+     *
+     * @param key      the non-null key whose value should be loaded
+     * @param oldValue the non-null old value corresponding to {@code key}
+     * @return the new value associated with {@code key}, or null to keep the old value
+     * @throws Exception if unable to reload the result
+     */
+    public V reload(K key, V oldValue) throws Exception {
+        return load(key);
+    }
+
+    /**
+     * Returns true, if the failure of {@link #load} is deterministic, so
+     * the same request fails again, e.g. the user is deleted or the access
+     * is denied. Such failures are cached as negative entries by
+     * {@link LoadingCache#setNegativeCaching} and are not requested again
+     * until the entry expires.
+     *
+     * <p>The default implementation returns false, so the failures
+     * are not cached. For example, to cache the permanent VK errors:
+     *
+     * <pre>
+     *     &#64;Override
+     *     public boolean isNegative(Integer id, Exception e) {
+     *         return e instanceof VKException &amp;&amp; ErrorCodes.isPermanent(((VKException) e).code);
+     *     }
+     * </pre>
+     *
+     * @param key the non-null key, which value failed to load
+     * @param e   the exception thrown by {@link #load}
+     */
+    public boolean isNegative(K key, Exception e) {
+        return false;
+    }
+}
@@ -0,0 +1,290 @@
+package ru.euphoria.commons.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import ru.euphoria.commons.concurrent.ThreadExecutor;
+import ru.euphoria.commons.io.EasyStreams;
+import ru.euphoria.commons.io.FileStreams;
+
+/**
+ * The immutable copy of the most recently used entries of a cache,
+ * ordered from the least recently used to the most recently used one.
+ * The snapshot holds the same key and value objects as the cache,
+ * the values are not copied.
+ *
+ * <p>The snapshot can be saved in a compact binary form and restored
+ * on the next start of the app in the background, so the first screen
+ * after a cold start hits the cache instead of the network:
+ *
+ * <pre>
+ *     // onCreate
+ *     CacheSnapshot.restoreAsync(users, file, Serializers.integers(), Serializers.jsonObjects());
+ *
+ *     // onStop
+ *     CacheSnapshot.saveAsync(users, 200, file, Serializers.integers(), Serializers.jsonObjects());
+ * </pre>
+ *
+ * <p>The file starts with the magic number, then the number of entries,
+ * the serialized keys and values and the CRC32 of all previous bytes.
+ *
+ * @since 1.2
+ */
+public final class CacheSnapshot<K, V> implements Iterable<Map.Entry<K, V>> {
+    /** "CSN1", the format and the version of the file */
+    private static final int MAGIC = 0x43534E31;
+
+    private final Object[] keys;
+    private final Object[] values;
+
+    /**
+     * Creates a snapshot of the entries. The arrays are not copied
+     * and must not be changed after.
+     */
+    CacheSnapshot(Object[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Returns the number of entries in this snapshot
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the key of the entry at the specified index,
+     * 0 is the least recently used entry
+     */
+    @SuppressWarnings("unchecked")
+    public K keyAt(int index) {
+        return (K) keys[index];
+    }
+
+    /**
+     * Returns the value of the entry at the specified index,
+     * 0 is the least recently used entry
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Returns the iterator over the entries, from the least recently used
+     * to the most recently used one. The entries are immutable.
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < keys.length;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (index >= keys.length) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(keyAt(index), valueAt(index));
+                index++;
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Writes this snapshot to the stream. The stream is not closed.
+     *
+     * @param out    the stream to write to
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(OutputStream out, Serializer<? super K> keys,
+                        Serializer<? super V> values) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(EasyStreams.buffer(checked));
+        data.writeInt(MAGIC);
+        Serializers.writeVarInt(data, size());
+        for (int i = 0; i < size(); i++) {
+            keys.write(data, keyAt(i));
+            values.write(data, valueAt(i));
+        }
+        data.flush();
+
+        // the checksum is not a part of itself
+        new DataOutputStream(out).writeInt((int) checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    /**
+     * Writes this snapshot to the file. The data is written to a temporary
+     * file first, so the file is never left half-written.
+     *
+     * @param file   the file to write to
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeTo(File file, Serializer<? super K> keys,
+                        Serializer<? super V> values) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            writeTo(out, keys, values);
+        } catch (IOException e) {
+            EasyStreams.close(out);
+            temp.delete();
+            throw e;
+        }
+        out.close();
+        FileStreams.move(temp, file);
+    }
+
+    /**
+     * Reads the snapshot, which was written by {@link #writeTo(OutputStream, Serializer, Serializer)}.
+     * The stream is not closed.
+     *
+     * @param in     the stream to read from
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     * @throws IOException if an I/O error occurs, the data is damaged
+     *                     or written in another format
+     */
+    public static <K, V> CacheSnapshot<K, V> readFrom(InputStream in, Serializer<? extends K> keys,
+                                                      Serializer<? extends V> values) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Unknown snapshot format");
+        }
+
+        int count = Serializers.readVarInt(data);
+        if (count < 0) {
+            throw new IOException("Malformed count: " + count);
+        }
+        // the count is not trusted until the checksum is checked
+        ArrayList<Object> keyList = new ArrayList<>(Math.min(count, 1024));
+        ArrayList<Object> valueList = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            keyList.add(keys.read(data));
+            valueList.add(values.read(data));
+        }
+
+        long expected = checked.getChecksum().getValue();
+        if (new DataInputStream(in).readInt() != (int) expected) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+        return new CacheSnapshot<>(keyList.toArray(), valueList.toArray());
+    }
+
+    /**
+     * Reads the snapshot from the file, see {@link #readFrom(InputStream, Serializer, Serializer)}
+     *
+     * @param file   the file to read from
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     * @throws IOException if an I/O error occurs, the data is damaged
+     *                     or written in another format
+     */
+    public static <K, V> CacheSnapshot<K, V> readFrom(File file, Serializer<? extends K> keys,
+                                                      Serializer<? extends V> values) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return readFrom(in, keys, values);
+        } finally {
+            EasyStreams.close(in);
+        }
+    }
+
+    /**
+     * Copies up to {@code limit} most recently used entries of the cache
+     * on the current thread and writes them to the file on a background thread
+     *
+     * @param cache  the cache to save
+     * @param limit  the maximum number of entries to save
+     * @param file   the file to write to
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     */
+    public static <K, V> void saveAsync(Snapshottable<K, V> cache, int limit, final File file,
+                                        final Serializer<? super K> keys,
+                                        final Serializer<? super V> values) {
+        final CacheSnapshot<K, V> snapshot = cache.hottest(limit);
+        ThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot.writeTo(file, keys, values);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the snapshot from the file on a background thread and restores
+     * it to the cache, see {@link Snapshottable#restore}. The entries, which
+     * were put while reading, are kept. A missing file is ignored, a damaged
+     * file, which fails to read, is deleted.
+     *
+     * @param cache  the cache to warm up
+     * @param file   the file to read from
+     * @param keys   the serializer of keys
+     * @param values the serializer of values
+     */
+    public static <K, V> void restoreAsync(final Snapshottable<K, V> cache, final File file,
+                                           final Serializer<? extends K> keys,
+                                           final Serializer<? extends V> values) {
+        ThreadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CacheSnapshot<K, V> snapshot;
+                try {
+                    snapshot = readFrom(file, keys, values);
+                } catch (FileNotFoundException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    // damaged, or a serializer failed on the damaged data
+                    e.printStackTrace();
+                    file.delete();
+                    return;
+                } catch (OutOfMemoryError e) {
+                    // e.g. a custom serializer trusted a damaged length,
+                    // do not fail again on the next start
+                    file.delete();
+                    throw e;
+                }
+                cache.restore(snapshot);
+            }
+        });
+    }
+}
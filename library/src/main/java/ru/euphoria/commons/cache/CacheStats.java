@@ -0,0 +1,194 @@
+package ru.euphoria.commons.cache;
+
+import ru.euphoria.commons.concurrent.Histogram;
+
+/**
+ * Immutable statistics of a cache, taken by {@code stats()} of caches.
+ *
+ * <p>The counters are {@code long} and do not overflow on long running
+ * processes. The statistics of a period, e.g. the last minute, are the
+ * difference of two snapshots, see {@link #minus} and {@link CacheStatsReporter}.
+ *
+ * <pre>
+ *     CacheStats stats = cache.stats();
+ *     Log.d(TAG, "hitRate=" + stats.hitRate()
+ *             + ", p99 load=" + stats.loadTimes().percentile(99) + "ns");
+ * </pre>
+ *
+ * @since 1.2
+ */
+public final class CacheStats {
+    /** The statistics of a cache, which was not used */
+    public static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0,
+            Histogram.Snapshot.EMPTY, Histogram.Snapshot.EMPTY);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final Histogram.Snapshot loadTimes;
+    private final Histogram.Snapshot evictionWeights;
+
+    CacheStats(long hitCount, long missCount, long putCount,
+               long loadSuccessCount, long loadFailureCount,
+               long evictionCount, long evictionWeight,
+               Histogram.Snapshot loadTimes, Histogram.Snapshot evictionWeights) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.loadTimes = loadTimes;
+        this.evictionWeights = evictionWeights;
+    }
+
+    /**
+     * Returns the number of times a lookup returned a cached value.
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of times a lookup did not find a cached value.
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of lookups, hits and misses.
+     */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * Returns the ratio of lookups, which returned a cached value,
+     * or 1.0 if there were no lookups.
+     */
+    public double hitRate() {
+        long requests = requestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Returns the ratio of lookups, which did not find a cached value,
+     * or 0.0 if there were no lookups.
+     */
+    public double missRate() {
+        long requests = requestCount();
+        return requests == 0 ? 0.0 : (double) missCount / requests;
+    }
+
+    /**
+     * Returns the number of values, which were put into the cache.
+     */
+    public long putCount() {
+        return putCount;
+    }
+
+    /**
+     * Returns the number of times a value was created or loaded successfully.
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * Returns the number of times a load of a value threw an exception.
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent in loads.
+     */
+    public long totalLoadTime() {
+        return loadTimes.sum();
+    }
+
+    /**
+     * Returns the average time, in nanoseconds, spent in a load.
+     */
+    public double averageLoadPenalty() {
+        return loadTimes.mean();
+    }
+
+    /**
+     * Returns the histogram of load times, in nanoseconds.
+     */
+    public Histogram.Snapshot loadTimes() {
+        return loadTimes;
+    }
+
+    /**
+     * Returns the number of values, which were evicted to make space.
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the total size of the evicted values, see {@code sizeOf} of caches.
+     */
+    public long evictionWeight() {
+        return evictionWeight;
+    }
+
+    /**
+     * Returns the histogram of sizes of the evicted values.
+     */
+    public Histogram.Snapshot evictionWeights() {
+        return evictionWeights;
+    }
+
+    /**
+     * Returns the statistics since the specified earlier snapshot
+     * of the same cache. Negative differences are clamped to zero.
+     */
+    public CacheStats minus(CacheStats other) {
+        return new CacheStats(
+                Math.max(0, hitCount - other.hitCount),
+                Math.max(0, missCount - other.missCount),
+                Math.max(0, putCount - other.putCount),
+                Math.max(0, loadSuccessCount - other.loadSuccessCount),
+                Math.max(0, loadFailureCount - other.loadFailureCount),
+                Math.max(0, evictionCount - other.evictionCount),
+                Math.max(0, evictionWeight - other.evictionWeight),
+                loadTimes.minus(other.loadTimes),
+                evictionWeights.minus(other.evictionWeights));
+    }
+
+    /**
+     * Returns the sum of this and the specified statistics,
+     * e.g. of several caches.
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(
+                hitCount + other.hitCount,
+                missCount + other.missCount,
+                putCount + other.putCount,
+                loadSuccessCount + other.loadSuccessCount,
+                loadFailureCount + other.loadFailureCount,
+                evictionCount + other.evictionCount,
+                evictionWeight + other.evictionWeight,
+                loadTimes.plus(other.loadTimes),
+                evictionWeights.plus(other.evictionWeights));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStats[hits=%d,misses=%d,hitRate=%d%%,puts=%d,loads=%d,failures=%d,"
+                        + "avgLoad=%.1fms,p99Load=%.1fms,evictions=%d,evictionWeight=%d]",
+                hitCount, missCount, (int) (hitRate() * 100), putCount, loadSuccessCount,
+                loadFailureCount, averageLoadPenalty() / 1000000.0,
+                loadTimes.percentile(99) / 1000000.0, evictionCount, evictionWeight);
+    }
+}
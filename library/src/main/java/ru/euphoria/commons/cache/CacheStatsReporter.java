@@ -0,0 +1,41 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * Turns the cumulative {@link CacheStats} of a cache into the statistics
+ * of periods between reports, e.g. to send them to analytics every minute.
+ *
+ * <pre>
+ *     CacheStatsReporter reporter = new CacheStatsReporter();
+ *     ...
+ *     // on the timer
+ *     CacheStats lastMinute = reporter.delta(cache.stats());
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class CacheStatsReporter {
+    private CacheStats previous = CacheStats.EMPTY;
+
+    /**
+     * Returns the statistics since the previous call of this method,
+     * or since the creation of the cache for the first call
+     *
+     * @param current the current statistics of the cache
+     */
+    public synchronized CacheStats delta(CacheStats current) {
+        if (current == null) {
+            throw new NullPointerException("current == null");
+        }
+
+        CacheStats delta = current.minus(previous);
+        previous = current;
+        onReport(delta);
+        return delta;
+    }
+
+    /**
+     * Called by {@link #delta} with the statistics of the period.
+     * The default implementation does nothing, override to export them.
+     */
+    protected void onReport(CacheStats delta) {}
+}
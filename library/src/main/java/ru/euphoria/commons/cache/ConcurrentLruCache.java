@@ -0,0 +1,543 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.euphoria.commons.concurrent.ThreadExecutor;
+
+/**
+ * A concurrent version of {@link LruCache}, which splits the entries
+ * into hash-striped segments. Each segment is a small {@link LruCache}
+ * with its own lock, so threads which access different keys
+ * do not serialize on a single monitor.
+ *
+ * <p>The hit, miss and eviction semantics and the {@link #sizeOf},
+ * {@link #entryRemoved} and {@link #create} hooks are the same as in
+ * {@link LruCache}. The only difference is that the least recently used
+ * order is maintained per segment, so an evicted entry is the eldest
+ * entry of its segment, and not necessarily of the whole cache.
+ *
+ * @since 1.2
+ */
+public class ConcurrentLruCache<K, V> implements Cache<K, V>, Trimmable, Snapshottable<K, V> {
+    /** The default number of segments, if enough capacity */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /** The minimum capacity of a segment, in units */
+    private static final int MIN_SEGMENT_SIZE = 8;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    /** Shared by all segments, so the statistics are read without locks */
+    private final StatsCounter stats = new StatsCounter();
+    private volatile RemovalListener<K, V> removalListener;
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+    private long maxSize;
+    private final Weigher<? super K, ? super V> weigher;
+
+    /**
+     * Creates a new {@link ConcurrentLruCache} with
+     * the default concurrency level
+     *
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ConcurrentLruCache(long maxSize) {
+        this(maxSize, Math.max(DEFAULT_CONCURRENCY_LEVEL, ThreadExecutor.CPU_COUNT * 2));
+    }
+
+    /**
+     * Creates a new {@link ConcurrentLruCache} with the default concurrency
+     * level, which is bounded by the total weight of entries, see {@link Weighers}
+     *
+     * @param maxSize the maximum sum of weights of the entries in this cache
+     * @param weigher the weigher of entries
+     */
+    public ConcurrentLruCache(long maxSize, Weigher<? super K, ? super V> weigher) {
+        this(maxSize, Math.max(DEFAULT_CONCURRENCY_LEVEL, ThreadExecutor.CPU_COUNT * 2), weigher);
+        if (weigher == null) {
+            throw new NullPointerException("weigher == null");
+        }
+    }
+
+    /**
+     * Creates a new {@link ConcurrentLruCache}
+     *
+     * @param maxSize          the maximum size of this cache, see {@link #ConcurrentLruCache(long)}
+     * @param concurrencyLevel the estimated number of concurrently accessing threads,
+     *                         used as a hint for the number of segments
+     */
+    public ConcurrentLruCache(long maxSize, int concurrencyLevel) {
+        this(maxSize, concurrencyLevel, null);
+    }
+
+    /**
+     * Creates a new {@link ConcurrentLruCache}
+     *
+     * @param maxSize          the maximum size of this cache, see {@link #ConcurrentLruCache(long)}
+     * @param concurrencyLevel the estimated number of concurrently accessing threads,
+     *                         used as a hint for the number of segments
+     * @param weigher          the weigher of entries, or null to use {@link #sizeOf}
+     */
+    public ConcurrentLruCache(long maxSize, int concurrencyLevel, Weigher<? super K, ? super V> weigher) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+
+        // a power of two, so that the segment index is a shift of the hash,
+        // but each segment should hold at least a few entries
+        int limit = (int) Math.min(concurrencyLevel, Math.max(1, maxSize / MIN_SEGMENT_SIZE));
+        int count = 1;
+        int shift = 0;
+        while (count < limit) {
+            count <<= 1;
+            shift++;
+        }
+
+        this.maxSize = maxSize;
+        this.weigher = weigher;
+        this.segmentShift = 32 - shift;
+        // generic arrays can't be created, the array holds only the segments of this cache
+        @SuppressWarnings("unchecked")
+        Segment[] segments = (Segment[]) new ConcurrentLruCache<?, ?>.Segment[count];
+        this.segments = segments;
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(segmentSize(maxSize, i));
+        }
+    }
+
+    /**
+     * Sets the size of the cache. Each segment keeps at least one unit,
+     * so the effective size is never less than the number of segments.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].resize(Math.max(1, segmentSize(maxSize, i)));
+        }
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the queue of its segment. This returns null if a value is not
+     * cached and cannot be created.
+     */
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue of its segment.
+     */
+    @Override
+    public final boolean put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        trimmer.onInsert();
+        return segmentFor(key).put(key, value);
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache. The keys
+     * are grouped by segments, so the lock of each segment is taken once.
+     */
+    @Override
+    public final Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        ArrayList<K>[] groups = groupBySegment(keys);
+        LinkedHashMap<K, V> found = new LinkedHashMap<>();
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] != null) {
+                found.putAll(segments[i].getAllPresent(groups[i]));
+            }
+        }
+
+        // in the order of keys
+        LinkedHashMap<K, V> result = new LinkedHashMap<>(found.size());
+        for (K key : keys) {
+            V value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}. The entries are grouped
+     * by segments, so the lock of each segment is taken once.
+     */
+    @Override
+    public final void putAll(Map<? extends K, ? extends V> entries) {
+        trimmer.onInsert();
+
+        // generic arrays can't be created, the array holds only the entries of this cache
+        @SuppressWarnings("unchecked")
+        LinkedHashMap<K, V>[] groups = (LinkedHashMap<K, V>[]) new LinkedHashMap<?, ?>[segments.length];
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+            K key = entry.getKey();
+            if (key == null || entry.getValue() == null) {
+                throw new NullPointerException("key == null || value == null");
+            }
+
+            int index = segmentIndex(key);
+            if (groups[index] == null) {
+                groups[index] = new LinkedHashMap<>();
+            }
+            groups[index].put(key, entry.getValue());
+        }
+
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] != null) {
+                segments[i].putAll(groups[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     */
+    @Override
+    public final boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * Remove the eldest entries of each segment until the total of remaining
+     * entries is at or below the requested size. The requested size
+     * is divided between segments in the same proportion as {@link #maxSize()}.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(long maxSize) {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].trimToSize(maxSize < 0 ? maxSize : segmentSize(maxSize, i));
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted or removed,
+     * see {@link LruCache#entryRemoved}. The default implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key,
+     * see {@link LruCache#create}. The default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units, see {@link LruCache#sizeOf}. The default
+     * implementation returns the weight of the {@link Weigher}, or 1.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected long sizeOf(K key, V value) {
+        return weigher != null ? weigher.weigh(key, value) : 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    @Override
+    public final int size() {
+        return (int) Math.min(weightedSize(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in this cache, like
+     * {@link #size()}, but without the limit of {@link Integer#MAX_VALUE}.
+     */
+    public final long weightedSize() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.weightedSize();
+        }
+        return size;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final long createCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of all segments. The counters
+     * are read without the locks of segments.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache. Entries are
+     * ordered from least recently accessed to most recently accessed
+     * within each segment, segments are copied one by one.
+     */
+    public final Map<K, V> snapshot() {
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>();
+        for (Segment segment : segments) {
+            snapshot.putAll(segment.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns up to {@code limit} most recently used entries. The recency
+     * is known only within a segment, so the hottest entries of segments
+     * are interleaved, which is close to the global order, because the keys
+     * are spread evenly. Each segment is locked only to copy its references.
+     *
+     * @param limit the maximum number of entries
+     */
+    @Override
+    public final CacheSnapshot<K, V> hottest(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+
+        // generic arrays can't be created, the array holds only the snapshots of the segments of this cache
+        @SuppressWarnings("unchecked")
+        CacheSnapshot<K, V>[] parts = (CacheSnapshot<K, V>[]) new CacheSnapshot<?, ?>[segments.length];
+        int[] remaining = new int[segments.length];
+        int total = 0;
+        for (int i = 0; i < segments.length; i++) {
+            parts[i] = segments[i].hottest(limit);
+            remaining[i] = parts[i].size();
+            total += remaining[i];
+        }
+
+        // fill from the end, taking the hottest entry of each segment in turn
+        int index = Math.min(limit, total);
+        Object[] keys = new Object[index];
+        Object[] values = new Object[index];
+        while (index > 0) {
+            for (int i = 0; i < parts.length && index > 0; i++) {
+                if (remaining[i] > 0) {
+                    remaining[i]--;
+                    index--;
+                    keys[index] = parts[i].keyAt(remaining[i]);
+                    values[index] = parts[i].valueAt(remaining[i]);
+                }
+            }
+        }
+        return new CacheSnapshot<>(keys, values);
+    }
+
+    /**
+     * Restores the entries of the snapshot to their segments,
+     * see {@link LruCache#restore}
+     *
+     * @param snapshot the entries to put, e.g. saved on the previous start
+     * @return the number of restored entries
+     */
+    @Override
+    public final int restore(CacheSnapshot<? extends K, ? extends V> snapshot) {
+        trimmer.onInsert();
+
+        // generic arrays can't be created, the arrays hold only the entries of the snapshot
+        @SuppressWarnings("unchecked")
+        ArrayList<Object>[] keys = (ArrayList<Object>[]) new ArrayList<?>[segments.length];
+        @SuppressWarnings("unchecked")
+        ArrayList<Object>[] values = (ArrayList<Object>[]) new ArrayList<?>[segments.length];
+        for (int i = 0; i < snapshot.size(); i++) {
+            K key = snapshot.keyAt(i);
+            int index = segmentIndex(key);
+            if (keys[index] == null) {
+                keys[index] = new ArrayList<>();
+                values[index] = new ArrayList<>();
+            }
+            keys[index].add(key);
+            values[index].add(snapshot.valueAt(i));
+        }
+
+        int restored = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (keys[i] != null) {
+                restored += segments[i].restore(
+                        new CacheSnapshot<K, V>(keys[i].toArray(), values[i].toArray()));
+            }
+        }
+        return restored;
+    }
+
+    @Override public final String toString() {
+        long hits = hitCount();
+        long misses = missCount();
+        long accesses = hits + misses;
+        long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("ConcurrentLruCache[maxSize=%d,segments=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize(), segments.length, hits, misses, hitPercent);
+    }
+
+    private Segment segmentFor(K key) {
+        return segments[segmentIndex(key)];
+    }
+
+    private int segmentIndex(K key) {
+        if (segments.length == 1) {
+            return 0;
+        }
+        // spread the bits, because hash codes of Integer keys are sequential
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) >>> segmentShift & (segments.length - 1);
+    }
+
+    private ArrayList<K>[] groupBySegment(Iterable<? extends K> keys) {
+        // generic arrays can't be created, the array holds only the keys of this cache
+        @SuppressWarnings("unchecked")
+        ArrayList<K>[] groups = (ArrayList<K>[]) new ArrayList<?>[segments.length];
+        for (K key : keys) {
+            if (key == null) {
+                throw new NullPointerException("key == null");
+            }
+
+            int index = segmentIndex(key);
+            if (groups[index] == null) {
+                groups[index] = new ArrayList<>();
+            }
+            groups[index].add(key);
+        }
+        return groups;
+    }
+
+    private long segmentSize(long maxSize, int index) {
+        // the remainder is given to the first segments
+        long size = maxSize / segments.length;
+        if (index < maxSize % segments.length) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * The part of the cache, which delegates the hooks to the outer cache
+     */
+    private final class Segment extends LruCache<K, V> {
+
+        Segment(long maxSize) {
+            super(maxSize, null, stats);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+            ConcurrentLruCache.this.entryRemoved(evicted, key, oldValue, newValue);
+            RemovalListener<K, V> listener = removalListener;
+            if (listener != null) {
+                listener.onRemoval(new RemovalNotification<>(key, oldValue,
+                        RemovalCause.of(evicted, newValue)));
+            }
+        }
+
+        @Override
+        protected V create(K key) {
+            V value = ConcurrentLruCache.this.create(key);
+            if (value != null) {
+                ConcurrentLruCache.this.trimmer.onInsert();
+            }
+            return value;
+        }
+
+        @Override
+        protected long sizeOf(K key, V value) {
+            return ConcurrentLruCache.this.sizeOf(key, value);
+        }
+    }
+}
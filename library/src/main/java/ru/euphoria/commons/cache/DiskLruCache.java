@@ -0,0 +1,1086 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Modified by Euphoria Dev Community: ported to FileStreams, the keys
+ * are checked by a Bloom filter, the statistics are lock-free.
+ */
+package ru.euphoria.commons.cache;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import ru.euphoria.commons.castle.Codec;
+import ru.euphoria.commons.concurrent.StripedCounter;
+import ru.euphoria.commons.io.EasyStreams;
+import ru.euphoria.commons.io.FileStreams;
+
+/**
+ * A cache that uses a bounded amount of space on a file system,
+ * so the cached values survive the restart of the process.
+ *
+ * <p>Each entry is stored in its own file. All changes are recorded in the
+ * append-only journal: a value is written into a temporary file, which
+ * is renamed on commit, and the journal gets a line about it.
+ * So the readers never see a partially written value, and the
+ * values of edits interrupted by a crash are deleted on the next open.
+ * The journal is compacted when it has too many redundant lines.
+ * If the journal is damaged, e.g. its last line was cut by a crash,
+ * it is rebuilt from the committed files on the next open.
+ *
+ * <p>The total size of values is limited by the byte budget. When it is
+ * exceeded, the least recently used entries are evicted. Values can be
+ * read and written as a whole, or as streams by {@link #openStream}
+ * and {@link #edit}.
+ *
+ * <p>The keys of entries are also added to a {@link BloomFilter}, which is
+ * checked before the lock, so the lookups of keys, which were never stored,
+ * e.g. the first requests of media urls, do not wait for the journal writes.
+ * The filter is rebuilt with the journal and saved next to it.
+ *
+ * <p>The keys must match the regex <strong>[a-zA-Z0-9_-]{1,120}</strong>,
+ * use {@link #key(String)} to make a key from an url.
+ *
+ * <pre>
+ *     DiskLruCache cache = DiskLruCache.open(new File(context.getCacheDir(), "http"),
+ *             1, 50 * FileStreams.ONE_MB);
+ *
+ *     DiskLruCache.Editor editor = cache.edit(DiskLruCache.key(url));
+ *     OutputStream out = editor.newOutputStream();
+ *     EasyStreams.copy(connection.getInputStream(), out);
+ *     editor.commit();
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class DiskLruCache implements Cache<String, byte[]>, Closeable {
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    static final String JOURNAL_FILE_BACKUP = "journal.bkp";
+    static final String FILTER_FILE = "journal.bloom";
+    static final String MAGIC = "ru.euphoria.commons.cache.DiskLruCache";
+    static final String VERSION = "2";
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-zA-Z0-9_-]{1,120}");
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    /**
+     * The suffixes of the files of entries. The keys have no dots,
+     * so the files never collide with the journal, e.g. for the key "journal"
+     */
+    private static final String CLEAN_SUFFIX = ".0";
+    private static final String DIRTY_SUFFIX = ".0.tmp";
+    private static final String COPY_SUFFIX = ".0.copy";
+
+    /** The number of redundant lines, after which the journal is compacted */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    /** The default false positive rate of the filter of keys */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    /** The minimum capacity of the filter of keys */
+    private static final int MIN_FILTER_CAPACITY = 1024;
+
+    private final File directory;
+    private final File journalFile;
+    private final File journalFileTmp;
+    private final File journalFileBackup;
+    private final File filterFile;
+    private final int appVersion;
+    private final double falsePositiveRate;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private Writer journalWriter;
+    private int redundantOpCount;
+
+    /** Size of values in bytes */
+    private long size;
+    private long maxSize;
+
+    private final StatsCounter stats = new StatsCounter();
+
+    /** The keys of entries, or null if the cache is closed */
+    private volatile BloomFilter filter;
+    /** The misses, which were answered by the filter without the lock */
+    private final StripedCounter filteredMissCount = new StripedCounter();
+
+    private DiskLruCache(File directory, int appVersion, long maxSize, double falsePositiveRate) {
+        this.directory = directory;
+        this.appVersion = appVersion;
+        this.maxSize = maxSize;
+        this.falsePositiveRate = falsePositiveRate;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
+        this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
+        this.filterFile = new File(directory, FILTER_FILE);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating a cache if none exists there.
+     *
+     * @param directory  a writable directory
+     * @param appVersion the version of values format. If it is changed,
+     *                   the previous values are deleted
+     * @param maxSize    the maximum number of bytes this cache should use to store
+     * @throws IOException if reading or writing the cache directory fails
+     */
+    public static DiskLruCache open(File directory, int appVersion, long maxSize) throws IOException {
+        return open(directory, appVersion, maxSize, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating a cache if none exists there.
+     *
+     * @param directory         a writable directory
+     * @param appVersion        the version of values format. If it is changed,
+     *                          the previous values are deleted
+     * @param maxSize           the maximum number of bytes this cache should use to store
+     * @param falsePositiveRate the false positive rate of the filter of keys,
+     *                          see {@link BloomFilter}
+     * @throws IOException if reading or writing the cache directory fails
+     */
+    public static DiskLruCache open(File directory, int appVersion, long maxSize,
+                                    double falsePositiveRate) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("falsePositiveRate <= 0 || falsePositiveRate >= 1");
+        }
+
+        // if a backup file exists, the rebuild of journal was interrupted
+        File backupFile = new File(directory, JOURNAL_FILE_BACKUP);
+        if (backupFile.exists()) {
+            File journalFile = new File(directory, JOURNAL_FILE);
+            if (journalFile.exists()) {
+                backupFile.delete();
+            } else {
+                FileStreams.move(backupFile, journalFile);
+            }
+        }
+
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, maxSize, falsePositiveRate);
+        if (cache.journalFile.exists()) {
+            try {
+                cache.readJournal();
+                cache.processJournal();
+                cache.readFilter();
+                cache.journalWriter = EasyStreams.buffer(FileStreams.writer(cache.journalFile, true));
+                return cache;
+            } catch (CorruptJournalException e) {
+                // the values are intact, only their order is lost
+                e.printStackTrace();
+                cache.recoverEntries();
+                cache.rebuildJournal();
+                cache.trimToSize(maxSize);
+                return cache;
+            } catch (IOException e) {
+                // the journal is corrupted, start from scratch
+                e.printStackTrace();
+                cache.close();
+                cache.entries.clear();
+                cache.size = 0;
+                FileStreams.delete(directory);
+            }
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    /**
+     * Returns a valid cache key for the specified text, e.g. url.
+     * The key is the MD5 hash of text.
+     */
+    public static String key(String text) {
+        return Codec.md5().encode(text);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache,
+     * or null if it doesn't or can't be read.
+     * The value is read into memory, use {@link #openStream} for large values.
+     */
+    @Override
+    public final byte[] get(String key) {
+        try {
+            InputStream in = openStream(key);
+            return in == null ? null : EasyStreams.readBytes(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream of the value for {@code key}, or null if it is not
+     * in the cache. The value is moved to the head of the queue.
+     * The stream must be closed after reading.
+     *
+     * @throws IOException if the value can't be opened
+     */
+    public InputStream openStream(String key) throws IOException {
+        checkKey(key);
+
+        BloomFilter filter = this.filter;
+        if (filter != null && !filter.mightContain(key)) {
+            filteredMissCount.increment();
+            stats.recordMisses(1);
+            return null;
+        }
+
+        File file;
+        synchronized (this) {
+            checkNotClosed();
+            Entry entry = entries.get(key);
+            if (entry == null || !entry.readable) {
+                stats.recordMisses(1);
+                return null;
+            }
+            file = entry.getCleanFile();
+            journal(READ, key);
+        }
+
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            // the file was evicted or deleted manually
+            stats.recordMisses(1);
+            return null;
+        }
+        stats.recordHits(1);
+        return EasyStreams.buffer(in);
+    }
+
+    /**
+     * Returns an editor for the entry named {@code key}, or null if
+     * another edit is in progress.
+     *
+     * @throws IOException if the journal can't be written
+     */
+    public synchronized Editor edit(String key) throws IOException {
+        checkKey(key);
+        checkNotClosed();
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+            // before the value is readable, so the readers never miss it
+            filter.add(key);
+        } else if (entry.currentEditor != null) {
+            return null;
+        }
+
+        Editor editor = new Editor(entry);
+        entry.currentEditor = editor;
+
+        // flush the journal before creating files, to prevent file leaks
+        journal(DIRTY, key);
+        journalWriter.flush();
+        return editor;
+    }
+
+    /**
+     * Writes {@code value} for {@code key}, replacing the previous one.
+     *
+     * @return true if the value is written, false if another edit
+     *         is in progress or an I/O error occurs
+     */
+    @Override
+    public final boolean put(String key, byte[] value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        Editor editor = null;
+        try {
+            editor = edit(key);
+            if (editor == null) {
+                return false;
+            }
+            EasyStreams.write(value, editor.newOutputStream());
+            editor.commit();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (editor != null) {
+                editor.abortUnlessCommitted();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache.
+     * Each value is read into memory.
+     */
+    @Override
+    public final Map<String, byte[]> getAllPresent(Iterable<? extends String> keys) {
+        LinkedHashMap<String, byte[]> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            byte[] value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final void putAll(Map<? extends String, ? extends byte[]> entries) {
+        for (Map.Entry<? extends String, ? extends byte[]> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists and can be removed.
+     * Entries actively being edited cannot be removed.
+     *
+     * @return true if an entry was removed
+     */
+    @Override
+    public final boolean remove(String key) {
+        checkKey(key);
+
+        synchronized (this) {
+            checkNotClosed();
+            Entry entry = entries.get(key);
+            if (entry == null || entry.currentEditor != null) {
+                return false;
+            }
+
+            try {
+                removeEntry(entry);
+                compactJournalIfNeeded();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        entryRemoved(false, key);
+        return true;
+    }
+
+    /**
+     * Remove the eldest entries until the total size of remaining values
+     * is at or below the requested size.
+     *
+     * @param maxSize the maximum size of the values, in bytes.
+     *                May be -1 to evict even empty values.
+     */
+    public void trimToSize(long maxSize) {
+        ArrayList<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (journalWriter == null) {
+                return;
+            }
+
+            try {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (size > maxSize && iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.currentEditor != null || !entry.readable) {
+                        continue;
+                    }
+                    iterator.remove();
+                    stats.recordEviction(entry.length);
+                    deleteEntry(entry);
+                    evicted.add(entry.key);
+                }
+                compactJournalIfNeeded();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (int i = 0; i < evicted.size(); i++) {
+            entryRemoved(true, evicted.get(i));
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. The default
+     * implementation does nothing. The value is not passed, because
+     * its file is already deleted.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, String key) {}
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     * The entries being edited are not removed.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict empty values
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * Returns the size of values in bytes,
+     * or {@link Integer#MAX_VALUE} if the size is more
+     */
+    @Override
+    public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the size of values in bytes
+     */
+    public synchronized final long sizeInBytes() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of bytes that this cache should use to store its data.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes that this cache should use to store its data.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the directory where this cache stores its data.
+     */
+    public final File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null,
+     * including {@link #filteredMissCount()}.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null
+     * by the filter of keys, without the lock and the journal.
+     */
+    public final long filteredMissCount() {
+        return filteredMissCount.sum();
+    }
+
+    /**
+     * Returns the number of committed edits.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     * The eviction weights are the sizes of the files in bytes.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns true if this cache has been closed.
+     */
+    public synchronized final boolean isClosed() {
+        return journalWriter == null;
+    }
+
+    /**
+     * Force buffered operations to the file system.
+     */
+    public void flush() throws IOException {
+        trimToSize(maxSize());
+        synchronized (this) {
+            checkNotClosed();
+            journalWriter.flush();
+        }
+    }
+
+    /**
+     * Closes this cache. Stored values will remain on the file system.
+     * The edits in progress are aborted.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (journalWriter == null) {
+                return;
+            }
+
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                if (entry.currentEditor != null) {
+                    entry.currentEditor.abort();
+                }
+            }
+        }
+        trimToSize(maxSize());
+
+        synchronized (this) {
+            if (journalWriter != null) {
+                journalWriter.close();
+                journalWriter = null;
+                // the journal is complete, so the filter can be reused on the next open
+                writeFilter();
+                filter = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the cache and deletes all of its stored values. This will delete
+     * all files in the cache directory including files that weren't created by
+     * the cache.
+     */
+    public void delete() throws IOException {
+        close();
+        FileStreams.delete(directory);
+    }
+
+    @Override public synchronized final String toString() {
+        long hitCount = stats.hitCount();
+        long missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("DiskLruCache[maxSize=%d,size=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, size, hitCount, missCount, hitPercent);
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader = EasyStreams.buffer(FileStreams.reader(journalFile));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String appVersionString = reader.readLine();
+            String blank = reader.readLine();
+            if (!MAGIC.equals(magic)
+                    || !VERSION.equals(version)
+                    || !Integer.toString(appVersion).equals(appVersionString)
+                    || !"".equals(blank)) {
+                throw new IOException("unexpected journal header: ["
+                        + magic + ", " + version + ", " + appVersionString + ", " + blank + "]");
+            }
+
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readJournalLine(line);
+                lineCount++;
+            }
+            redundantOpCount = lineCount - entries.size();
+        } finally {
+            EasyStreams.close(reader);
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            throw new CorruptJournalException(line);
+        }
+
+        String key = parts[1];
+        if (parts[0].equals(REMOVE) && parts.length == 2) {
+            entries.remove(key);
+            return;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+
+        if (parts[0].equals(CLEAN) && parts.length == 3) {
+            entry.readable = true;
+            entry.currentEditor = null;
+            try {
+                entry.length = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                throw new CorruptJournalException(line);
+            }
+        } else if (parts[0].equals(DIRTY) && parts.length == 2) {
+            entry.currentEditor = new Editor(entry);
+        } else if (!(parts[0].equals(READ) && parts.length == 2)) {
+            throw new CorruptJournalException(line);
+        }
+    }
+
+    /**
+     * Computes the initial size and collects garbage as a part of opening the
+     * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+     */
+    private void processJournal() {
+        journalFileTmp.delete();
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (entry.currentEditor == null) {
+                size += entry.length;
+            } else {
+                entry.currentEditor = null;
+                entry.getCleanFile().delete();
+                entry.getDirtyFile().delete();
+                entry.getCopyFile().delete();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces the entries, which were read from the damaged journal,
+     * by the committed files in the directory, from the least recently
+     * modified one. The files of interrupted edits are deleted.
+     */
+    private void recoverEntries() {
+        entries.clear();
+        size = 0;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        ArrayList<File> clean = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(CLEAN_SUFFIX)
+                    && KEY_PATTERN.matcher(name.substring(0, name.length() - CLEAN_SUFFIX.length())).matches()) {
+                clean.add(file);
+            } else if (name.endsWith(DIRTY_SUFFIX) || name.endsWith(COPY_SUFFIX)) {
+                file.delete();
+            }
+        }
+        Collections.sort(clean, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < clean.size(); i++) {
+            File file = clean.get(i);
+            String name = file.getName();
+            Entry entry = new Entry(name.substring(0, name.length() - CLEAN_SUFFIX.length()));
+            entry.readable = true;
+            entry.length = file.length();
+            entries.put(entry.key, entry);
+            size += entry.length;
+        }
+    }
+
+    /**
+     * Creates a new journal that omits redundant information.
+     * This replaces the current journal if it exists.
+     */
+    private synchronized void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+
+        Writer writer = EasyStreams.buffer(FileStreams.writer(journalFileTmp));
+        try {
+            writer.write(MAGIC + "\n");
+            writer.write(VERSION + "\n");
+            writer.write(appVersion + "\n");
+            writer.write("\n");
+
+            for (Entry entry : entries.values()) {
+                if (entry.currentEditor != null) {
+                    writer.write(DIRTY + ' ' + entry.key + '\n');
+                } else {
+                    writer.write(CLEAN + ' ' + entry.key + ' ' + entry.length + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (journalFile.exists()) {
+            FileStreams.move(journalFile, journalFileBackup);
+        }
+        FileStreams.move(journalFileTmp, journalFile);
+        journalFileBackup.delete();
+
+        journalWriter = EasyStreams.buffer(FileStreams.writer(journalFile, true));
+        redundantOpCount = 0;
+
+        // the removed keys are forgotten only here
+        rebuildFilter();
+        writeFilter();
+    }
+
+    /**
+     * Reads the filter, which was saved with the current journal, or
+     * rebuilds it from the entries, if the journal was changed after
+     */
+    private void readFilter() {
+        if (filterFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(EasyStreams.buffer(new FileInputStream(filterFile)));
+                long journalLength = in.readLong();
+                BloomFilter saved = BloomFilter.readFrom(in);
+                if (journalLength == journalFile.length()
+                        && saved.falsePositiveRate() == falsePositiveRate) {
+                    filter = saved;
+                    return;
+                }
+            } catch (IOException e) {
+                // damaged, rebuild
+                e.printStackTrace();
+            } finally {
+                EasyStreams.close(in);
+            }
+        }
+        rebuildFilter();
+    }
+
+    /**
+     * Creates a new filter of the keys of entries. Must be called under the lock
+     */
+    private void rebuildFilter() {
+        BloomFilter filter = new BloomFilter(Math.max(MIN_FILTER_CAPACITY, entries.size() * 2),
+                falsePositiveRate);
+        for (String key : entries.keySet()) {
+            filter.add(key);
+        }
+        this.filter = filter;
+    }
+
+    /**
+     * Saves the filter with the length of the journal, which it matches.
+     * Must be called under the lock, after the journal is written.
+     */
+    private void writeFilter() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(EasyStreams.buffer(new FileOutputStream(filterFile)));
+            out.writeLong(journalFile.length());
+            filter.writeTo(out);
+            out.close();
+        } catch (IOException e) {
+            // the filter is rebuilt on the next open
+            e.printStackTrace();
+            EasyStreams.close(out);
+            filterFile.delete();
+        }
+    }
+
+    /**
+     * Publishes or discards the value of the edit
+     *
+     * @return true if the cache must be trimmed
+     */
+    private synchronized boolean completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.entry;
+        if (entry.currentEditor != editor) {
+            throw new IllegalStateException("edit didn't complete normally");
+        }
+
+        File dirty = entry.getDirtyFile();
+        IOException failure = null;
+        if (success && dirty.exists()) {
+            File clean = entry.getCleanFile();
+            long oldLength = entry.length;
+            try {
+                replace(entry, dirty, clean);
+                entry.length = clean.length();
+                size = size - (entry.readable ? oldLength : 0) + entry.length;
+                stats.recordPuts(1);
+            } catch (IOException e) {
+                // the previous value is intact
+                dirty.delete();
+                success = false;
+                failure = e;
+            }
+        } else {
+            dirty.delete();
+            success = false;
+        }
+
+        redundantOpCount++;
+        entry.currentEditor = null;
+        if (entry.readable | success) {
+            entry.readable = true;
+            journal(CLEAN, entry.key + ' ' + entry.length);
+        } else {
+            entries.remove(entry.key);
+            journal(REMOVE, entry.key);
+        }
+        journalWriter.flush();
+        compactJournalIfNeeded();
+        if (failure != null) {
+            throw failure;
+        }
+        return size > maxSize;
+    }
+
+    /**
+     * Replaces the clean file of the entry by the written one. The rename
+     * replaces the target atomically, so the readers and a crash see either
+     * the previous or the new value, never a missing file. If the file can't
+     * be renamed, it is copied next to the target and the copy is renamed.
+     */
+    private static void replace(Entry entry, File dirty, File clean) throws IOException {
+        if (dirty.renameTo(clean)) {
+            return;
+        }
+
+        File copy = entry.getCopyFile();
+        FileStreams.copy(dirty, copy);
+        if (!copy.renameTo(clean)) {
+            copy.delete();
+            throw new IOException("Unable to rename file: " + copy + " to " + clean);
+        }
+        dirty.delete();
+    }
+
+    /** Removes the files of the entry. Must be called under the lock */
+    private void removeEntry(Entry entry) throws IOException {
+        entries.remove(entry.key);
+        deleteEntry(entry);
+    }
+
+    /** Deletes the files of the entry, which is already removed from the map */
+    private void deleteEntry(Entry entry) throws IOException {
+        File file = entry.getCleanFile();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete file: " + file);
+        }
+        size -= entry.length;
+        entry.length = 0;
+        entry.readable = false;
+
+        redundantOpCount++;
+        journal(REMOVE, entry.key);
+    }
+
+    /**
+     * Rebuilds the journal, if the number of redundant lines
+     * exceeds the threshold and the number of entries
+     *
+     * @return true if the journal has been rebuilt
+     */
+    private boolean compactJournalIfNeeded() throws IOException {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+            return true;
+        }
+        return false;
+    }
+
+    private void journal(String operation, String argument) throws IOException {
+        journalWriter.write(operation + ' ' + argument + '\n');
+        if (operation.equals(READ)) {
+            redundantOpCount++;
+        }
+    }
+
+    private void checkNotClosed() {
+        if (journalWriter == null) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    private static void checkKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("keys must match regex [a-zA-Z0-9_-]{1,120}: \"" + key + "\"");
+        }
+    }
+
+    /**
+     * Edits the value of an entry. The value is written into a temporary
+     * file, which replaces the value on {@link #commit()}.
+     */
+    public final class Editor {
+        private final Entry entry;
+        private OutputStream stream;
+        private boolean done;
+
+        private Editor(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Returns a new buffered output stream to write the value.
+         * If the underlying output stream encounters errors when writing
+         * to the file system, {@link #commit()} will fail.
+         *
+         * @throws IOException if the temporary file can't be created
+         */
+        public OutputStream newOutputStream() throws IOException {
+            synchronized (DiskLruCache.this) {
+                if (entry.currentEditor != this) {
+                    throw new IllegalStateException();
+                }
+                EasyStreams.close(stream);
+                stream = EasyStreams.buffer(new FileOutputStream(entry.getDirtyFile()));
+                return stream;
+            }
+        }
+
+        /**
+         * Commits this edit so it is visible to readers. This closes
+         * the output stream and releases the edit lock.
+         *
+         * @throws IOException if the value can't be renamed or written
+         */
+        public void commit() throws IOException {
+            if (stream != null) {
+                // throws, if the buffered bytes can't be written
+                stream.close();
+            }
+            boolean trim;
+            try {
+                trim = completeEdit(this, true);
+            } finally {
+                // the entry is released, even if the value can't be published
+                done = true;
+            }
+            if (trim) {
+                trimToSize(maxSize());
+            }
+        }
+
+        /**
+         * Aborts this edit. This releases the edit lock so another
+         * edit may be started on the same key.
+         */
+        public void abort() throws IOException {
+            EasyStreams.close(stream);
+            try {
+                completeEdit(this, false);
+            } finally {
+                done = true;
+            }
+        }
+
+        /**
+         * Aborts this edit, if it was not committed or aborted
+         */
+        public void abortUnlessCommitted() {
+            if (!done) {
+                try {
+                    abort();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private final class Entry {
+        private final String key;
+        /** Length of the value in bytes */
+        private long length;
+        /** True if this entry has ever been published */
+        private boolean readable;
+        /** The ongoing edit or null if this entry is not being edited */
+        private Editor currentEditor;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        File getCleanFile() {
+            return new File(directory, key + CLEAN_SUFFIX);
+        }
+
+        File getDirtyFile() {
+            return new File(directory, key + DIRTY_SUFFIX);
+        }
+
+        /** The copy of the dirty file, if it can't be renamed */
+        File getCopyFile() {
+            return new File(directory, key + COPY_SUFFIX);
+        }
+    }
+
+    /**
+     * The journal line, which can't be parsed. The journal is damaged,
+     * but the committed files are intact
+     */
+    private static final class CorruptJournalException extends IOException {
+        CorruptJournalException(String line) {
+            super("unexpected journal line: " + line);
+        }
+    }
+}
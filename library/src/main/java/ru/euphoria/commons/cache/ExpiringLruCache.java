@@ -0,0 +1,648 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ru.euphoria.commons.concurrent.StripedCounter;
+
+/**
+ * A {@link LruCache} with the time-based expiration of entries.
+ *
+ * <p>An entry expires after a fixed duration since it was created or replaced
+ * (expire-after-write), or since the last access to it (expire-after-access),
+ * whichever comes first. The expiration times are tracked by a hierarchical
+ * timing wheel, which is advanced on every operation of the cache, so
+ * the expired entries are reclaimed in O(1) amortized time without
+ * a cleaning thread.
+ *
+ * <p>Expired entries are passed to {@link #entryRemoved} like evicted ones.
+ * The {@link #sizeOf}, {@link #entryRemoved} and {@link #create} hooks
+ * have the same semantics as in {@link LruCache}.
+ *
+ * <pre>
+ *     // users expire 5 minutes after loading, or after 1 minute of inactivity
+ *     ExpiringLruCache&lt;Integer, VKUser&gt; users = new ExpiringLruCache&lt;&gt;(500,
+ *             5, 1, TimeUnit.MINUTES);
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class ExpiringLruCache<K, V> implements Cache<K, V>, Trimmable {
+    /**
+     * The longest duration, about 146 years, which keeps the times comparable
+     * by their difference, when the ticker wraps around. The entries, which
+     * don't expire, are given this duration.
+     */
+    private static final long MAXIMUM_EXPIRY = Long.MAX_VALUE >> 1;
+
+    private final LinkedHashMap<K, Entry<K, V>> map;
+    private final TimerWheel<K, V> timerWheel;
+    private final Ticker ticker;
+
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private long size;
+    private long maxSize;
+
+    private final Weigher<? super K, ? super V> weigher;
+    private final StatsCounter stats = new StatsCounter();
+    private volatile RemovalListener<K, V> removalListener;
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+    private final StripedCounter expirationCount = new StripedCounter();
+
+    /**
+     * Creates a new {@link ExpiringLruCache}, which reads
+     * the time from {@link Ticker#SYSTEM}
+     *
+     * @param maxSize           the maximum size of this cache, see {@link LruCache#LruCache(long)}
+     * @param expireAfterWrite  the duration since the creation or replacement of an entry,
+     *                          after which the entry expires, or 0 to not expire after write
+     * @param expireAfterAccess the duration since the last access to an entry,
+     *                          after which the entry expires, or 0 to not expire after access
+     * @param unit              the unit of the durations
+     */
+    public ExpiringLruCache(long maxSize, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        this(maxSize, expireAfterWrite, expireAfterAccess, unit, Ticker.SYSTEM);
+    }
+
+    /**
+     * Creates a new {@link ExpiringLruCache}
+     *
+     * @param maxSize           the maximum size of this cache, see {@link LruCache#LruCache(long)}
+     * @param expireAfterWrite  the duration since the creation or replacement of an entry,
+     *                          after which the entry expires, or 0 to not expire after write
+     * @param expireAfterAccess the duration since the last access to an entry,
+     *                          after which the entry expires, or 0 to not expire after access
+     * @param unit              the unit of the durations
+     * @param ticker            the time source
+     */
+    public ExpiringLruCache(long maxSize, long expireAfterWrite, long expireAfterAccess,
+                            TimeUnit unit, Ticker ticker) {
+        this(maxSize, null, expireAfterWrite, expireAfterAccess, unit, ticker);
+    }
+
+    /**
+     * Creates a new {@link ExpiringLruCache}, which is bounded by the total weight
+     * of entries, e.g. by the size of values in bytes, see {@link Weighers}
+     *
+     * @param maxSize           the maximum sum of weights of the entries in this cache
+     * @param weigher           the weigher of entries, or null to use {@link #sizeOf}
+     * @param expireAfterWrite  the duration since the creation or replacement of an entry,
+     *                          after which the entry expires, or 0 to not expire after write
+     * @param expireAfterAccess the duration since the last access to an entry,
+     *                          after which the entry expires, or 0 to not expire after access
+     * @param unit              the unit of the durations
+     * @param ticker            the time source
+     */
+    public ExpiringLruCache(long maxSize, Weigher<? super K, ? super V> weigher,
+                            long expireAfterWrite, long expireAfterAccess,
+                            TimeUnit unit, Ticker ticker) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (expireAfterWrite < 0 || expireAfterAccess < 0) {
+            throw new IllegalArgumentException("expireAfterWrite < 0 || expireAfterAccess < 0");
+        }
+        if (ticker == null) {
+            throw new NullPointerException("ticker == null");
+        }
+
+        this.maxSize = maxSize;
+        this.weigher = weigher;
+        this.map = new LinkedHashMap<>(0, 0.75f, true);
+        this.ticker = ticker;
+        this.timerWheel = new TimerWheel<>(ticker.read());
+        this.expireAfterWriteNanos = expireAfterWrite == 0
+                ? MAXIMUM_EXPIRY : Math.min(unit.toNanos(expireAfterWrite), MAXIMUM_EXPIRY);
+        this.expireAfterAccessNanos = expireAfterAccess == 0
+                ? MAXIMUM_EXPIRY : Math.min(unit.toNanos(expireAfterAccess), MAXIMUM_EXPIRY);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache and
+     * has not expired, or can be created by {@code #create}.
+     * If a value was returned, it is moved to the head of the queue.
+     * This returns null if a value is not cached and cannot be created.
+     */
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V mapValue = null;
+        ArrayList<TimerWheel.Node<K, V>> expired = new ArrayList<>(0);
+        synchronized (this) {
+            long now = now();
+            expireEntries(now, expired);
+
+            Entry<K, V> entry = getEntry(key, now, expired);
+            if (entry != null) {
+                mapValue = entry.value;
+            }
+        }
+
+        notifyExpired(expired);
+        if (mapValue != null) {
+            return mapValue;
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        long start = System.nanoTime();
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        trimmer.onInsert();
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        Entry<K, V> mapEntry;
+        synchronized (this) {
+            mapEntry = map.get(key);
+            if (mapEntry == null) {
+                addEntry(key, createdValue, now());
+            }
+        }
+
+        if (mapEntry != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, createdValue, mapEntry.value);
+            return mapEntry.value;
+        } else {
+            trimToSize(maxSize());
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue, and its expiration time is reset.
+     */
+    @Override
+    public final boolean put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        trimmer.onInsert();
+
+        Entry<K, V> previous;
+        ArrayList<TimerWheel.Node<K, V>> expired = new ArrayList<>(0);
+        synchronized (this) {
+            long now = now();
+            expireEntries(now, expired);
+            previous = putEntry(key, value, now);
+        }
+
+        notifyExpired(expired);
+        if (previous != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, previous.value, value);
+        }
+
+        trimToSize(maxSize());
+        return true;
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache and
+     * have not expired. Unlike {@link #get}, the missing values are
+     * not created. The lock is taken once for all keys.
+     */
+    @Override
+    public final Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        ArrayList<TimerWheel.Node<K, V>> expired = new ArrayList<>(0);
+        synchronized (this) {
+            long now = now();
+            expireEntries(now, expired);
+
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                Entry<K, V> entry = getEntry(key, now, expired);
+                if (entry != null) {
+                    result.put(key, entry.value);
+                }
+            }
+        }
+        notifyExpired(expired);
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}, but takes
+     * the lock once for all entries and trims the cache once at the end.
+     */
+    @Override
+    public final void putAll(Map<? extends K, ? extends V> entries) {
+        trimmer.onInsert();
+
+        LinkedHashMap<K, V> replaced = null;
+        ArrayList<TimerWheel.Node<K, V>> expired = new ArrayList<>(0);
+        synchronized (this) {
+            long now = now();
+            expireEntries(now, expired);
+
+            for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+
+                Entry<K, V> previous = putEntry(key, value, now);
+                if (previous != null) {
+                    if (replaced == null) {
+                        replaced = new LinkedHashMap<>();
+                    }
+                    replaced.put(key, previous.value);
+                }
+            }
+        }
+
+        notifyExpired(expired);
+        if (replaced != null) {
+            for (Map.Entry<K, V> entry : replaced.entrySet()) {
+                notifyRemoved(RemovalCause.REPLACED, entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+            }
+        }
+
+        trimToSize(maxSize());
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     */
+    @Override
+    public final boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Entry<K, V> previous;
+        synchronized (this) {
+            previous = map.get(key);
+            if (previous != null) {
+                removeEntry(previous);
+            }
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.EXPLICIT, key, previous.value, null);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all expired entries. This is done on every operation of the cache,
+     * so it needs to be called only to release the memory of an idle cache.
+     */
+    public void cleanUp() {
+        ArrayList<TimerWheel.Node<K, V>> expired = new ArrayList<>(0);
+        synchronized (this) {
+            expireEntries(now(), expired);
+        }
+        notifyExpired(expired);
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(long maxSize) {
+        while (true) {
+            Entry<K, V> toEvict;
+            synchronized (this) {
+                if (size < 0 || (map.isEmpty() && size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+
+                if (size <= maxSize || map.isEmpty()) {
+                    break;
+                }
+
+                toEvict = map.values().iterator().next();
+                removeEntry(toEvict);
+                stats.recordEviction(toEvict.weight);
+            }
+
+            notifyRemoved(RemovalCause.SIZE, toEvict.key, toEvict.value, null);
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted, expired or removed,
+     * see {@link LruCache#entryRemoved}. The default implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space or
+     *     because it has expired, false if the removal was caused by
+     *     a {@link #put} or {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    private void notifyRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        RemovalListener<K, V> listener = removalListener;
+        if (listener != null) {
+            listener.onRemoval(new RemovalNotification<K, V>(key, oldValue, cause));
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key,
+     * see {@link LruCache#create}. The default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units, see {@link LruCache#sizeOf}. The default
+     * implementation returns the weight of the {@link Weigher}, if set, or 1.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected long sizeOf(K key, V value) {
+        return weigher != null ? weigher.weigh(key, value) : 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache. The expired entries are counted
+     * until they are reclaimed.
+     */
+    @Override
+    public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in this cache, like
+     * {@link #size()}, but without the limit of {@link Integer#MAX_VALUE}.
+     */
+    public synchronized final long weightedSize() {
+        return size;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final long createCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns the number of values that have expired.
+     */
+    public final long expirationCount() {
+        return expirationCount.sum();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public synchronized final Map<K, V> snapshot() {
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>(map.size());
+        for (Entry<K, V> entry : map.values()) {
+            snapshot.put(entry.key, entry.value);
+        }
+        return snapshot;
+    }
+
+    @Override public synchronized final String toString() {
+        long hitCount = stats.hitCount();
+        long missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("ExpiringLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,expired=%d]",
+                maxSize, hitCount, missCount, hitPercent, expirationCount.sum());
+    }
+
+    /**
+     * Returns the time of the ticker. It may be negative or wrap around,
+     * so the times are compared only by their difference
+     */
+    private long now() {
+        return ticker.read();
+    }
+
+    /**
+     * Returns the live entry and updates its access time,
+     * or null if absent or expired. Must be called under the lock
+     */
+    private Entry<K, V> getEntry(K key, long now, ArrayList<TimerWheel.Node<K, V>> expired) {
+        Entry<K, V> entry = map.get(key);
+        if (entry != null && entry.time - now <= 0) {
+            // expired within the current tick of the wheel
+            removeEntry(entry);
+            expirationCount.increment();
+            expired.add(entry);
+            entry = null;
+        }
+
+        if (entry == null) {
+            stats.recordMisses(1);
+            return null;
+        }
+
+        stats.recordHits(1);
+        if (expireAfterAccessNanos != MAXIMUM_EXPIRY) {
+            entry.accessTime = now;
+            scheduleEntry(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds or replaces the entry. Must be called under the lock
+     *
+     * @return the replaced entry, or null
+     */
+    private Entry<K, V> putEntry(K key, V value, long now) {
+        stats.recordPuts(1);
+        Entry<K, V> previous = map.remove(key);
+        if (previous != null) {
+            size -= previous.weight;
+            timerWheel.deschedule(previous);
+        }
+        addEntry(key, value, now);
+        return previous;
+    }
+
+    private void addEntry(K key, V value, long now) {
+        Entry<K, V> entry = new Entry<>(key, value, safeSizeOf(key, value));
+        entry.writeTime = now;
+        entry.accessTime = now;
+        map.put(key, entry);
+        size += entry.weight;
+        scheduleEntry(entry);
+    }
+
+    private void removeEntry(Entry<K, V> entry) {
+        map.remove(entry.key);
+        size -= entry.weight;
+        timerWheel.deschedule(entry);
+    }
+
+    private void scheduleEntry(Entry<K, V> entry) {
+        long writeExpiry = entry.writeTime + expireAfterWriteNanos;
+        long accessExpiry = entry.accessTime + expireAfterAccessNanos;
+        // the earlier of the times, which may wrap around
+        entry.time = writeExpiry - accessExpiry < 0 ? writeExpiry : accessExpiry;
+        if (expireAfterWriteNanos != MAXIMUM_EXPIRY || expireAfterAccessNanos != MAXIMUM_EXPIRY) {
+            timerWheel.reschedule(entry);
+        }
+    }
+
+    private void expireEntries(long now, ArrayList<TimerWheel.Node<K, V>> expired) {
+        int from = expired.size();
+        timerWheel.advance(now, expired);
+        for (int i = from; i < expired.size(); i++) {
+            Entry<K, V> entry = (Entry<K, V>) expired.get(i);
+            map.remove(entry.key);
+            size -= entry.weight;
+            expirationCount.increment();
+        }
+    }
+
+    private void notifyExpired(ArrayList<TimerWheel.Node<K, V>> expired) {
+        for (int i = 0; i < expired.size(); i++) {
+            Entry<K, V> entry = (Entry<K, V>) expired.get(i);
+            notifyRemoved(RemovalCause.EXPIRED, entry.key, entry.value, null);
+        }
+        expired.clear();
+    }
+
+    private long safeSizeOf(K key, V value) {
+        long result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * The entry of the cache, which can be scheduled in the timer wheel
+     */
+    private static final class Entry<K, V> extends TimerWheel.Node<K, V> {
+        final V value;
+        final long weight;
+        long writeTime;
+        long accessTime;
+
+        Entry(K key, V value, long weight) {
+            super(key);
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
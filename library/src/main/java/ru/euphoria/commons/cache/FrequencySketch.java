@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Modified by Euphoria Dev Community: ported to Java 7, the table
+ * grows with the cache.
+ */
+package ru.euphoria.commons.cache;
+
+/**
+ * A probabilistic set for estimating the popularity (frequency) of an element
+ * within a time window. Implemented as a count-min sketch of 4-bit counters,
+ * sixteen counters are packed into one {@code long}, and each element
+ * is counted in four of them.
+ *
+ * <p>When the number of increments reaches the sample size, all counters are
+ * halved (aging), so the frequency of entries which were popular long ago
+ * slowly decays.
+ *
+ * <p>This class is not thread safe, the owner must synchronize the access.
+ *
+ * @since 1.2
+ */
+final class FrequencySketch<E> {
+    private static final long[] SEED = { // a mixture of seeds from FNV-1a, CityHash, and Murmur3
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** The maximum value of a 4-bit counter */
+    static final int MAX_FREQUENCY = 15;
+
+    private int sampleSize;
+    private int tableMask;
+    private long[] table;
+    private int size;
+
+    /**
+     * Creates a new sketch for the specified number of entries
+     *
+     * @param maximumSize the expected number of entries
+     */
+    FrequencySketch(long maximumSize) {
+        ensureCapacity(maximumSize);
+    }
+
+    /**
+     * Increases the capacity of this sketch, if the table is too small for
+     * the specified number of entries. The frequencies are carried over,
+     * so a growing cache does not forget its popular entries.
+     *
+     * @param maximumSize the expected number of entries
+     */
+    void ensureCapacity(long maximumSize) {
+        int maximum = (int) Math.min(Math.max(maximumSize, 1), Integer.MAX_VALUE >>> 1);
+        if (table != null && table.length >= maximum) {
+            return;
+        }
+
+        long[] previous = table;
+        table = new long[ceilingPowerOfTwo(maximum)];
+        tableMask = Math.max(0, table.length - 1);
+        if (previous != null) {
+            // the tables are powers of two, so the old index of a word is its new index
+            // with the high bits cleared: each copy holds the same counters of an element,
+            // and the estimates do not change. The collisions of the smaller table
+            // are carried over too, the next reset halves them.
+            int previousMask = previous.length - 1;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = previous[i & previousMask];
+            }
+        }
+        sampleSize = 10 * maximum;
+        if (sampleSize <= 0) {
+            sampleSize = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Returns the number of entries, which this sketch can count
+     * with a good accuracy
+     */
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * Returns the estimated number of occurrences of an element, up to the
+     * maximum ({@value #MAX_FREQUENCY}).
+     *
+     * @param e the element to count occurrences of
+     */
+    int frequency(E e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the popularity of the element if it does not exceed the maximum
+     * ({@value #MAX_FREQUENCY}). The popularity of all elements will be periodically
+     * down sampled when the observed events exceeds a threshold.
+     *
+     * @param e the element to add
+     */
+    void increment(E e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && (++size == sampleSize)) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = (0xfL << offset);
+        if ((table[i] & mask) != mask) {
+            table[i] += (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /** Reduces every counter by half of its original value */
+    private void reset() {
+        int count = 0;
+        for (int i = 0; i < table.length; i++) {
+            count += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += (hash >>> 32);
+        return ((int) hash) & tableMask;
+    }
+
+    /** Applies a supplemental hash function, hash codes are often of a poor quality */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
@@ -0,0 +1,633 @@
+package ru.euphoria.commons.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A version of {@link LruCache} for primitive {@code int} keys,
+ * e.g. ids of users, groups and messages.
+ *
+ * <p>The entries are stored in parallel arrays: keys, values and the
+ * indexes of the previous and next entries of the least recently used
+ * list. The keys are found by an open-addressing hash table of indexes.
+ * So there are no {@link Integer} keys and no entry objects: an entry
+ * takes about 20 bytes instead of about 60 in {@link LruCache}, and
+ * {@link #get(int)} and {@link #put(int, Object)} do not allocate,
+ * unless the arrays grow.
+ *
+ * <p>The size of this cache is the number of entries.
+ * The {@link #entryRemoved} and {@link #create} hooks are the same as in
+ * {@link LruCache}, but take {@code int} keys.
+ *
+ * <pre>
+ *     IntObjectLruCache&lt;VKUser&gt; users = new IntObjectLruCache&lt;&gt;(1000);
+ *     users.put(user.id, user);
+ *     VKUser cached = users.get(user.id);
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class IntObjectLruCache<V> implements Cache<Integer, V>, Trimmable {
+    /** The marker of the absent entry */
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    /** The maximum length of the arrays, the hash table is twice as large */
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    private int[] keys;
+    private Object[] values;
+    /** Links of the least recently used list, from the eldest to the newest */
+    private int[] prev;
+    private int[] next;
+    /** Indexes of entries plus one, 0 is an empty cell */
+    private int[] table;
+
+    private int head = NONE;
+    private int tail = NONE;
+    /** The first free entry, the free entries are linked by {@link #next} */
+    private int free = NONE;
+    /** The number of entries, which have ever been used */
+    private int used;
+
+    private int size;
+    private int maxSize;
+
+    private final StatsCounter stats = new StatsCounter();
+    private volatile RemovalListener<Integer, V> removalListener;
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+
+    /**
+     * @param maxSize the maximum number of entries in the cache
+     */
+    public IntObjectLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        allocate((int) Math.min(maxSize + 1L, INITIAL_CAPACITY));
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of the queue. This returns null if a value is not cached and cannot
+     * be created.
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(int key) {
+        synchronized (this) {
+            int index = indexOf(key);
+            if (index != NONE) {
+                moveToTail(index);
+                stats.recordHits(1);
+                return (V) values[index];
+            }
+            stats.recordMisses(1);
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        long start = System.nanoTime();
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        trimmer.onInsert();
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        V mapValue = null;
+        synchronized (this) {
+            int index = indexOf(key);
+            if (index != NONE) {
+                mapValue = (V) values[index];
+            } else {
+                add(key, createdValue);
+            }
+        }
+
+        if (mapValue != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            trimToSize(maxSize);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue.
+     */
+    public final boolean put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        trimmer.onInsert();
+
+        V previous;
+        synchronized (this) {
+            stats.recordPuts(1);
+            previous = putInternal(key, value);
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, previous, value);
+        }
+
+        trimToSize(maxSize);
+        return true;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return true if the entry was removed
+     */
+    @SuppressWarnings("unchecked")
+    public final boolean remove(int key) {
+        V previous = null;
+        synchronized (this) {
+            int index = indexOf(key);
+            if (index != NONE) {
+                previous = (V) values[index];
+                removeAt(index);
+            }
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.EXPLICIT, key, previous, null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if this cache contains the value for {@code key}.
+     * The value is not moved in the queue.
+     */
+    public synchronized final boolean containsKey(int key) {
+        return indexOf(key) != NONE;
+    }
+
+    @Override
+    public final V get(Integer key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return get(key.intValue());
+    }
+
+    @Override
+    public final boolean put(Integer key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        return put(key.intValue(), value);
+    }
+
+    @Override
+    public final boolean remove(Integer key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return remove(key.intValue());
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache. The found
+     * values are moved to the head of the queue. Unlike {@link #get}, the
+     * missing values are not created. The lock is taken once for all keys.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public final Map<Integer, V> getAllPresent(Iterable<? extends Integer> keys) {
+        LinkedHashMap<Integer, V> result = new LinkedHashMap<>();
+        int misses = 0;
+        synchronized (this) {
+            for (Integer key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                int index = indexOf(key);
+                if (index != NONE) {
+                    moveToTail(index);
+                    result.put(key, (V) values[index]);
+                } else {
+                    misses++;
+                }
+            }
+        }
+        stats.recordHits(result.size());
+        stats.recordMisses(misses);
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}, but takes
+     * the lock once for all entries and trims the cache once at the end.
+     */
+    @Override
+    public final void putAll(Map<? extends Integer, ? extends V> entries) {
+        trimmer.onInsert();
+
+        LinkedHashMap<Integer, V> replaced = null;
+        synchronized (this) {
+            for (Map.Entry<? extends Integer, ? extends V> entry : entries.entrySet()) {
+                Integer key = entry.getKey();
+                V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+
+                V previous = putInternal(key, value);
+                if (previous != null) {
+                    if (replaced == null) {
+                        replaced = new LinkedHashMap<>();
+                    }
+                    replaced.put(key, previous);
+                }
+            }
+            stats.recordPuts(entries.size());
+        }
+
+        if (replaced != null) {
+            for (Map.Entry<Integer, V> entry : replaced.entrySet()) {
+                notifyRemoved(RemovalCause.REPLACED, entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+            }
+        }
+
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict all entries.
+     */
+    @SuppressWarnings("unchecked")
+    public void trimToSize(long maxSize) {
+        while (true) {
+            int key;
+            V value;
+            synchronized (this) {
+                if (size <= maxSize || head == NONE) {
+                    break;
+                }
+
+                int index = head;
+                key = keys[index];
+                value = (V) values[index];
+                removeAt(index);
+                stats.recordEviction(1);
+            }
+
+            notifyRemoved(RemovalCause.SIZE, key, value, null);
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, int key, V oldValue, V newValue) {}
+
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<Integer, V> listener) {
+        this.removalListener = listener;
+    }
+
+    private void notifyRemoved(RemovalCause cause, int key, V oldValue, V newValue) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        RemovalListener<Integer, V> listener = removalListener;
+        if (listener != null) {
+            listener.onRemoval(new RemovalNotification<Integer, V>(key, oldValue, cause));
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(int key) {
+        return null;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict all entries
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    @Override
+    public synchronized final int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * Returns the maximum number of entries in the cache.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(int)} returned a value.
+     */
+    public final long createCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized final Map<Integer, V> snapshot() {
+        LinkedHashMap<Integer, V> snapshot = new LinkedHashMap<>(size);
+        for (int index = head; index != NONE; index = next[index]) {
+            snapshot.put(keys[index], (V) values[index]);
+        }
+        return snapshot;
+    }
+
+    @Override public final String toString() {
+        long hitCount = stats.hitCount();
+        long accesses = hitCount + stats.missCount();
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("IntObjectLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize(), hitCount, accesses - hitCount, hitPercent);
+    }
+
+    /**
+     * Adds or replaces the entry. Must be called under the lock
+     *
+     * @return the replaced value, or null
+     */
+    @SuppressWarnings("unchecked")
+    private V putInternal(int key, V value) {
+        int index = indexOf(key);
+        if (index == NONE) {
+            add(key, value);
+            return null;
+        }
+
+        V previous = (V) values[index];
+        values[index] = value;
+        moveToTail(index);
+        return previous;
+    }
+
+    /**
+     * Adds the new entry to the tail of the queue
+     */
+    private void add(int key, V value) {
+        int index;
+        if (free != NONE) {
+            index = free;
+            free = next[index];
+        } else {
+            if (used == keys.length) {
+                if (used == MAX_CAPACITY) {
+                    throw new IllegalStateException("Too many entries: " + used);
+                }
+                // the cache may exceed the max size by one entry until trimming
+                long capacity = Math.max(used + 1L, Math.min(used * 2L, maxSize + 1L));
+                grow((int) Math.min(capacity, MAX_CAPACITY));
+            }
+            index = used++;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        linkLast(index);
+        insert(index);
+        size++;
+    }
+
+    /**
+     * Removes the entry from the queue and the table
+     * and moves it to the free list
+     */
+    private void removeAt(int index) {
+        delete(index);
+        unlink(index);
+        values[index] = null;
+        next[index] = free;
+        free = index;
+        size--;
+    }
+
+    private void moveToTail(int index) {
+        if (index != tail) {
+            unlink(index);
+            linkLast(index);
+        }
+    }
+
+    private void linkLast(int index) {
+        prev[index] = tail;
+        next[index] = NONE;
+        if (tail == NONE) {
+            head = index;
+        } else {
+            next[tail] = index;
+        }
+        tail = index;
+    }
+
+    private void unlink(int index) {
+        int p = prev[index];
+        int n = next[index];
+        if (p == NONE) {
+            head = n;
+        } else {
+            next[p] = n;
+        }
+        if (n == NONE) {
+            tail = p;
+        } else {
+            prev[n] = p;
+        }
+    }
+
+    /**
+     * Returns the index of the entry for the key, or {@link #NONE}
+     */
+    private int indexOf(int key) {
+        int mask = table.length - 1;
+        for (int cell = hash(key) & mask; ; cell = (cell + 1) & mask) {
+            int index = table[cell] - 1;
+            if (index == NONE || keys[index] == key) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Puts the entry into the hash table, the key must be absent
+     */
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int cell = hash(keys[index]) & mask;
+        while (table[cell] != 0) {
+            cell = (cell + 1) & mask;
+        }
+        table[cell] = index + 1;
+    }
+
+    /**
+     * Removes the entry from the hash table. The following entries
+     * of the probe sequence are shifted back, so no tombstones are needed.
+     */
+    private void delete(int index) {
+        int mask = table.length - 1;
+        int cell = hash(keys[index]) & mask;
+        while (table[cell] != index + 1) {
+            cell = (cell + 1) & mask;
+        }
+
+        int hole = cell;
+        for (cell = (cell + 1) & mask; table[cell] != 0; cell = (cell + 1) & mask) {
+            int home = hash(keys[table[cell] - 1]) & mask;
+            // move the entry, if its home is not between the hole and its cell
+            if (((cell - home) & mask) >= ((cell - hole) & mask)) {
+                table[hole] = table[cell];
+                hole = cell;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        table = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Grows the arrays and rebuilds the hash table. All entries
+     * are used, so there are no free entries to skip
+     */
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+
+        table = new int[tableSize(capacity)];
+        for (int index = 0; index < used; index++) {
+            insert(index);
+        }
+    }
+
+    /**
+     * Returns the power of two, which keeps the load factor at or below 0.5
+     */
+    private static int tableSize(int capacity) {
+        int size = 2;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(int key) {
+        // spread the bits, because ids are often sequential
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,922 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ru.euphoria.commons.concurrent.Promise;
+import ru.euphoria.commons.concurrent.StripedCounter;
+import ru.euphoria.commons.concurrent.ThreadExecutor;
+
+/**
+ * A cache, which automatically loads missing values by a {@link CacheLoader}
+ * and stores them in the specified {@link Cache}.
+ *
+ * <p>Unlike {@link LruCache#create}, the concurrent misses on the same key
+ * do not run the loader concurrently: the first thread starts the load,
+ * and the others wait for its result. So a missing value is requested from
+ * the network only once, regardless of the number of the waiting threads.
+ *
+ * <p>With the refresh duration, the cache serves stale values while
+ * revalidating them: when a value is older than the refresh duration,
+ * {@link #get} returns it immediately and starts a single reload in
+ * background by {@link CacheLoader#reload}. If the reload fails,
+ * the old value stays in the cache.
+ *
+ * <p>With the negative caching, the keys, which were loaded as null, and
+ * the keys, which failed with a permanent error, see {@link CacheLoader#isNegative},
+ * are remembered for a short time, so the repeated lookups of a deleted user
+ * or an empty list are answered without the network.
+ *
+ * <pre>
+ *     LoadingCache&lt;Integer, VKUser&gt; users = new LoadingCache&lt;&gt;(
+ *             new LruCache&lt;Integer, VKUser&gt;(500), loader);
+ *
+ *     // blocks the current thread, if the user is not cached
+ *     VKUser user = users.getChecked(id);
+ *
+ *     // or load in background
+ *     Future&lt;VKUser&gt; future = users.getAsync(id);
+ *
+ *     // the dialogs are refreshed in background, if older than a minute
+ *     LoadingCache&lt;Integer, VKMessage&gt; dialogs = new LoadingCache&lt;&gt;(
+ *             new LruCache&lt;Integer, VKMessage&gt;(200), loader, 1, TimeUnit.MINUTES);
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class LoadingCache<K, V> implements Cache<K, V> {
+    /** The minimum number of keys, which write times are remembered */
+    private static final int MIN_WRITE_TIMES = 1024;
+    /** The negative entry of the value, which was loaded as null */
+    private static final Object ABSENT = new Object();
+
+    /** Executes the loads of {@link #getAsync} on {@link ThreadExecutor} */
+    private static final Executor DEFAULT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ThreadExecutor.execute(command);
+        }
+    };
+
+    private final Cache<K, V> cache;
+    private final CacheLoader<? super K, V> loader;
+    private final Executor executor;
+    private final ConcurrentHashMap<K, LoadTask> loading;
+    /**
+     * The running refreshes, apart from {@link #loading}, so the callers
+     * never wait for a refresh and never see its failure
+     */
+    private final ConcurrentHashMap<K, LoadTask> refreshing;
+    /**
+     * Guards the stores of the loaded values against the invalidations
+     * of their keys, see {@link LoadTask#invalidated}
+     */
+    private final Object storeLock = new Object();
+
+    /** The refresh duration in nanoseconds, or 0 if values are not refreshed */
+    private final long refreshNanos;
+    private final Ticker ticker;
+    /** The times of the last writes of keys, in the order of writes */
+    private final LinkedHashMap<K, Long> writeTimes;
+
+    private final StatsCounter stats = new StatsCounter();
+    /** The keys, which were loaded as null or failed permanently, or null if disabled */
+    private volatile ExpiringLruCache<K, Object> negatives;
+    private final StripedCounter negativeHitCount = new StripedCounter();
+
+    /**
+     * Creates a new {@link LoadingCache}, which loads values asynchronously
+     * on {@link ThreadExecutor}
+     *
+     * @param cache  the cache to store the loaded values
+     * @param loader the loader of missing values
+     */
+    public LoadingCache(Cache<K, V> cache, CacheLoader<? super K, V> loader) {
+        this(cache, loader, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Creates a new {@link LoadingCache}
+     *
+     * @param cache    the cache to store the loaded values
+     * @param loader   the loader of missing values
+     * @param executor the executor to run the loads of {@link #getAsync}
+     */
+    public LoadingCache(Cache<K, V> cache, CacheLoader<? super K, V> loader, Executor executor) {
+        this(cache, loader, executor, 0, TimeUnit.NANOSECONDS, Ticker.SYSTEM);
+    }
+
+    /**
+     * Creates a new {@link LoadingCache}, which refreshes values
+     * asynchronously on {@link ThreadExecutor}
+     *
+     * @param cache             the cache to store the loaded values
+     * @param loader            the loader of missing values
+     * @param refreshAfterWrite the duration since the load of a value, after which
+     *                          it is reloaded in background on the next access
+     * @param unit              the unit of the duration
+     */
+    public LoadingCache(Cache<K, V> cache, CacheLoader<? super K, V> loader,
+                        long refreshAfterWrite, TimeUnit unit) {
+        this(cache, loader, DEFAULT_EXECUTOR, refreshAfterWrite, unit, Ticker.SYSTEM);
+    }
+
+    /**
+     * Creates a new {@link LoadingCache}
+     *
+     * @param cache             the cache to store the loaded values
+     * @param loader            the loader of missing values
+     * @param executor          the executor to run the loads of {@link #getAsync} and refreshes
+     * @param refreshAfterWrite the duration since the load of a value, after which
+     *                          it is reloaded in background on the next access,
+     *                          or 0 to not refresh values
+     * @param unit              the unit of the duration
+     * @param ticker            the time source
+     */
+    public LoadingCache(Cache<K, V> cache, CacheLoader<? super K, V> loader, Executor executor,
+                        long refreshAfterWrite, TimeUnit unit, Ticker ticker) {
+        if (cache == null || loader == null || executor == null) {
+            throw new NullPointerException("cache == null || loader == null || executor == null");
+        }
+        if (refreshAfterWrite < 0) {
+            throw new IllegalArgumentException("refreshAfterWrite < 0");
+        }
+        if (ticker == null) {
+            throw new NullPointerException("ticker == null");
+        }
+        this.cache = cache;
+        this.loader = loader;
+        this.executor = executor;
+        this.loading = new ConcurrentHashMap<>();
+        this.refreshing = new ConcurrentHashMap<>();
+        this.refreshNanos = unit.toNanos(refreshAfterWrite);
+        this.ticker = ticker;
+        this.writeTimes = refreshNanos == 0 ? null : new LinkedHashMap<K, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                // the evicted keys of the cache are not known, so the times are
+                // kept for as many keys as the cache may hold. A key without
+                // the time is refreshed on the next access
+                return size() > Math.max(MIN_WRITE_TIMES, LoadingCache.this.cache.size());
+            }
+        };
+    }
+
+    /**
+     * Returns the value for {@code key}, loading it if necessary.
+     * This returns null, if the loader returns null or fails,
+     * use {@link #getChecked} to get the cause of the failure.
+     */
+    @Override
+    public V get(K key) {
+        try {
+            return getChecked(key);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value for {@code key}, loading it if necessary.
+     * If another thread is loading the value for the same key,
+     * waits for its result instead of starting a new load.
+     *
+     * @param key the key of the value
+     * @return the value, or null if the loader returned null
+     * @throws ExecutionException if the loader threw an exception
+     */
+    public V getChecked(K key) throws ExecutionException {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V value = cache.get(key);
+        if (value != null) {
+            stats.recordHits(1);
+            refreshIfStale(key, value);
+            return value;
+        }
+        Object negative = getNegative(key);
+        if (negative == ABSENT) {
+            return null;
+        }
+        if (negative != null) {
+            throw new ExecutionException((Throwable) negative);
+        }
+        stats.recordMisses(1);
+
+        LoadTask task = new LoadTask(key);
+        LoadTask running = loading.putIfAbsent(key, task);
+        if (running == null) {
+            // we are the first, load on the current thread
+            task.run();
+        } else {
+            task = running;
+        }
+        return getUninterruptibly(task);
+    }
+
+    /**
+     * Returns a {@link Future} of the value for {@code key}. If the value
+     * is not cached, it is loaded on the executor of this cache, or the
+     * result of the already running load of the same key is returned.
+     *
+     * <p>Each call returns its own future, so a caller, which cancels it,
+     * does not cancel the load for the others. If the executor rejects
+     * the load, the future fails with {@link RejectedExecutionException}.
+     *
+     * @param key the key of the value
+     */
+    public Future<V> getAsync(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V value = cache.get(key);
+        if (value != null) {
+            stats.recordHits(1);
+            refreshIfStale(key, value);
+            FutureTask<V> done = new FutureTask<>(new Present<>(value));
+            done.run();
+            return done;
+        }
+        Object negative = getNegative(key);
+        if (negative != null) {
+            Callable<V> result = negative == ABSENT
+                    ? new Present<V>(null) : new Failed<V>((Exception) negative);
+            FutureTask<V> done = new FutureTask<>(result);
+            done.run();
+            return done;
+        }
+        stats.recordMisses(1);
+
+        LoadTask task = new LoadTask(key);
+        LoadTask running = loading.putIfAbsent(key, task);
+        if (running != null) {
+            return running.newWaiter();
+        }
+
+        Promise<V> waiter = task.newWaiter();
+        execute(task);
+        return waiter;
+    }
+
+    /**
+     * Returns the values for {@code keys}, loading the missing ones.
+     * The cached values are looked up in one pass, and all misses are
+     * loaded by one call of {@link CacheLoader#loadAll}. The keys, which
+     * are already being loaded by other threads, are not loaded again.
+     *
+     * @param keys the keys of the values
+     * @return the map of keys to values, in the order of keys. The keys,
+     *         which values the loader did not return, and the keys with
+     *         negative entries, are absent
+     * @throws ExecutionException if the loader threw an exception
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+        Map<K, V> present = cache.getAllPresent(keys);
+        stats.recordHits(present.size());
+        for (Map.Entry<K, V> entry : present.entrySet()) {
+            refreshIfStale(entry.getKey(), entry.getValue());
+        }
+
+        LinkedHashMap<K, LoadTask> started = new LinkedHashMap<>();
+        LinkedHashMap<K, LoadTask> waiting = new LinkedHashMap<>();
+        for (K key : keys) {
+            if (key == null) {
+                throw new NullPointerException("key == null");
+            }
+            if (present.containsKey(key) || started.containsKey(key) || waiting.containsKey(key)) {
+                continue;
+            }
+            if (getNegative(key) != null) {
+                continue;
+            }
+            stats.recordMisses(1);
+
+            LoadTask task = new LoadTask(key);
+            LoadTask running = loading.putIfAbsent(key, task);
+            if (running == null) {
+                started.put(key, task);
+            } else {
+                waiting.put(key, running);
+            }
+        }
+
+        if (!started.isEmpty()) {
+            loadAll(started);
+        }
+
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = present.get(key);
+            if (value == null) {
+                LoadTask task = started.get(key);
+                if (task == null) {
+                    task = waiting.get(key);
+                }
+                if (task == null) {
+                    // a negative entry
+                    continue;
+                }
+                value = getUninterruptibly(task);
+            }
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        return cache.getAllPresent(keys);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        invalidateAll(map.keySet());
+        cache.putAll(map);
+        for (K key : map.keySet()) {
+            recordWrite(key);
+            removeNegative(key);
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key} in the underlying cache.
+     * A running load of the same key is not cancelled, but its value
+     * is not stored, so it does not replace this one.
+     */
+    @Override
+    public boolean put(K key, V value) {
+        invalidate(key);
+        boolean added = cache.put(key, value);
+        recordWrite(key);
+        removeNegative(key);
+        return added;
+    }
+
+    /**
+     * Removes the value for {@code key} from the underlying cache.
+     * The value of a running load or refresh of the key is not stored.
+     */
+    @Override
+    public boolean remove(K key) {
+        invalidate(key);
+        if (writeTimes != null) {
+            synchronized (writeTimes) {
+                writeTimes.remove(key);
+            }
+        }
+        removeNegative(key);
+        return cache.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (storeLock) {
+            for (LoadTask task : loading.values()) {
+                task.invalidated = true;
+            }
+            for (LoadTask task : refreshing.values()) {
+                task.invalidated = true;
+            }
+        }
+        cache.clear();
+        if (writeTimes != null) {
+            synchronized (writeTimes) {
+                writeTimes.clear();
+            }
+        }
+        ExpiringLruCache<K, Object> negatives = this.negatives;
+        if (negatives != null) {
+            negatives.clear();
+        }
+    }
+
+    /**
+     * Enables the negative caching: the keys, which were loaded as null, and
+     * the keys, which failed with the exceptions accepted by
+     * {@link CacheLoader#isNegative}, are remembered in a separate cache
+     * with its own capacity and duration. Until the negative entry expires,
+     * {@link #get} returns null or {@link #getChecked} throws the same exception
+     * without calling the loader. A put or a remove of the key drops its entry.
+     *
+     * <p>The failures of bulk loads by {@link #getAll} are not cached,
+     * because the key, which caused the failure, is not known.
+     *
+     * @param maxSize          the maximum number of negative entries,
+     *                         or 0 to disable the negative caching
+     * @param expireAfterWrite the duration, after which the key is loaded again,
+     *                         usually shorter than the life of values
+     * @param unit             the unit of the duration
+     */
+    public void setNegativeCaching(long maxSize, long expireAfterWrite, TimeUnit unit) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        if (maxSize > 0 && expireAfterWrite <= 0) {
+            throw new IllegalArgumentException("expireAfterWrite <= 0");
+        }
+
+        this.negatives = maxSize == 0 ? null
+                : new ExpiringLruCache<K, Object>(maxSize, expireAfterWrite, 0, unit, ticker);
+    }
+
+    /**
+     * Reloads the value for {@code key} in background by {@link CacheLoader#reload},
+     * if the value is cached and is not being loaded. Until the reload completes,
+     * the old value is returned. If the reload fails, the old value is kept.
+     * The value is looked up by {@link Cache#getAllPresent}, so it is not
+     * created by the underlying cache.
+     *
+     * @param key the key of the value
+     */
+    public void refresh(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V value = cache.getAllPresent(Collections.singletonList(key)).get(key);
+        if (value != null) {
+            startRefresh(key, value);
+        }
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a cached value.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} did not find the value in the cache.
+     * Misses, which wait for the load of another thread, are counted too.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times a lookup was answered by a negative entry,
+     * see {@link #setNegativeCaching}. These lookups are not counted
+     * as hits or misses.
+     */
+    public final long negativeHitCount() {
+        return negativeHitCount.sum();
+    }
+
+    /**
+     * Returns the number of times the loader completed without exception.
+     */
+    public final long loadSuccessCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times the loader threw an exception.
+     */
+    public final long loadFailureCount() {
+        return stats.loadFailureCount();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, spent in the loader.
+     */
+    public final long totalLoadTime() {
+        return stats.snapshot().totalLoadTime();
+    }
+
+    /**
+     * Returns the average time, in nanoseconds, spent in the loader.
+     */
+    public final double averageLoadPenalty() {
+        return stats.snapshot().averageLoadPenalty();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache, including
+     * the histogram of load times. The statistics of the underlying
+     * cache, e.g. evictions, are available from that cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override public final String toString() {
+        CacheStats stats = stats();
+        return String.format("LoadingCache[hits=%d,misses=%d,hitRate=%d%%,loads=%d,failures=%d,avgLoad=%.1fms]",
+                stats.hitCount(), stats.missCount(), (int) (stats.hitRate() * 100), stats.loadSuccessCount(),
+                stats.loadFailureCount(), stats.averageLoadPenalty() / 1000000.0);
+    }
+
+    private V load(LoadTask task) throws Exception {
+        K key = task.key;
+        // the previous load may have completed between our miss and registration
+        V value = cache.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        long start = System.nanoTime();
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            ExpiringLruCache<K, Object> negatives = this.negatives;
+            if (negatives != null && loader.isNegative(key, e)) {
+                negatives.put(key, e);
+            }
+            throw e;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        if (value != null) {
+            store(task, value);
+        } else {
+            putNegative(key);
+        }
+        return value;
+    }
+
+    /**
+     * Reloads the value, which is older than the refresh duration.
+     * On failure the old value is kept and will be refreshed after
+     * another refresh duration, so a failing source is not hammered
+     * by every access.
+     */
+    private V reload(LoadTask task, V oldValue) throws Exception {
+        K key = task.key;
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.reload(key, oldValue);
+        } catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            recordWrite(key);
+            throw e;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        if (value == null) {
+            value = oldValue;
+            recordWrite(key);
+        } else {
+            store(task, value);
+        }
+        return value;
+    }
+
+    /**
+     * Caches the loaded value, unless the key was put, removed or cleared
+     * since the task was started
+     */
+    private void store(LoadTask task, V value) {
+        synchronized (storeLock) {
+            if (task.invalidated) {
+                return;
+            }
+            cache.put(task.key, value);
+        }
+        recordWrite(task.key);
+    }
+
+    /**
+     * Marks the running load and refresh of the key, so their values
+     * are not stored. Called before the key is written or removed
+     */
+    private void invalidate(K key) {
+        synchronized (storeLock) {
+            LoadTask task = loading.get(key);
+            if (task != null) {
+                task.invalidated = true;
+            }
+            task = refreshing.get(key);
+            if (task != null) {
+                task.invalidated = true;
+            }
+        }
+    }
+
+    private void invalidateAll(Iterable<? extends K> keys) {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
+    private void refreshIfStale(K key, V value) {
+        if (refreshNanos == 0) {
+            return;
+        }
+
+        Long written;
+        synchronized (writeTimes) {
+            written = writeTimes.get(key);
+        }
+        if (written == null || ticker.read() - written >= refreshNanos) {
+            startRefresh(key, value);
+        }
+    }
+
+    private void startRefresh(K key, V value) {
+        if (loading.containsKey(key)) {
+            // the running load writes a fresh value anyway
+            return;
+        }
+
+        LoadTask task = new LoadTask(key, value);
+        if (refreshing.putIfAbsent(key, task) == null) {
+            execute(task);
+        }
+    }
+
+    /**
+     * Executes the registered task. If the executor rejects it,
+     * the task fails, so the key is released and the waiters are woken up
+     */
+    private void execute(LoadTask task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.fail(e);
+        }
+    }
+
+    private void recordWrite(K key) {
+        if (writeTimes != null) {
+            long now = ticker.read();
+            synchronized (writeTimes) {
+                // re-insert to move the key to the end of the write order
+                writeTimes.remove(key);
+                writeTimes.put(key, now);
+            }
+        }
+    }
+
+    /**
+     * Returns the negative entry of the key: {@link #ABSENT}
+     * or the exception of the load, or null if there is no entry
+     */
+    private Object getNegative(K key) {
+        ExpiringLruCache<K, Object> negatives = this.negatives;
+        if (negatives == null) {
+            return null;
+        }
+
+        Object negative = negatives.get(key);
+        if (negative != null) {
+            negativeHitCount.increment();
+        }
+        return negative;
+    }
+
+    private void putNegative(K key) {
+        ExpiringLruCache<K, Object> negatives = this.negatives;
+        if (negatives != null) {
+            negatives.put(key, ABSENT);
+        }
+    }
+
+    private void removeNegative(K key) {
+        ExpiringLruCache<K, Object> negatives = this.negatives;
+        if (negatives != null) {
+            negatives.remove(key);
+        }
+    }
+
+    /**
+     * Loads the values of the started tasks by one call of the loader,
+     * stores them in the cache with one {@link Cache#putAll}
+     * and completes the tasks
+     */
+    private void loadAll(Map<K, LoadTask> tasks) {
+        long start = System.nanoTime();
+        Map<? super K, V> loaded;
+        try {
+            loaded = loader.loadAll(tasks.keySet());
+        } catch (Throwable e) {
+            stats.recordLoadFailure(System.nanoTime() - start);
+            for (LoadTask task : tasks.values()) {
+                task.fail(e);
+            }
+            return;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        try {
+            LinkedHashMap<K, V> values = new LinkedHashMap<>(tasks.size());
+            for (K key : tasks.keySet()) {
+                V value = loaded.get(key);
+                if (value != null) {
+                    values.put(key, value);
+                } else {
+                    putNegative(key);
+                }
+            }
+
+            LinkedHashMap<K, V> stored = new LinkedHashMap<>(values.size());
+            synchronized (storeLock) {
+                for (Map.Entry<K, V> entry : values.entrySet()) {
+                    if (!tasks.get(entry.getKey()).invalidated) {
+                        stored.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                cache.putAll(stored);
+            }
+            for (K key : stored.keySet()) {
+                recordWrite(key);
+            }
+
+            for (Map.Entry<K, LoadTask> entry : tasks.entrySet()) {
+                entry.getValue().complete(values.get(entry.getKey()));
+            }
+        } catch (Throwable e) {
+            // e.g. a broken map of the loader or a failing put,
+            // the completed tasks ignore the failure
+            for (LoadTask task : tasks.values()) {
+                task.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of the load. A load, which was cancelled,
+     * e.g. discarded by the executor, is reported as a failure
+     */
+    private static <V> V getUninterruptibly(Future<V> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (CancellationException e) {
+                    throw new ExecutionException(e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The running load or refresh of the key. The loaded value is stored
+     * in the cache before the task is completed, so the threads that come
+     * after the completion find it in the cache.
+     */
+    private final class LoadTask extends FutureTask<V> {
+        private final K key;
+        /** The map of running tasks, which holds this task */
+        private final ConcurrentHashMap<K, LoadTask> owner;
+        /** The futures of {@link #getAsync}, guarded by this task */
+        private ArrayList<Promise<V>> waiters;
+        private boolean finished;
+        /**
+         * True, if the key was put, removed or cleared since the task
+         * was started, so its value is returned, but not stored.
+         * Guarded by {@link #storeLock}
+         */
+        boolean invalidated;
+
+        LoadTask(K key) {
+            this(new Body(key, null), loading);
+        }
+
+        LoadTask(K key, V oldValue) {
+            this(new Body(key, oldValue), refreshing);
+        }
+
+        private LoadTask(Body body, ConcurrentHashMap<K, LoadTask> owner) {
+            super(body);
+            body.task = this;
+            this.key = body.key;
+            this.owner = owner;
+        }
+
+        /** Completes the task with the result of the bulk load */
+        void complete(V value) {
+            set(value);
+        }
+
+        /** Completes the task with the failure of the bulk load */
+        void fail(Throwable cause) {
+            setException(cause);
+        }
+
+        /**
+         * Returns a new future of the result of this task, which
+         * can be cancelled without cancelling the task
+         */
+        Promise<V> newWaiter() {
+            Promise<V> waiter = new Promise<>();
+            synchronized (this) {
+                if (!finished) {
+                    if (waiters == null) {
+                        waiters = new ArrayList<>(2);
+                    }
+                    waiters.add(waiter);
+                    return waiter;
+                }
+            }
+            deliver(waiter);
+            return waiter;
+        }
+
+        @Override
+        protected void done() {
+            owner.remove(key, this);
+
+            ArrayList<Promise<V>> waiters;
+            synchronized (this) {
+                finished = true;
+                waiters = this.waiters;
+                this.waiters = null;
+            }
+            if (waiters != null) {
+                for (int i = 0; i < waiters.size(); i++) {
+                    deliver(waiters.get(i));
+                }
+            }
+        }
+
+        private void deliver(Promise<V> waiter) {
+            try {
+                waiter.complete(getUninterruptibly(this));
+            } catch (ExecutionException e) {
+                waiter.fail(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Loads the value of the task, or reloads it, if the old value is known
+     */
+    private final class Body implements Callable<V> {
+        final K key;
+        final V oldValue;
+        LoadTask task;
+
+        Body(K key, V oldValue) {
+            this.key = key;
+            this.oldValue = oldValue;
+        }
+
+        @Override
+        public V call() throws Exception {
+            return oldValue == null ? load(task) : reload(task, oldValue);
+        }
+    }
+
+    /**
+     * Returns the already cached value
+     */
+    private static final class Present<V> implements Callable<V> {
+        private final V value;
+
+        Present(V value) {
+            this.value = value;
+        }
+
+        @Override
+        public V call() {
+            return value;
+        }
+    }
+
+    /**
+     * Throws the cached failure of the negative entry
+     */
+    private static final class Failed<V> implements Callable<V> {
+        private final Exception cause;
+
+        Failed(Exception cause) {
+            this.cause = cause;
+        }
+
+        @Override
+        public V call() throws Exception {
+            throw cause;
+        }
+    }
+}
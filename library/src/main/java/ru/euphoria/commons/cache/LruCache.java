@@ -1,5 +1,6 @@
 package ru.euphoria.commons.cache;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -9,32 +10,95 @@ import java.util.Map;
  *
  * A cache that holds strong references to a limited number of values.
  *
+ * <p>Since 1.2 the sizes are {@code long}: {@link #sizeOf} returns
+ * {@code long}, and {@link #LruCache(long)}, {@link #resize(long)} and
+ * {@link #maxSize()} take and return {@code long}. This is not source or
+ * binary compatible with 1.1, so code that uses this class must be
+ * recompiled, and subclasses that override {@code int sizeOf(K, V)} must
+ * change the return type to {@code long}, or drop the override and pass
+ * a {@link Weigher} to {@link #LruCache(long, Weigher)} instead:
+ *
+ * <pre>
+ *     // 1.1
+ *     new LruCache&lt;String, Bitmap&gt;(maxBytes) {
+ *         protected int sizeOf(String key, Bitmap value) {
+ *             return value.getRowBytes() * value.getHeight();
+ *         }
+ *     };
+ *
+ *     // 1.2
+ *     new LruCache&lt;String, Bitmap&gt;(maxBytes, new Weigher&lt;String, Bitmap&gt;() {
+ *         public long weigh(String key, Bitmap value) {
+ *             return (long) value.getRowBytes() * value.getHeight();
+ *         }
+ *     });
+ * </pre>
+ *
  * @since 1.0
  */
-public class LruCache<K, V> implements Cache<K, V> {
-    private final LinkedHashMap<K, V> map;
+public class LruCache<K, V> implements Cache<K, V>, Trimmable, Snapshottable<K, V> {
+    /** The maximum number of entries, which {@link #restore} puts under the lock at once */
+    static final int RESTORE_BATCH_SIZE = 64;
+
+    private final HashMap<K, Node<K, V>> map;
+    /**
+     * The sentinel of the queue of entries: its next node is the least
+     * recently used entry, its previous node is the most recently used one.
+     * The queue is walked from both ends, unlike {@link LinkedHashMap}
+     */
+    private final Node<K, V> head = new Node<>(null, null);
 
     /** Size of this cache in units. Not necessarily the number of elements. */
-    private int size;
-    private int maxSize;
+    private long size;
+    private long maxSize;
 
-    private int putCount;
-    private int createCount;
-    private int evictionCount;
-    private int hitCount;
-    private int missCount;
+    private final Weigher<? super K, ? super V> weigher;
+    private final StatsCounter stats;
+    private volatile RemovalListener<K, V> removalListener;
+    private final TrimmerRegistration trimmer;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
      *     the maximum number of entries in the cache. For all other caches,
      *     this is the maximum sum of the sizes of the entries in this cache.
      */
-    public LruCache(int maxSize) {
+    public LruCache(long maxSize) {
+        this(maxSize, null, new StatsCounter(), true);
+    }
+
+    /**
+     * Creates a cache, which is bounded by the total weight of entries,
+     * e.g. by the size of values in bytes, see {@link Weighers}
+     *
+     * @param maxSize the maximum sum of weights of the entries in this cache
+     * @param weigher the weigher of entries
+     */
+    public LruCache(long maxSize, Weigher<? super K, ? super V> weigher) {
+        this(maxSize, weigher, new StatsCounter(), true);
+        if (weigher == null) {
+            throw new NullPointerException("weigher == null");
+        }
+    }
+
+    /**
+     * Creates a cache, which records its statistics to the specified counter,
+     * e.g. shared by segments of {@link ConcurrentLruCache}. Such a cache
+     * does not join {@link MemoryTrimmer}, the owner does.
+     */
+    LruCache(long maxSize, Weigher<? super K, ? super V> weigher, StatsCounter stats) {
+        this(maxSize, weigher, stats, false);
+    }
+
+    private LruCache(long maxSize, Weigher<? super K, ? super V> weigher, StatsCounter stats,
+                     boolean trimmed) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<>(0, 0.75f, true);
+        this.map = new HashMap<>();
+        this.weigher = weigher;
+        this.stats = stats;
+        this.trimmer = new TrimmerRegistration(this, trimmed);
     }
 
     /**
@@ -42,7 +106,7 @@ public class LruCache<K, V> implements Cache<K, V> {
      *
      * @param maxSize The new maximum size.
      */
-    public void resize(int maxSize) {
+    public void resize(long maxSize) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
@@ -67,12 +131,13 @@ public class LruCache<K, V> implements Cache<K, V> {
 
         V mapValue;
         synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                moveToTail(node);
+                stats.recordHits(1);
+                return node.value;
             }
-            missCount++;
+            stats.recordMisses(1);
         }
 
         /*
@@ -82,25 +147,29 @@ public class LruCache<K, V> implements Cache<K, V> {
          * the map and release the created value.
          */
 
+        long start = System.nanoTime();
         V createdValue = create(key);
         if (createdValue == null) {
             return null;
         }
+        trimmer.onInsert();
+        stats.recordLoadSuccess(System.nanoTime() - start);
 
         synchronized (this) {
-            createCount++;
-            mapValue = map.put(key, createdValue);
-
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                // There was a conflict so keep the value in the map
+                mapValue = node.value;
+                moveToTail(node);
             } else {
+                mapValue = null;
+                linkTail(key, createdValue);
                 size += safeSizeOf(key, createdValue);
             }
         }
 
         if (mapValue != null) {
-            entryRemoved(false, key, createdValue, mapValue);
+            notifyRemoved(RemovalCause.REPLACED, key, createdValue, mapValue);
             return mapValue;
         } else {
             trimToSize(maxSize);
@@ -118,24 +187,94 @@ public class LruCache<K, V> implements Cache<K, V> {
             throw new NullPointerException("key == null || value == null");
         }
 
+        trimmer.onInsert();
+
         V previous;
         synchronized (this) {
-            putCount++;
+            stats.recordPuts(1);
             size += safeSizeOf(key, value);
-            previous = map.put(key, value);
+            previous = putNode(key, value);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
             }
         }
 
         if (previous != null) {
-            entryRemoved(false, key, previous, value);
+            notifyRemoved(RemovalCause.REPLACED, key, previous, value);
         }
 
         trimToSize(maxSize);
         return true;
     }
 
+    /**
+     * Returns the values of {@code keys}, which exist in the cache. The found
+     * values are moved to the head of the queue. Unlike {@link #get}, the
+     * missing values are not created. The lock is taken once for all keys.
+     */
+    @Override
+    public final Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        int misses = 0;
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                Node<K, V> node = map.get(key);
+                if (node != null) {
+                    moveToTail(node);
+                    result.put(key, node.value);
+                } else {
+                    misses++;
+                }
+            }
+        }
+        stats.recordHits(result.size());
+        stats.recordMisses(misses);
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}, but takes
+     * the lock once for all entries and trims the cache once at the end.
+     */
+    @Override
+    public final void putAll(Map<? extends K, ? extends V> entries) {
+        trimmer.onInsert();
+
+        LinkedHashMap<K, V> replaced = null;
+        synchronized (this) {
+            for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+
+                size += safeSizeOf(key, value);
+                V previous = putNode(key, value);
+                if (previous != null) {
+                    size -= safeSizeOf(key, previous);
+                    if (replaced == null) {
+                        replaced = new LinkedHashMap<>();
+                    }
+                    replaced.put(key, previous);
+                }
+            }
+            stats.recordPuts(entries.size());
+        }
+
+        if (replaced != null) {
+            for (Map.Entry<K, V> entry : replaced.entrySet()) {
+                notifyRemoved(RemovalCause.REPLACED, entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+            }
+        }
+
+        trimToSize(maxSize);
+    }
+
     /**
      * Remove the eldest entries until the total of remaining entries is at or
      * below the requested size.
@@ -143,7 +282,7 @@ public class LruCache<K, V> implements Cache<K, V> {
      * @param maxSize the maximum size of the cache before returning. May be -1
      *            to evict even 0-sized elements.
      */
-    public void trimToSize(int maxSize) {
+    public void trimToSize(long maxSize) {
         while (true) {
             K key;
             V value;
@@ -157,15 +296,17 @@ public class LruCache<K, V> implements Cache<K, V> {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = map.entrySet().iterator().next();
-                key = toEvict.getKey();
-                value = toEvict.getValue();
+                Node<K, V> toEvict = head.next;
+                key = toEvict.key;
+                value = toEvict.value;
                 map.remove(key);
-                size -= safeSizeOf(key, value);
-                evictionCount++;
+                unlink(toEvict);
+                long weight = safeSizeOf(key, value);
+                size -= weight;
+                stats.recordEviction(weight);
             }
 
-            entryRemoved(true, key, value, null);
+            notifyRemoved(RemovalCause.SIZE, key, value, null);
         }
     }
 
@@ -178,16 +319,18 @@ public class LruCache<K, V> implements Cache<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
+        V previous = null;
         synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+                previous = node.value;
                 size -= safeSizeOf(key, previous);
             }
         }
 
         if (previous != null) {
-            entryRemoved(false, key, previous, null);
+            notifyRemoved(RemovalCause.EXPLICIT, key, previous, null);
         }
 
         return true;
@@ -210,6 +353,23 @@ public class LruCache<K, V> implements Cache<K, V> {
      */
     protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
 
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    private void notifyRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        RemovalListener<K, V> listener = removalListener;
+        if (listener != null) {
+            listener.onRemoval(new RemovalNotification<K, V>(key, oldValue, cause));
+        }
+    }
+
     /**
      * Called after a cache miss to compute a value for the corresponding key.
      * Returns the computed value or null if no value can be computed. The
@@ -229,8 +389,8 @@ public class LruCache<K, V> implements Cache<K, V> {
         return null;
     }
 
-    private int safeSizeOf(K key, V value) {
-        int result = sizeOf(key, value);
+    private long safeSizeOf(K key, V value) {
+        long result = sizeOf(key, value);
         if (result < 0) {
             throw new IllegalStateException("Negative size: " + key + "=" + value);
         }
@@ -239,13 +399,17 @@ public class LruCache<K, V> implements Cache<K, V> {
 
     /**
      * Returns the size of the entry for {@code key} and {@code value} in
-     * user-defined units.  The default implementation returns 1 so that size
-     * is the number of entries and max size is the maximum number of entries.
+     * user-defined units.  The default implementation returns the weight of
+     * the {@link Weigher} of this cache, or 1 so that size is the number of
+     * entries and max size is the maximum number of entries.
      *
      * <p>An entry's size must not change while it is in the cache.
+     *
+     * <p>Returns {@code long} since 1.2, subclasses written for 1.1 must
+     * change the return type of their override.
      */
-    protected int sizeOf(K key, V value) {
-        return 1;
+    protected long sizeOf(K key, V value) {
+        return weigher != null ? weigher.weigh(key, value) : 1;
     }
 
     /**
@@ -262,6 +426,14 @@ public class LruCache<K, V> implements Cache<K, V> {
      */
     @Override
     public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in this cache, like
+     * {@link #size()}, but without the limit of {@link Integer#MAX_VALUE}.
+     */
+    public synchronized final long weightedSize() {
         return size;
     }
 
@@ -275,7 +447,7 @@ public class LruCache<K, V> implements Cache<K, V> {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
+    public synchronized final long maxSize() {
         return maxSize;
     }
 
@@ -283,37 +455,45 @@ public class LruCache<K, V> implements Cache<K, V> {
      * Returns the number of times {@link #get} returned a value that was
      * already present in the cache.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final long hitCount() {
+        return stats.hitCount();
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final long missCount() {
+        return stats.missCount();
     }
 
     /**
      * Returns the number of times {@link #create(Object)} returned a value.
      */
-    public synchronized final int createCount() {
-        return createCount;
+    public final long createCount() {
+        return stats.loadSuccessCount();
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
-        return putCount;
+    public final long putCount() {
+        return stats.putCount();
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
     }
 
     /**
@@ -321,14 +501,162 @@ public class LruCache<K, V> implements Cache<K, V> {
      * recently accessed to most recently accessed.
      */
     public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>(map.size());
+        for (Node<K, V> node = head.next; node != head; node = node.next) {
+            snapshot.put(node.key, node.value);
+        }
+        return snapshot;
     }
 
-    @Override public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+    /**
+     * Returns up to {@code limit} most recently used entries, ordered from
+     * least recently accessed to most recently accessed. Unlike {@link #snapshot()},
+     * the lock is held only to copy the references of {@code limit} entries
+     * from the most recently used end.
+     *
+     * @param limit the maximum number of entries
+     */
+    @Override
+    public final CacheSnapshot<K, V> hottest(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+
+        Object[] keys;
+        Object[] values;
+        synchronized (this) {
+            int count = Math.min(limit, map.size());
+            keys = new Object[count];
+            values = new Object[count];
+
+            Node<K, V> node = head.prev;
+            for (int i = count - 1; i >= 0; i--) {
+                keys[i] = node.key;
+                values[i] = node.value;
+                node = node.prev;
+            }
+        }
+        return new CacheSnapshot<>(keys, values);
+    }
+
+    /**
+     * Puts the entries of the snapshot, which fit into the free space,
+     * preferring the most recently used ones. The entries, which are already
+     * in the cache, are newer and kept. Nothing is evicted, the restored
+     * entries are not counted as puts.
+     *
+     * <p>The restored entries are older than any entry, which was used
+     * in this run, so they are placed at the least recently used end
+     * and evicted first. The entries are put by {@link #RESTORE_BATCH_SIZE}
+     * under the lock at once, so a large snapshot does not block the readers.
+     *
+     * @param snapshot the entries to put, e.g. saved on the previous start
+     * @return the number of restored entries
+     */
+    @Override
+    public final int restore(CacheSnapshot<? extends K, ? extends V> snapshot) {
+        trimmer.onInsert();
+
+        // from the hottest entry, each one before the previous ones
+        int restored = 0;
+        int index = snapshot.size() - 1;
+        while (index >= 0) {
+            synchronized (this) {
+                int end = Math.max(index - RESTORE_BATCH_SIZE, -1);
+                for (; index > end; index--) {
+                    K key = snapshot.keyAt(index);
+                    V value = snapshot.valueAt(index);
+                    if (map.containsKey(key)) {
+                        continue;
+                    }
+                    long weight = safeSizeOf(key, value);
+                    if (weight > maxSize - size) {
+                        // the colder entries are not taken, even if they fit
+                        return restored;
+                    }
+                    linkHead(key, value);
+                    size += weight;
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    @Override public final String toString() {
+        long hitCount = stats.hitCount();
+        long accesses = hitCount + stats.missCount();
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
         return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-                maxSize, hitCount, missCount, hitPercent);
+                maxSize(), hitCount, accesses - hitCount, hitPercent);
+    }
+
+    /**
+     * Replaces the value of the key or adds a new entry, and moves
+     * it to the most recently used end. Must be called under the lock
+     *
+     * @return the previous value, or null
+     */
+    private V putNode(K key, V value) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            linkTail(key, value);
+            return null;
+        }
+        V previous = node.value;
+        node.value = value;
+        moveToTail(node);
+        return previous;
+    }
+
+    /** Adds a new entry at the most recently used end */
+    private void linkTail(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        map.put(key, node);
+        link(node, head.prev, head);
     }
-}
 
+    /** Adds a new entry at the least recently used end */
+    private void linkHead(K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        map.put(key, node);
+        link(node, head, head.next);
+    }
+
+    private void moveToTail(Node<K, V> node) {
+        if (node != head.prev) {
+            unlink(node);
+            link(node, head.prev, head);
+        }
+    }
+
+    private static <K, V> void link(Node<K, V> node, Node<K, V> prev, Node<K, V> next) {
+        node.prev = prev;
+        node.next = next;
+        prev.next = node;
+        next.prev = node;
+    }
+
+    private static <K, V> void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+            // the sentinel is linked to itself
+            this.prev = this;
+            this.next = this;
+        }
+    }
+}
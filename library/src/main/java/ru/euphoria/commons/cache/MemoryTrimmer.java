@@ -0,0 +1,350 @@
+package ru.euphoria.commons.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * The registry of memory caches, which shrinks them when the system
+ * is low on memory. The caches of this package join it automatically,
+ * the registry holds them by weak references, so it never keeps
+ * a cache alive.
+ *
+ * <p>On a trim signal each cache is trimmed to a fraction of its budget,
+ * configured for each {@link TrimLevel}. The caches with the lowest
+ * rebuild cost are trimmed first, so the most expensive ones, e.g. decoded
+ * bitmaps or parsed responses, lose their entries last.
+ *
+ * <p>The caches of this package join the registry on the first insertion,
+ * not in the constructor, so the registry never trims a partly built cache,
+ * e.g. a subclass, which fields are not assigned yet. A cache, which was
+ * registered or unregistered explicitly before, keeps these settings.
+ *
+ * <pre>
+ *     public class App extends Application {
+ *         &#064;Override
+ *         public void onTrimMemory(int level) {
+ *             super.onTrimMemory(level);
+ *             MemoryTrimmer.onTrimMemory(level);
+ *         }
+ *
+ *         &#064;Override
+ *         public void onLowMemory() {
+ *             super.onLowMemory();
+ *             MemoryTrimmer.onLowMemory();
+ *         }
+ *     }
+ *
+ *     // keep 90% of avatars on a moderate pressure, 50% on a critical one
+ *     MemoryTrimmer.register(avatars, MemoryTrimmer.COST_HIGH, 0.9f, 0.5f, 0f);
+ * </pre>
+ *
+ * @since 1.2
+ */
+public final class MemoryTrimmer {
+    /** The rebuild cost of caches, which are cheap to fill again, e.g. from disk */
+    public static final int COST_LOW = 0;
+    /** The rebuild cost of caches, which are registered automatically */
+    public static final int COST_NORMAL = 50;
+    /** The rebuild cost of caches, which are filled from the network */
+    public static final int COST_HIGH = 100;
+
+    /** The default fractions of the budget, which the caches keep on each level */
+    private static final float DEFAULT_MODERATE = 0.5f;
+    private static final float DEFAULT_CRITICAL = 0.25f;
+    private static final float DEFAULT_COMPLETE = 0f;
+
+    /** The levels of ComponentCallbacks2, which is not available on API 9 */
+    private static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    private static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    private static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    private static final int TRIM_MEMORY_BACKGROUND = 40;
+    private static final int TRIM_MEMORY_MODERATE = 60;
+    private static final int TRIM_MEMORY_COMPLETE = 80;
+
+    /** Ordered by the rebuild cost, the registration order for the same cost */
+    private static final ArrayList<Registration> registrations = new ArrayList<>();
+    /** The caches, which were unregistered before their first insertion */
+    private static final ArrayList<WeakReference<Trimmable>> unregistered = new ArrayList<>();
+
+    private MemoryTrimmer() {
+        // no instances
+    }
+
+    /**
+     * Registers the cache with {@link #COST_NORMAL} and the default fractions:
+     * a half of the budget on {@link TrimLevel#MODERATE}, a quarter on
+     * {@link TrimLevel#CRITICAL} and nothing on {@link TrimLevel#COMPLETE}.
+     * Does nothing, if the cache is already registered.
+     *
+     * @param cache the cache to trim on memory pressure
+     */
+    public static void register(Trimmable cache) {
+        if (cache == null) {
+            throw new NullPointerException("cache == null");
+        }
+
+        synchronized (registrations) {
+            removeUnregistered(cache);
+            if (indexOf(cache) == -1) {
+                add(new Registration(cache, COST_NORMAL,
+                        DEFAULT_MODERATE, DEFAULT_CRITICAL, DEFAULT_COMPLETE));
+            }
+        }
+    }
+
+    /**
+     * Registers the cache like {@link #register(Trimmable)} on its first
+     * insertion, unless it was registered or unregistered explicitly before
+     */
+    static void registerOnInsert(Trimmable cache) {
+        synchronized (registrations) {
+            if (indexOf(cache) == -1 && indexOfUnregistered(cache) == -1) {
+                add(new Registration(cache, COST_NORMAL,
+                        DEFAULT_MODERATE, DEFAULT_CRITICAL, DEFAULT_COMPLETE));
+            }
+        }
+    }
+
+    /**
+     * Registers the cache with the default fractions, or changes
+     * the rebuild cost of the already registered cache
+     *
+     * @param cache       the cache to trim on memory pressure
+     * @param rebuildCost the cost to fill the cache again, see {@link #COST_NORMAL}
+     */
+    public static void register(Trimmable cache, int rebuildCost) {
+        register(cache, rebuildCost, DEFAULT_MODERATE, DEFAULT_CRITICAL, DEFAULT_COMPLETE);
+    }
+
+    /**
+     * Registers the cache, or changes the settings of the already registered cache
+     *
+     * @param cache       the cache to trim on memory pressure
+     * @param rebuildCost the cost to fill the cache again, see {@link #COST_NORMAL}
+     * @param moderate    the fraction of the budget to keep on {@link TrimLevel#MODERATE}
+     * @param critical    the fraction of the budget to keep on {@link TrimLevel#CRITICAL}
+     * @param complete    the fraction of the budget to keep on {@link TrimLevel#COMPLETE}
+     */
+    public static void register(Trimmable cache, int rebuildCost,
+                                float moderate, float critical, float complete) {
+        if (cache == null) {
+            throw new NullPointerException("cache == null");
+        }
+        if (!isFraction(moderate) || !isFraction(critical) || !isFraction(complete)) {
+            throw new IllegalArgumentException("fraction < 0 || fraction > 1");
+        }
+
+        synchronized (registrations) {
+            removeUnregistered(cache);
+            int index = indexOf(cache);
+            if (index != -1) {
+                registrations.remove(index);
+            }
+            add(new Registration(cache, rebuildCost, moderate, critical, complete));
+        }
+    }
+
+    /**
+     * Removes the cache from the registry, so it is never trimmed,
+     * and is not registered on its first insertion
+     */
+    public static void unregister(Trimmable cache) {
+        synchronized (registrations) {
+            int index = indexOf(cache);
+            if (index != -1) {
+                registrations.remove(index);
+            }
+            purge();
+            if (indexOfUnregistered(cache) == -1) {
+                unregistered.add(new WeakReference<>(cache));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the registered caches, which are still alive
+     */
+    public static int registeredCount() {
+        synchronized (registrations) {
+            purge();
+            return registrations.size();
+        }
+    }
+
+    /**
+     * Trims all registered caches to their fractions of the level,
+     * from the cheapest to rebuild to the most expensive one.
+     *
+     * <p>The caches are trimmed on the current thread without the lock
+     * of the registry, so their removal hooks may touch other caches.
+     * If a cache throws, the other caches are trimmed anyway and the first
+     * exception is thrown at the end.
+     */
+    public static void trim(TrimLevel level) {
+        if (level == null) {
+            throw new NullPointerException("level == null");
+        }
+
+        ArrayList<Trimmable> caches;
+        ArrayList<Float> fractions;
+        synchronized (registrations) {
+            purge();
+            caches = new ArrayList<>(registrations.size());
+            fractions = new ArrayList<>(registrations.size());
+            for (Registration registration : registrations) {
+                Trimmable cache = registration.get();
+                if (cache != null) {
+                    caches.add(cache);
+                    fractions.add(registration.fractions[level.ordinal()]);
+                }
+            }
+        }
+
+        RuntimeException failure = null;
+        for (int i = 0; i < caches.size(); i++) {
+            Trimmable cache = caches.get(i);
+            float fraction = fractions.get(i);
+            try {
+                // -1 will evict 0-sized entries too
+                cache.trimToSize(fraction == 0 ? -1 : (long) (cache.maxSize() * (double) fraction));
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Trims the caches on the level of {@code ComponentCallbacks2.onTrimMemory}.
+     * Call it from {@code onTrimMemory} of the application.
+     *
+     * @param level the level passed to {@code onTrimMemory}
+     */
+    public static void onTrimMemory(int level) {
+        TrimLevel trimLevel = levelOf(level);
+        if (trimLevel != null) {
+            trim(trimLevel);
+        }
+    }
+
+    /**
+     * Trims the caches on {@code onLowMemory}, which older versions
+     * of Android call instead of {@code onTrimMemory}
+     */
+    public static void onLowMemory() {
+        trim(TrimLevel.COMPLETE);
+    }
+
+    /**
+     * Returns the {@link TrimLevel} of the {@code ComponentCallbacks2} level,
+     * or null, if the caches should not be trimmed, e.g. the UI is just hidden
+     */
+    public static TrimLevel levelOf(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return TrimLevel.COMPLETE;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return TrimLevel.CRITICAL;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            return TrimLevel.MODERATE;
+        }
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            // the app is still running, only the UI resources are released
+            return null;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TrimLevel.CRITICAL;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return TrimLevel.MODERATE;
+        }
+        return null;
+    }
+
+    /**
+     * Inserts the registration after all registrations with the same
+     * or lower rebuild cost. Must be called under the lock.
+     */
+    private static void add(Registration registration) {
+        purge();
+        int index = registrations.size();
+        while (index > 0 && registrations.get(index - 1).cost > registration.cost) {
+            index--;
+        }
+        registrations.add(index, registration);
+    }
+
+    /**
+     * Returns the index of the registration of the cache, or -1.
+     * Must be called under the lock.
+     */
+    private static int indexOf(Trimmable cache) {
+        for (int i = 0; i < registrations.size(); i++) {
+            if (registrations.get(i).get() == cache) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the unregistered cache, or -1.
+     * Must be called under the lock.
+     */
+    private static int indexOfUnregistered(Trimmable cache) {
+        for (int i = 0; i < unregistered.size(); i++) {
+            if (unregistered.get(i).get() == cache) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Forgets that the cache was unregistered. Must be called under the lock.
+     */
+    private static void removeUnregistered(Trimmable cache) {
+        int index = indexOfUnregistered(cache);
+        if (index != -1) {
+            unregistered.remove(index);
+        }
+    }
+
+    /**
+     * Removes the registrations of the collected caches.
+     * Must be called under the lock.
+     */
+    private static void purge() {
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).get() == null) {
+                registrations.remove(i);
+            }
+        }
+        for (int i = unregistered.size() - 1; i >= 0; i--) {
+            if (unregistered.get(i).get() == null) {
+                unregistered.remove(i);
+            }
+        }
+    }
+
+    private static boolean isFraction(float value) {
+        return value >= 0 && value <= 1;
+    }
+
+    private static final class Registration extends WeakReference<Trimmable> {
+        final int cost;
+        /** Indexed by the ordinal of {@link TrimLevel} */
+        final float[] fractions;
+
+        Registration(Trimmable cache, int cost, float moderate, float critical, float complete) {
+            super(cache);
+            this.cost = cost;
+            this.fractions = new float[] {moderate, critical, complete};
+        }
+    }
+}
@@ -0,0 +1,609 @@
+package ru.euphoria.commons.cache;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.euphoria.commons.concurrent.StripedCounter;
+import ru.euphoria.commons.io.FileStreams;
+
+/**
+ * A cache of binary values, e.g. the bodies of HTTP responses, which
+ * stores them out of the Java heap, in direct memory. So large caches
+ * do not increase the time of garbage collection.
+ *
+ * <p>The memory is allocated by slabs of 1 MB (by default), up to the
+ * specified limit. Each slab is cut into chunks of one size class, the value
+ * is copied into the smallest chunk that can hold it. When the memory is
+ * exhausted, the least recently used value of the same size class is evicted.
+ * If the size class has no values, a slab of another class is reassigned.
+ * When the cache is trimmed, the emptiest slabs are released, so the direct
+ * memory is returned to the system.
+ *
+ * <p>{@link #get} returns a copy on the Java heap, which the caller owns.
+ * {@link #acquire} returns a read-only view of the direct memory without
+ * a copy: the chunk of the value is pinned, so it is not reused by another
+ * value, even if the entry is removed or evicted, until the
+ * {@link Handle} is closed. Close the handles promptly, the pinned slabs
+ * are not reassigned or released.
+ *
+ * <pre>
+ *     OffHeapCache&lt;String&gt; bodies = new OffHeapCache&lt;&gt;(64 * FileStreams.ONE_MB);
+ *     bodies.put(url, ByteBuffer.wrap(response.asBytes()));
+ *
+ *     OffHeapCache.Handle body = bodies.acquire(url);
+ *     if (body != null) {
+ *         try {
+ *             parser.parse(body.buffer());
+ *         } finally {
+ *             body.close();
+ *         }
+ *     }
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class OffHeapCache<K> implements Cache<K, ByteBuffer>, Trimmable {
+    /** The default size of a slab, also the maximum size of a value */
+    public static final int DEFAULT_SLAB_SIZE = FileStreams.ONE_MB;
+
+    private final LinkedHashMap<K, Entry<K>> map;
+    private final SlabAllocator allocator;
+    /** The sentinels of the LRU lists of each size class */
+    private final Entry<K>[] classes;
+    private final long maxSize;
+
+    /** Size of the values in bytes, without the wasted space of chunks */
+    private long size;
+
+    private final StatsCounter stats = new StatsCounter();
+    private final StripedCounter rejectCount = new StripedCounter();
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+
+    /**
+     * Creates a new {@link OffHeapCache} with slabs of {@link #DEFAULT_SLAB_SIZE}
+     *
+     * @param maxSize the maximum size of direct memory, in bytes
+     */
+    public OffHeapCache(long maxSize) {
+        this(maxSize, (int) Math.min(DEFAULT_SLAB_SIZE, maxSize));
+    }
+
+    /**
+     * Creates a new {@link OffHeapCache}
+     *
+     * @param maxSize  the maximum size of direct memory, in bytes
+     * @param slabSize the size of a slab in bytes, also the maximum size of a value
+     */
+    public OffHeapCache(long maxSize, int slabSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (slabSize > maxSize) {
+            throw new IllegalArgumentException("slabSize > maxSize");
+        }
+
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(0, 0.75f, true);
+        this.allocator = new SlabAllocator(slabSize, maxSize);
+
+        int count = allocator.sizeClass(slabSize) + 1;
+        // generic arrays can't be created, the array holds only the sentinels of this cache
+        @SuppressWarnings("unchecked")
+        Entry<K>[] classes = (Entry<K>[]) new Entry<?>[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new Entry<>(null, -1, 0, i);
+        }
+        this.classes = classes;
+    }
+
+    /**
+     * Returns a copy of the value for {@code key}, or null
+     * if the cache does not contain it. The value is moved to the head
+     * of the queue.
+     */
+    @Override
+    public final ByteBuffer get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        synchronized (this) {
+            Entry<K> entry = map.get(key);
+            if (entry == null) {
+                stats.recordMisses(1);
+                return null;
+            }
+
+            stats.recordHits(1);
+            moveToHead(entry);
+            return copyOf(entry);
+        }
+    }
+
+    /**
+     * Returns a read-only view of the value for {@code key} without
+     * a copy, or null if the cache does not contain it. The value is moved
+     * to the head of the queue, like by {@link #get}.
+     *
+     * <p>The memory of the value is not reused until the handle is closed,
+     * even if the entry is removed, evicted or replaced meanwhile.
+     */
+    public final Handle acquire(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        synchronized (this) {
+            Entry<K> entry = map.get(key);
+            if (entry == null) {
+                stats.recordMisses(1);
+                return null;
+            }
+
+            stats.recordHits(1);
+            moveToHead(entry);
+            if (entry.pins++ == 0) {
+                allocator.pin(entry.chunk);
+            }
+            return new Handle(this, entry,
+                    allocator.view(entry.chunk, entry.length).asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of {@code value} into the direct memory.
+     * The position of {@code value} is not changed.
+     *
+     * @return true if the value is cached, false if it's larger than a slab
+     *         or the memory can't be allocated. Then the previous value
+     *         of the key, if any, stays in the cache
+     */
+    @Override
+    public final boolean put(K key, ByteBuffer value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        trimmer.onInsert();
+
+        ArrayList<Entry<K>> removed = new ArrayList<>(0);
+        boolean added;
+        synchronized (this) {
+            added = putInternal(key, value, removed);
+        }
+        notifyRemoved(removed);
+        return added;
+    }
+
+    @Override
+    public final Map<K, ByteBuffer> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, ByteBuffer> result = new LinkedHashMap<>();
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                Entry<K> entry = map.get(key);
+                if (entry != null) {
+                    stats.recordHits(1);
+                    moveToHead(entry);
+                    result.put(key, copyOf(entry));
+                } else {
+                    stats.recordMisses(1);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public final void putAll(Map<? extends K, ? extends ByteBuffer> entries) {
+        trimmer.onInsert();
+
+        ArrayList<Entry<K>> removed = new ArrayList<>(0);
+        synchronized (this) {
+            for (Map.Entry<? extends K, ? extends ByteBuffer> entry : entries.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+                putInternal(entry.getKey(), entry.getValue(), removed);
+            }
+        }
+        notifyRemoved(removed);
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists,
+     * its chunk of memory can be reused.
+     */
+    @Override
+    public final boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Entry<K> previous;
+        synchronized (this) {
+            previous = map.remove(key);
+            if (previous != null) {
+                release(previous);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the eldest entries until the total size of remaining values
+     * is at or below the requested size. Then the slabs with the fewest values
+     * are released with their values, until the allocated direct memory
+     * is at or below the requested size too.
+     *
+     * @param maxSize the maximum size of the values, in bytes. May be -1
+     *            to evict even empty values.
+     */
+    public void trimToSize(long maxSize) {
+        ArrayList<Entry<K>> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry<K>> iterator = map.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Entry<K> entry = iterator.next();
+                iterator.remove();
+                release(entry);
+                entry.evicted = true;
+                stats.recordEviction(entry.length);
+                evicted.add(entry);
+            }
+
+            // the evicted chunks are spread over the slabs, so the whole
+            // slabs are released to return the memory
+            while (allocator.allocatedBytes() > Math.max(maxSize, 0)) {
+                int slab = allocator.emptiestSlab();
+                if (slab < 0) {
+                    break;
+                }
+                evictSlab(slab, evicted);
+                allocator.release(slab);
+            }
+        }
+        notifyRemoved(evicted);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. The default
+     * implementation does nothing. The value is not passed, because its
+     * memory may already be reused.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key) {}
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict empty values
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * Returns the size of cached values in bytes,
+     * or {@link Integer#MAX_VALUE} if the size is more
+     */
+    @Override
+    public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the maximum size of direct memory in bytes
+     */
+    public final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the size of the allocated direct memory in bytes
+     */
+    public synchronized final long allocatedSize() {
+        return allocator.allocatedBytes();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values, which were not cached,
+     * because they are too large or the memory can't be allocated.
+     */
+    public final long rejectCount() {
+        return rejectCount.sum();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     * The eviction weights are the sizes of the values in bytes.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    @Override public synchronized final String toString() {
+        long hitCount = stats.hitCount();
+        long missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("OffHeapCache[maxSize=%d,allocated=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, allocator.allocatedBytes(), hitCount, missCount, hitPercent);
+    }
+
+    /**
+     * Adds or replaces the entry. Must be called under the lock
+     *
+     * @param removed the list to add the replaced and evicted entries
+     */
+    private boolean putInternal(K key, ByteBuffer value, ArrayList<Entry<K>> removed) {
+        stats.recordPuts(1);
+        int length = value.remaining();
+        int sizeClass = allocator.sizeClass(length);
+
+        long chunk;
+        Entry<K> previous = map.get(key);
+        if (previous != null && previous.sizeClass == sizeClass && previous.pins == 0) {
+            // the chunk of the previous value is reused
+            map.remove(key);
+            release(previous);
+            removed.add(previous);
+            chunk = allocator.allocate(sizeClass);
+        } else {
+            // the previous value is kept, if the new one can't be stored
+            chunk = sizeClass < 0 ? -1 : allocate(sizeClass, removed);
+            if (chunk < 0) {
+                rejectCount.increment();
+                return false;
+            }
+
+            // unless it was evicted to make space
+            previous = map.remove(key);
+            if (previous != null) {
+                release(previous);
+                removed.add(previous);
+            }
+        }
+
+        allocator.view(chunk, length).put(value.duplicate());
+        Entry<K> entry = new Entry<>(key, chunk, length, sizeClass);
+        map.put(key, entry);
+        link(entry);
+        size += length;
+        return true;
+    }
+
+    /**
+     * Allocates a chunk of the size class, evicting the values if necessary
+     */
+    private long allocate(int sizeClass, ArrayList<Entry<K>> evicted) {
+        long chunk = allocator.allocate(sizeClass);
+        if (chunk >= 0) {
+            return chunk;
+        }
+
+        // the eldest value of the same class frees the chunk of the required size,
+        // the pinned chunks are not freed
+        Entry<K> head = classes[sizeClass];
+        for (Entry<K> eldest = head.next; eldest != head; eldest = eldest.next) {
+            if (eldest.pins == 0) {
+                evict(eldest, evicted);
+                return allocator.allocate(sizeClass);
+            }
+        }
+
+        // no values of this class, take the slab of the largest class
+        int victimClass = -1;
+        for (int i = 0; i < classes.length; i++) {
+            if (i != sizeClass && allocator.slabCount(i) > 0 && allocator.lastSlab(i) >= 0
+                    && (victimClass < 0 || allocator.slabCount(i) > allocator.slabCount(victimClass))) {
+                victimClass = i;
+            }
+        }
+        if (victimClass < 0) {
+            return -1;
+        }
+
+        int slab = allocator.lastSlab(victimClass);
+        evictSlab(slab, evicted);
+        allocator.reassign(slab, sizeClass);
+        return allocator.allocate(sizeClass);
+    }
+
+    /** Evicts all values, which are stored in the slab */
+    private void evictSlab(int slab, ArrayList<Entry<K>> evicted) {
+        Entry<K> head = classes[allocator.classOf(slab)];
+        Entry<K> entry = head.next;
+        while (entry != head) {
+            Entry<K> next = entry.next;
+            if (SlabAllocator.slabOf(entry.chunk) == slab) {
+                evict(entry, evicted);
+            }
+            entry = next;
+        }
+    }
+
+    /** Copies the value to the heap. Must be called under the lock */
+    private ByteBuffer copyOf(Entry<K> entry) {
+        ByteBuffer copy = ByteBuffer.allocate(entry.length);
+        copy.put(allocator.view(entry.chunk, entry.length));
+        copy.flip();
+        return copy;
+    }
+
+    private void evict(Entry<K> entry, ArrayList<Entry<K>> evicted) {
+        map.remove(entry.key);
+        release(entry);
+        entry.evicted = true;
+        stats.recordEviction(entry.length);
+        evicted.add(entry);
+    }
+
+    /**
+     * Unlinks the entry and frees its chunk, the entry is removed from the map
+     * by the caller. The chunk of a pinned entry is freed, when it is unpinned
+     */
+    private void release(Entry<K> entry) {
+        unlink(entry);
+        entry.released = true;
+        if (entry.pins == 0) {
+            allocator.free(entry.chunk, entry.sizeClass);
+        }
+        size -= entry.length;
+    }
+
+    /** Called by {@link Handle#close} */
+    private synchronized void unpin(Entry<?> entry) {
+        if (--entry.pins == 0) {
+            allocator.unpin(entry.chunk);
+            if (entry.released) {
+                allocator.free(entry.chunk, entry.sizeClass);
+            }
+        }
+    }
+
+    private void notifyRemoved(ArrayList<Entry<K>> removed) {
+        for (int i = 0; i < removed.size(); i++) {
+            Entry<K> entry = removed.get(i);
+            entryRemoved(entry.evicted, entry.key);
+        }
+    }
+
+    private void moveToHead(Entry<K> entry) {
+        unlink(entry);
+        link(entry);
+    }
+
+    private void link(Entry<K> entry) {
+        Entry<K> head = classes[entry.sizeClass];
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    private void unlink(Entry<K> entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /**
+     * The cached value, which is linked in the LRU list of its size class.
+     * The heads of the lists are sentinel entries.
+     */
+    private static final class Entry<K> {
+        final K key;
+        final long chunk;
+        final int length;
+        final int sizeClass;
+        boolean evicted;
+        /** True, if the entry is not in the cache anymore */
+        boolean released;
+        /** The number of open handles of the entry, guarded by the cache */
+        int pins;
+
+        Entry<K> prev;
+        Entry<K> next;
+
+        Entry(K key, long chunk, int length, int sizeClass) {
+            this.key = key;
+            this.chunk = chunk;
+            this.length = length;
+            this.sizeClass = sizeClass;
+            // the sentinel is linked to itself
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+    /**
+     * The read-only view of a cached value, which is returned by {@link #acquire}.
+     * The memory of the value is not reused, until the handle is closed.
+     */
+    public static final class Handle implements Closeable {
+        private final OffHeapCache<?> cache;
+        private final Entry<?> entry;
+        private final ByteBuffer buffer;
+        private boolean closed;
+
+        Handle(OffHeapCache<?> cache, Entry<?> entry, ByteBuffer buffer) {
+            this.cache = cache;
+            this.entry = entry;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Returns the read-only view of the value. It must not be read
+         * after the handle is closed.
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Unpins the value, so its memory can be reused. Does nothing,
+         * if the handle is already closed.
+         */
+        @Override
+        public void close() {
+            synchronized (cache) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            cache.unpin(entry);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * The reason why a cached entry was removed.
+ *
+ * @since 1.2
+ */
+public enum RemovalCause {
+    /** The entry was removed by the user, e.g. by {@link Cache#remove} */
+    EXPLICIT(false),
+    /** The value was replaced by the user, e.g. by {@link Cache#put} */
+    REPLACED(false),
+    /** The entry was evicted to make space */
+    SIZE(true),
+    /** The entry has expired */
+    EXPIRED(true);
+
+    private final boolean evicted;
+
+    RemovalCause(boolean evicted) {
+        this.evicted = evicted;
+    }
+
+    /**
+     * Returns true, if the entry was removed automatically,
+     * not by the user
+     */
+    public boolean wasEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Returns the cause for the arguments of {@code entryRemoved} of caches
+     */
+    static RemovalCause of(boolean evicted, Object newValue) {
+        return evicted ? SIZE : newValue != null ? REPLACED : EXPLICIT;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * A listener, which is notified when an entry is removed from a cache.
+ * Unlike {@code entryRemoved} of caches, the listener can be set on
+ * a cache without subclassing it.
+ *
+ * <p>The listener is called on the thread, which removed the entry,
+ * use {@link AsyncRemovalListener} to move the work off that thread.
+ *
+ * @since 1.2
+ */
+public interface RemovalListener<K, V> {
+    /**
+     * Called after the entry was removed. The method is called without
+     * synchronization: other threads may access the cache meanwhile.
+     *
+     * @param notification the removed entry and the cause
+     */
+    void onRemoval(RemovalNotification<K, V> notification);
+}
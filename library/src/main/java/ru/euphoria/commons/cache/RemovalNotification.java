@@ -0,0 +1,61 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * A notification of the removal of a single entry. The key and value
+ * are strong references, so the notification keeps the removed value
+ * until it is delivered.
+ *
+ * @since 1.2
+ */
+public final class RemovalNotification<K, V> {
+    private final K key;
+    private final V value;
+    private final RemovalCause cause;
+
+    /**
+     * Creates a new notification
+     *
+     * @param key   the key of the removed entry
+     * @param value the removed value
+     * @param cause the reason of the removal
+     */
+    public RemovalNotification(K key, V value, RemovalCause cause) {
+        this.key = key;
+        this.value = value;
+        this.cause = cause;
+    }
+
+    /**
+     * Returns the key of the removed entry
+     */
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the removed value
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the reason of the removal
+     */
+    public RemovalCause getCause() {
+        return cause;
+    }
+
+    /**
+     * Returns true, if the entry was removed automatically,
+     * not by the user
+     */
+    public boolean wasEvicted() {
+        return cause.wasEvicted();
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + value + " (" + cause + ")";
+    }
+}
@@ -0,0 +1,32 @@
+package ru.euphoria.commons.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes values to a binary stream and reads them back,
+ * e.g. to save a {@link CacheSnapshot}. See {@link Serializers}
+ * for the built-in implementations.
+ *
+ * @since 1.2
+ */
+public interface Serializer<T> {
+
+    /**
+     * Writes the value to the stream
+     *
+     * @param out   the stream to write to
+     * @param value the value to write, never null
+     * @throws IOException if an I/O error occurs
+     */
+    void write(DataOutput out, T value) throws IOException;
+
+    /**
+     * Reads the value, which was written by {@link #write}
+     *
+     * @param in the stream to read from
+     * @throws IOException if an I/O error occurs or the data is malformed
+     */
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,251 @@
+package ru.euphoria.commons.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ru.euphoria.commons.io.Charsets;
+import ru.euphoria.commons.json.JsonArray;
+import ru.euphoria.commons.json.JsonException;
+import ru.euphoria.commons.json.JsonObject;
+
+/**
+ * The built-in {@link Serializer}s. The numbers and lengths are written
+ * as variable-length integers, so small values take one or two bytes.
+ *
+ * <pre>
+ *     cache.hottest(200).writeTo(file, Serializers.strings(), Serializers.jsonObjects());
+ * </pre>
+ *
+ * @since 1.2
+ */
+public final class Serializers {
+    /** The bytes, which are allocated before the length is confirmed by the data */
+    private static final int READ_CHUNK_SIZE = 8192;
+
+    private static final Serializer<String> STRINGS = new Serializer<String>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            writeBytes(out, value.getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return new String(readBytes(in), Charsets.UTF_8);
+        }
+    };
+
+    private static final Serializer<byte[]> BYTE_ARRAYS = new Serializer<byte[]>() {
+        @Override
+        public void write(DataOutput out, byte[] value) throws IOException {
+            writeBytes(out, value);
+        }
+
+        @Override
+        public byte[] read(DataInput in) throws IOException {
+            return readBytes(in);
+        }
+    };
+
+    private static final Serializer<Integer> INTEGERS = new Serializer<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            // zigzag, so small negative numbers are short too
+            writeVarInt(out, (value << 1) ^ (value >> 31));
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            int value = readVarInt(in);
+            return (value >>> 1) ^ -(value & 1);
+        }
+    };
+
+    private static final Serializer<Long> LONGS = new Serializer<Long>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            writeVarLong(out, (value << 1) ^ (value >> 63));
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            long value = readVarLong(in);
+            return (value >>> 1) ^ -(value & 1);
+        }
+    };
+
+    private static final Serializer<JsonObject> JSON_OBJECTS = new Serializer<JsonObject>() {
+        @Override
+        public void write(DataOutput out, JsonObject value) throws IOException {
+            STRINGS.write(out, value.toString());
+        }
+
+        @Override
+        public JsonObject read(DataInput in) throws IOException {
+            try {
+                return new JsonObject(STRINGS.read(in));
+            } catch (JsonException e) {
+                throw new IOException("Malformed json: " + e.getMessage());
+            }
+        }
+    };
+
+    private static final Serializer<JsonArray> JSON_ARRAYS = new Serializer<JsonArray>() {
+        @Override
+        public void write(DataOutput out, JsonArray value) throws IOException {
+            STRINGS.write(out, value.toString());
+        }
+
+        @Override
+        public JsonArray read(DataInput in) throws IOException {
+            try {
+                return new JsonArray(STRINGS.read(in));
+            } catch (JsonException e) {
+                throw new IOException("Malformed json: " + e.getMessage());
+            }
+        }
+    };
+
+    private Serializers() {
+        // no instances
+    }
+
+    /**
+     * Returns the serializer of strings in UTF-8
+     */
+    public static Serializer<String> strings() {
+        return STRINGS;
+    }
+
+    /**
+     * Returns the serializer of byte arrays
+     */
+    public static Serializer<byte[]> byteArrays() {
+        return BYTE_ARRAYS;
+    }
+
+    /**
+     * Returns the serializer of integers, e.g. ids of users
+     */
+    public static Serializer<Integer> integers() {
+        return INTEGERS;
+    }
+
+    /**
+     * Returns the serializer of longs
+     */
+    public static Serializer<Long> longs() {
+        return LONGS;
+    }
+
+    /**
+     * Returns the serializer of {@link JsonObject}s, as their json text
+     */
+    public static Serializer<JsonObject> jsonObjects() {
+        return JSON_OBJECTS;
+    }
+
+    /**
+     * Returns the serializer of {@link JsonArray}s, as their json text
+     */
+    public static Serializer<JsonArray> jsonArrays() {
+        return JSON_ARRAYS;
+    }
+
+    /**
+     * Writes the unsigned variable-length integer: 7 bits per byte,
+     * the high bit is set on all bytes except the last one
+     *
+     * @param out   the stream to write to
+     * @param value the value to write, negative values take 5 bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads the integer, which was written by {@link #writeVarInt}
+     *
+     * @param in the stream to read from
+     * @throws IOException if an I/O error occurs or the value is too long
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Writes the unsigned variable-length long, see {@link #writeVarInt}
+     *
+     * @param out   the stream to write to
+     * @param value the value to write, negative values take 10 bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads the long, which was written by {@link #writeVarLong}
+     *
+     * @param in the stream to read from
+     * @throws IOException if an I/O error occurs or the value is too long
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        writeVarInt(out, value.length);
+        out.write(value);
+    }
+
+    /**
+     * Reads the bytes, which were written by {@link #writeBytes}. The length
+     * is not trusted, as the data may be damaged: the array grows only
+     * with the bytes, which were actually read, so a wrong length fails
+     * with {@link java.io.EOFException} instead of a huge allocation.
+     */
+    private static byte[] readBytes(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0) {
+            throw new IOException("Malformed length: " + length);
+        }
+
+        byte[] value = new byte[Math.min(length, READ_CHUNK_SIZE)];
+        int read = 0;
+        while (true) {
+            in.readFully(value, read, value.length - read);
+            read = value.length;
+            if (read == length) {
+                return value;
+            }
+            value = Arrays.copyOf(value, (int) Math.min(length, read * 2L));
+        }
+    }
+}
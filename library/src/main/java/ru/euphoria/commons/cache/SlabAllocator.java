@@ -0,0 +1,319 @@
+package ru.euphoria.commons.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Allocates chunks of direct memory for {@link OffHeapCache}.
+ *
+ * <p>The memory is divided into slabs of equal size, which are allocated
+ * by {@link ByteBuffer#allocateDirect} on demand, up to the memory limit.
+ * Each slab is assigned to a size class and is cut into chunks of this
+ * class. The sizes of classes grow by a factor of 1.25, so the wasted space
+ * at the end of a chunk is less than 20% of the value.
+ *
+ * <p>A chunk is addressed by the long value: the index of the slab in the
+ * high 32 bits and the offset in the slab in the low 32 bits. A slab without
+ * used chunks can be released, its memory is freed by the garbage collector,
+ * and its index is reused by the next slab. A slab with pinned chunks,
+ * which are read by the callers without a copy, is never released
+ * or reassigned, see {@link #pin}.
+ *
+ * <p>This class is not thread safe, the owner must synchronize the access.
+ *
+ * @since 1.2
+ */
+final class SlabAllocator {
+    /** The size of the smallest chunk, in bytes */
+    static final int MIN_CHUNK_SIZE = 64;
+    /** The growth factor of chunk sizes */
+    private static final float GROWTH_FACTOR = 1.25f;
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final int[] chunkSizes;
+
+    /** The slabs by index, null for the released ones */
+    private final ArrayList<ByteBuffer> slabs = new ArrayList<>();
+    /** The size class of each slab, -1 for the released ones */
+    private int[] slabClasses = new int[8];
+    /** The number of allocated chunks of each slab */
+    private int[] usedChunks = new int[8];
+    /** The number of pinned chunks of each slab */
+    private int[] pinnedChunks = new int[8];
+    private int liveSlabs;
+    private final LongStack[] freeChunks;
+    private final int[] slabCounts;
+
+    /**
+     * Creates a new allocator
+     *
+     * @param slabSize the size of one slab, in bytes, and the maximum size of a chunk
+     * @param maxBytes the maximum size of all slabs, in bytes
+     */
+    SlabAllocator(int slabSize, long maxBytes) {
+        if (slabSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("slabSize < " + MIN_CHUNK_SIZE);
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.max(1, Math.min(maxBytes / slabSize, Integer.MAX_VALUE));
+
+        ArrayList<Integer> sizes = new ArrayList<>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < slabSize) {
+            sizes.add(size);
+            // aligned to 8 bytes
+            size = Math.max(size + 8, ((int) (size * GROWTH_FACTOR) + 7) & ~7);
+        }
+        sizes.add(slabSize);
+
+        this.chunkSizes = new int[sizes.size()];
+        for (int i = 0; i < chunkSizes.length; i++) {
+            chunkSizes[i] = sizes.get(i);
+        }
+        this.freeChunks = new LongStack[chunkSizes.length];
+        for (int i = 0; i < freeChunks.length; i++) {
+            freeChunks[i] = new LongStack();
+        }
+        this.slabCounts = new int[chunkSizes.length];
+    }
+
+    /**
+     * Returns the size class for the value of the specified length,
+     * or -1 if the value is larger than a slab
+     */
+    int sizeClass(int length) {
+        if (length > slabSize) {
+            return -1;
+        }
+        // the number of classes is small, a binary search is not needed
+        for (int i = 0; i < chunkSizes.length; i++) {
+            if (chunkSizes[i] >= length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the size of chunks of the size class
+     */
+    int chunkSize(int sizeClass) {
+        return chunkSizes[sizeClass];
+    }
+
+    /**
+     * Returns the number of slabs, which are assigned to the size class
+     */
+    int slabCount(int sizeClass) {
+        return slabCounts[sizeClass];
+    }
+
+    /**
+     * Returns the number of allocated bytes of direct memory
+     */
+    long allocatedBytes() {
+        return (long) liveSlabs * slabSize;
+    }
+
+    /**
+     * Allocates a chunk of the size class. A new slab is allocated,
+     * if there is no free chunk and the memory limit is not reached.
+     *
+     * @return the address of the chunk, or -1 if the memory is exhausted
+     */
+    long allocate(int sizeClass) {
+        LongStack free = freeChunks[sizeClass];
+        if (free.isEmpty()) {
+            int slab = newSlab();
+            if (slab < 0) {
+                return -1;
+            }
+            assign(slab, sizeClass);
+        }
+        long chunk = free.pop();
+        usedChunks[slabOf(chunk)]++;
+        return chunk;
+    }
+
+    /**
+     * Returns the chunk to the free list of its size class
+     */
+    void free(long chunk, int sizeClass) {
+        usedChunks[slabOf(chunk)]--;
+        freeChunks[sizeClass].push(chunk);
+    }
+
+    /**
+     * Pins the chunk: its slab is not released or reassigned until
+     * the chunk is unpinned, so a view of the chunk stays valid
+     */
+    void pin(long chunk) {
+        pinnedChunks[slabOf(chunk)]++;
+    }
+
+    /**
+     * Unpins the chunk, which was pinned by {@link #pin}
+     */
+    void unpin(long chunk) {
+        pinnedChunks[slabOf(chunk)]--;
+    }
+
+    /**
+     * Takes the slab from its size class and assigns it to the other one.
+     * All chunks of the slab must be free, i.e. the owner must release
+     * the values stored in the slab before.
+     */
+    void reassign(int slab, int sizeClass) {
+        int previous = slabClasses[slab];
+        freeChunks[previous].removeSlab(slab);
+        slabCounts[previous]--;
+        assign(slab, sizeClass);
+    }
+
+    /**
+     * Releases the slab, so its direct memory can be collected.
+     * All chunks of the slab must be free, like for {@link #reassign}.
+     */
+    void release(int slab) {
+        int previous = slabClasses[slab];
+        freeChunks[previous].removeSlab(slab);
+        slabCounts[previous]--;
+        slabClasses[slab] = -1;
+        slabs.set(slab, null);
+        liveSlabs--;
+    }
+
+    /**
+     * Returns the size class of the slab
+     */
+    int classOf(int slab) {
+        return slabClasses[slab];
+    }
+
+    /**
+     * Returns the index of the slab without pinned chunks with the fewest
+     * allocated chunks, or -1 if there is no such slab
+     */
+    int emptiestSlab() {
+        int emptiest = -1;
+        for (int i = 0; i < slabs.size(); i++) {
+            if (slabs.get(i) != null && pinnedChunks[i] == 0
+                    && (emptiest < 0 || usedChunks[i] < usedChunks[emptiest])) {
+                emptiest = i;
+            }
+        }
+        return emptiest;
+    }
+
+    /**
+     * Returns the index of the last slab of the size class
+     * without pinned chunks, or -1
+     */
+    int lastSlab(int sizeClass) {
+        for (int i = slabs.size() - 1; i >= 0; i--) {
+            if (slabClasses[i] == sizeClass && pinnedChunks[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a view of the chunk, the position is 0 and
+     * the limit is the specified length
+     */
+    ByteBuffer view(long chunk, int length) {
+        ByteBuffer buffer = slabs.get(slabOf(chunk)).duplicate();
+        int offset = (int) chunk;
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    /**
+     * Returns the index of the slab of the chunk
+     */
+    static int slabOf(long chunk) {
+        return (int) (chunk >>> 32);
+    }
+
+    private int newSlab() {
+        if (liveSlabs >= maxSlabs) {
+            return -1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(slabSize);
+        liveSlabs++;
+        // the index of a released slab is reused
+        int index = slabs.indexOf(null);
+        if (index >= 0) {
+            slabs.set(index, buffer);
+            return index;
+        }
+
+        slabs.add(buffer);
+        if (slabs.size() > slabClasses.length) {
+            int[] classes = new int[slabClasses.length * 2];
+            System.arraycopy(slabClasses, 0, classes, 0, slabClasses.length);
+            slabClasses = classes;
+
+            int[] used = new int[usedChunks.length * 2];
+            System.arraycopy(usedChunks, 0, used, 0, usedChunks.length);
+            usedChunks = used;
+
+            int[] pinned = new int[pinnedChunks.length * 2];
+            System.arraycopy(pinnedChunks, 0, pinned, 0, pinnedChunks.length);
+            pinnedChunks = pinned;
+        }
+        return slabs.size() - 1;
+    }
+
+    private void assign(int slab, int sizeClass) {
+        slabClasses[slab] = sizeClass;
+        slabCounts[sizeClass]++;
+
+        int chunkSize = chunkSizes[sizeClass];
+        LongStack free = freeChunks[sizeClass];
+        // pushed in the reverse order, so the chunks are used from the start
+        for (int offset = (slabSize / chunkSize - 1) * chunkSize; offset >= 0; offset -= chunkSize) {
+            free.push(((long) slab << 32) | offset);
+        }
+    }
+
+    /**
+     * The growable stack of primitive longs
+     */
+    private static final class LongStack {
+        private long[] values = new long[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == values.length) {
+                long[] array = new long[size * 2];
+                System.arraycopy(values, 0, array, 0, size);
+                values = array;
+            }
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+
+        /** Removes all chunks of the slab */
+        void removeSlab(int slab) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (slabOf(values[i]) != slab) {
+                    values[count++] = values[i];
+                }
+            }
+            size = count;
+        }
+    }
+}
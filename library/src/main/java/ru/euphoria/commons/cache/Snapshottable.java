@@ -0,0 +1,29 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * A cache, which can copy its most recently used entries and put them back,
+ * e.g. to save them on exit and warm up the cache on the next start,
+ * see {@link CacheSnapshot}
+ *
+ * @since 1.2
+ */
+public interface Snapshottable<K, V> {
+
+    /**
+     * Returns up to {@code limit} most recently used entries of the cache,
+     * from the least recently used of them to the most recently used one
+     *
+     * @param limit the maximum number of entries
+     */
+    CacheSnapshot<K, V> hottest(int limit);
+
+    /**
+     * Puts the entries of the snapshot, which fit into the free space of
+     * the cache, preferring the most recently used ones. Never replaces
+     * the entries, which are already in the cache, and never evicts.
+     *
+     * @param snapshot the entries to put
+     * @return the number of restored entries
+     */
+    int restore(CacheSnapshot<? extends K, ? extends V> snapshot);
+}
@@ -0,0 +1,96 @@
+package ru.euphoria.commons.cache;
+
+import ru.euphoria.commons.concurrent.Histogram;
+import ru.euphoria.commons.concurrent.StripedCounter;
+
+/**
+ * Accumulates the statistics of a cache on {@link StripedCounter}s,
+ * so the readers of {@link #snapshot()} never take the lock of the cache.
+ *
+ * @since 1.2
+ */
+final class StatsCounter {
+    private final StripedCounter hitCount = new StripedCounter();
+    private final StripedCounter missCount = new StripedCounter();
+    private final StripedCounter putCount = new StripedCounter();
+    private final StripedCounter loadSuccessCount = new StripedCounter();
+    private final StripedCounter loadFailureCount = new StripedCounter();
+    private final StripedCounter evictionCount = new StripedCounter();
+    private final StripedCounter evictionWeight = new StripedCounter();
+    private final Histogram loadTimes = new Histogram();
+    private final Histogram evictionWeights = new Histogram();
+
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    void recordPuts(int count) {
+        putCount.add(count);
+    }
+
+    /**
+     * Records the successful load or creation of a value
+     *
+     * @param loadTime the time of the load, in nanoseconds
+     */
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        loadTimes.record(loadTime);
+    }
+
+    /**
+     * Records the load, which threw an exception
+     *
+     * @param loadTime the time of the load, in nanoseconds
+     */
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        loadTimes.record(loadTime);
+    }
+
+    /**
+     * Records the eviction of a value
+     *
+     * @param weight the size of the evicted value
+     */
+    void recordEviction(long weight) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+        evictionWeights.record(weight);
+    }
+
+    long hitCount() {
+        return hitCount.sum();
+    }
+
+    long missCount() {
+        return missCount.sum();
+    }
+
+    long putCount() {
+        return putCount.sum();
+    }
+
+    long loadSuccessCount() {
+        return loadSuccessCount.sum();
+    }
+
+    long loadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    long evictionCount() {
+        return evictionCount.sum();
+    }
+
+    CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), putCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(),
+                evictionCount.sum(), evictionWeight.sum(),
+                loadTimes.snapshot(), evictionWeights.snapshot());
+    }
+}
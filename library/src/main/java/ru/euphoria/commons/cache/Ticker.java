@@ -0,0 +1,26 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * A time source, which returns a time value in nanoseconds
+ * relative to some fixed but arbitrary point in time.
+ * Caches read the time from a ticker, so that tests can replace
+ * the system clock with a manually advanced one.
+ *
+ * @since 1.2
+ */
+public interface Ticker {
+    /**
+     * The ticker that reads {@link System#nanoTime()}
+     */
+    Ticker SYSTEM = new Ticker() {
+        @Override
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * Returns the number of nanoseconds elapsed since this ticker's fixed point of reference
+     */
+    long read();
+}
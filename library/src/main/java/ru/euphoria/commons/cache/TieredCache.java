@@ -0,0 +1,490 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ru.euphoria.commons.concurrent.StripedCounter;
+import ru.euphoria.commons.concurrent.ThreadExecutor;
+
+/**
+ * A two-level cache: a fast memory tier in front of a large slow tier,
+ * e.g. {@link DiskLruCache}.
+ *
+ * <p>The values are put into the memory tier. When the memory tier evicts
+ * an entry, it is demoted to the disk tier in background, so the eviction
+ * does not block the caller on I/O. A value found in the disk tier
+ * is promoted back into the memory tier. If the value is missing in both
+ * tiers, it is loaded by the {@link CacheLoader}, if any; the concurrent
+ * misses on the same key share one load, see {@link LoadingCache}.
+ *
+ * <p>The hit rates of each tier are counted separately,
+ * so the size of each tier can be chosen from the real traffic.
+ *
+ * <pre>
+ *     DiskLruCache disk = DiskLruCache.open(dir, 1, 50 * FileStreams.ONE_MB);
+ *     TieredCache&lt;String, byte[]&gt; images = new TieredCache&lt;String, byte[]&gt;(
+ *             4 * FileStreams.ONE_MB, disk, loader) {
+ *         &#064;Override
+ *         protected long sizeOf(String key, byte[] value) {
+ *             return value.length;
+ *         }
+ *     };
+ * </pre>
+ *
+ * @since 1.2
+ */
+public class TieredCache<K, V> implements Cache<K, V> {
+    /** The number of locks, which serialize the disk writes of the same key */
+    private static final int LOCK_STRIPES = 16;
+
+    /** Writes the demoted values of all tiered caches, one at a time */
+    private static final Executor DEMOTE_EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadExecutor.PriorityThreadFactory());
+
+    private final MemoryTier memory;
+    private final Cache<K, V> disk;
+    private final Executor executor;
+    private final LoadingCache<K, V> loading;
+
+    /** The values, which are evicted from memory, but not written to disk yet */
+    private final ConcurrentHashMap<K, V> demoting = new ConcurrentHashMap<>();
+    /** Incremented by {@link #clear()} to drop the scheduled demotions */
+    private final AtomicInteger generation = new AtomicInteger();
+    /** The generation, which {@link #clear()} is evicting from memory, or -1 */
+    private volatile int clearingGeneration = -1;
+    /** Held by a demotion from the check to the disk write, by {@link #remove} and, all of them, by {@link #clear} */
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private final StripedCounter memoryHitCount = new StripedCounter();
+    private final StripedCounter diskHitCount = new StripedCounter();
+    private final StripedCounter missCount = new StripedCounter();
+    private final StripedCounter demotionCount = new StripedCounter();
+
+    /**
+     * Creates a new {@link TieredCache} without a loader
+     *
+     * @param memorySize the maximum size of the memory tier, see {@link #sizeOf}
+     * @param disk       the second tier
+     */
+    public TieredCache(long memorySize, Cache<K, V> disk) {
+        this(memorySize, disk, null, DEMOTE_EXECUTOR);
+    }
+
+    /**
+     * Creates a new {@link TieredCache}
+     *
+     * @param memorySize the maximum size of the memory tier, see {@link #sizeOf}
+     * @param disk       the second tier
+     * @param loader     the loader of values, which are missing in both tiers
+     */
+    public TieredCache(long memorySize, Cache<K, V> disk, CacheLoader<? super K, V> loader) {
+        this(memorySize, disk, loader, DEMOTE_EXECUTOR);
+    }
+
+    /**
+     * Creates a new {@link TieredCache}
+     *
+     * @param memorySize the maximum size of the memory tier, see {@link #sizeOf}
+     * @param disk       the second tier
+     * @param loader     the loader of values, which are missing in both tiers, may be null
+     * @param executor   the executor to write demoted values to disk.
+     *                   A single thread executor keeps the order of writes
+     */
+    public TieredCache(long memorySize, Cache<K, V> disk, CacheLoader<? super K, V> loader, Executor executor) {
+        if (disk == null || executor == null) {
+            throw new NullPointerException("disk == null || executor == null");
+        }
+        this.memory = new MemoryTier(memorySize);
+        this.disk = disk;
+        this.executor = executor;
+        this.loading = loader == null ? null : new LoadingCache<>(new Tiers(), loader);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the value for {@code key} from the memory tier, or from the
+     * disk tier, or loads it, if this cache has a loader. Returns null,
+     * if the value is missing or the loader fails.
+     */
+    @Override
+    public V get(K key) {
+        V value = getPresent(key);
+        if (value != null || loading == null) {
+            return value;
+        }
+        return loading.get(key);
+    }
+
+    /**
+     * Returns the value for {@code key}, like {@link #get}, but
+     * throws the failure of the loader.
+     *
+     * @throws ExecutionException if the loader threw an exception
+     */
+    public V getChecked(K key) throws ExecutionException {
+        V value = getPresent(key);
+        if (value != null || loading == null) {
+            return value;
+        }
+        return loading.getChecked(key);
+    }
+
+    /**
+     * Returns the values of {@code keys}, which are present in any tier.
+     * The loader is not called, the values found on disk are promoted
+     * to memory by one {@link Cache#putAll}.
+     */
+    @Override
+    public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        return getAllPresent(keys, true);
+    }
+
+    /**
+     * Caches {@code value} for {@code key} in the memory tier.
+     * It reaches the disk tier, when it is evicted from memory.
+     */
+    @Override
+    public boolean put(K key, V value) {
+        boolean added = memory.put(key, value);
+        // the previous value must not overwrite this one on disk
+        demoting.remove(key);
+        return added;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        memory.putAll(map);
+        for (K key : map.keySet()) {
+            demoting.remove(key);
+        }
+    }
+
+    /**
+     * Removes the value for {@code key} from both tiers
+     */
+    @Override
+    public boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        // waits for the running demotion of this key, so it can't write the value back
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            boolean removed = memory.remove(key);
+            removed |= demoting.remove(key) != null;
+            removed |= disk.remove(key);
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the memory tier
+     */
+    @Override
+    public int size() {
+        return memory.size();
+    }
+
+    /**
+     * Removes all values from both tiers. Nothing is demoted.
+     */
+    @Override
+    public synchronized void clear() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            // the evictions of other threads wait for the locks and
+            // are demoted in the next generation
+            clearingGeneration = generation.get();
+            memory.evictAll();
+            generation.incrementAndGet();
+            demoting.clear();
+            disk.clear();
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value}
+     * in the memory tier, in user-defined units. The default implementation
+     * returns 1, so the size is the number of entries.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected long sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Returns the maximum size of the memory tier
+     */
+    public final long memorySize() {
+        return memory.maxSize();
+    }
+
+    /**
+     * Sets the maximum size of the memory tier.
+     * The evicted entries are demoted to disk.
+     */
+    public void resizeMemory(long maxSize) {
+        memory.resize(maxSize);
+    }
+
+    /**
+     * Returns the number of times a value was found in the memory tier.
+     */
+    public final long memoryHitCount() {
+        return memoryHitCount.sum();
+    }
+
+    /**
+     * Returns the number of times a value was found in the disk tier.
+     */
+    public final long diskHitCount() {
+        return diskHitCount.sum();
+    }
+
+    /**
+     * Returns the number of times a value was missing in both tiers.
+     */
+    public final long missCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the number of values, which were written to disk on eviction from memory.
+     */
+    public final long demotionCount() {
+        return demotionCount.sum();
+    }
+
+    /**
+     * Returns the ratio of requests, which are served by the memory tier.
+     */
+    public final double memoryHitRate() {
+        long memoryHits = memoryHitCount.sum();
+        long requests = memoryHits + diskHitCount.sum() + missCount.sum();
+        return requests == 0 ? 1.0 : (double) memoryHits / requests;
+    }
+
+    /**
+     * Returns the ratio of requests reaching the disk tier, which are served by it.
+     */
+    public final double diskHitRate() {
+        long diskHits = diskHitCount.sum();
+        long requests = diskHits + missCount.sum();
+        return requests == 0 ? 1.0 : (double) diskHits / requests;
+    }
+
+    @Override public final String toString() {
+        return String.format("TieredCache[memorySize=%d,memoryHitRate=%d%%,diskHitRate=%d%%,misses=%d,demotions=%d]",
+                memory.maxSize(), (int) (memoryHitRate() * 100), (int) (diskHitRate() * 100),
+                missCount.sum(), demotionCount.sum());
+    }
+
+    /**
+     * Looks up the values in the memory tier, the pending demotions and the disk tier,
+     * like {@link #getPresent}. The values found on disk are promoted to memory.
+     *
+     * @param record true to count the hits and misses
+     */
+    private Map<K, V> getAllPresent(Iterable<? extends K> keys, boolean record) {
+        Map<K, V> present = memory.getAllPresent(keys);
+        if (record) {
+            memoryHitCount.add(present.size());
+        }
+
+        ArrayList<K> missing = new ArrayList<>();
+        for (K key : keys) {
+            if (!present.containsKey(key)) {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return present;
+        }
+
+        LinkedHashMap<K, V> promoted = new LinkedHashMap<>();
+        ArrayList<K> onDisk = new ArrayList<>();
+        for (K key : missing) {
+            V value = demoting.get(key);
+            if (value != null) {
+                promoted.put(key, value);
+            } else {
+                onDisk.add(key);
+            }
+        }
+        if (!onDisk.isEmpty()) {
+            promoted.putAll(disk.getAllPresent(onDisk));
+        }
+        if (record) {
+            diskHitCount.add(promoted.size());
+            missCount.add(missing.size() - promoted.size());
+        }
+        memory.putAll(promoted);
+
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = present.get(key);
+            if (value == null) {
+                value = promoted.get(key);
+            }
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the value in the memory tier, the pending demotions and the disk tier,
+     * and counts the hit or miss. The value found on disk is promoted to memory.
+     */
+    private V getPresent(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V value = memory.get(key);
+        if (value != null) {
+            memoryHitCount.increment();
+            return value;
+        }
+
+        value = demoting.get(key);
+        if (value == null) {
+            value = disk.get(key);
+        }
+        if (value == null) {
+            missCount.increment();
+            return null;
+        }
+
+        diskHitCount.increment();
+        memory.put(key, value);
+        return value;
+    }
+
+    private void demote(final K key, final V value) {
+        final int scheduled;
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            scheduled = generation.get();
+            if (scheduled == clearingGeneration) {
+                // evicted by clear(), which drops this generation
+                return;
+            }
+            demoting.put(key, value);
+        } finally {
+            lock.unlock();
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lock.lock();
+                try {
+                    if (generation.get() == scheduled && demoting.get(key) == value) {
+                        disk.put(key, value);
+                        demotionCount.increment();
+                    }
+                    demoting.remove(key, value);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    private ReentrantLock lockFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return locks[hash & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * The memory tier, which demotes the evicted entries
+     */
+    private final class MemoryTier extends LruCache<K, V> {
+        MemoryTier(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected long sizeOf(K key, V value) {
+            return TieredCache.this.sizeOf(key, value);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+            if (evicted) {
+                demote(key, oldValue);
+            }
+        }
+    }
+
+    /**
+     * Both tiers as one cache for {@link LoadingCache}. The lookups
+     * are not counted, the loaded values are put into memory.
+     */
+    private final class Tiers implements Cache<K, V> {
+        /**
+         * Looks up the memory tier and the pending demotions only:
+         * the caller has just missed the disk in {@link TieredCache#getPresent},
+         * and only a load or a demotion could add the value since then.
+         */
+        @Override
+        public V get(K key) {
+            V value = memory.get(key);
+            return value != null ? value : demoting.get(key);
+        }
+
+        @Override
+        public boolean put(K key, V value) {
+            return memory.put(key, value);
+        }
+
+        @Override
+        public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+            return TieredCache.this.getAllPresent(keys, false);
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> map) {
+            memory.putAll(map);
+        }
+
+        @Override
+        public boolean remove(K key) {
+            return TieredCache.this.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return memory.size();
+        }
+
+        @Override
+        public void clear() {
+            TieredCache.this.clear();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Ben Manes. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Modified by Euphoria Dev Community: ported to Java 7 and to the
+ * entries of ExpiringLruCache.
+ */
+package ru.euphoria.commons.cache;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel, which schedules the expiration of
+ * cache entries in O(1) time. Each level of the wheel is an array of buckets,
+ * a bucket is a doubly-linked list of entries, which expire within
+ * its span of time. When the time advances, the passed buckets are emptied:
+ * the expired entries are returned, and the others are moved down
+ * to the more precise levels.
+ *
+ * <p>This class is not thread safe, the owner must synchronize the access.
+ *
+ * @since 1.2
+ */
+final class TimerWheel<K, V> {
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+            ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)), // 1.07s
+            ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)), // 1.14m
+            ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),   // 1.22h
+            ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),    // 1.63d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+    };
+    private static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final Node<K, V>[][] wheel;
+    private long nanos;
+
+    /**
+     * @param nanos the current time of the ticker, which may be negative
+     */
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+        // generic arrays can't be created, the arrays hold only the sentinels of this wheel
+        @SuppressWarnings("unchecked")
+        Node<K, V>[][] wheel = (Node<K, V>[][]) new Node<?, ?>[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            @SuppressWarnings("unchecked")
+            Node<K, V>[] buckets = (Node<K, V>[]) new Node<?, ?>[BUCKETS[i]];
+            for (int j = 0; j < buckets.length; j++) {
+                buckets[j] = new Node<>(null);
+            }
+            wheel[i] = buckets;
+        }
+        this.wheel = wheel;
+    }
+
+    /**
+     * Advances the time and collects the entries, which have expired.
+     *
+     * @param currentTimeNanos the current time, in nanoseconds
+     * @param expired          the list to add the expired entries,
+     *                         which are already removed from the wheel
+     */
+    void advance(long currentTimeNanos, List<Node<K, V>> expired) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+
+        // If wrapping then temporarily shift the clock for a positive comparison. We assume that the
+        // advancements never exceed a total running time of Long.MAX_VALUE nanoseconds (292 years)
+        // so that an overflow only occurs due to using an arbitrary origin time (System.nanoTime()).
+        if ((previousTimeNanos < 0) && (currentTimeNanos > 0)) {
+            previousTimeNanos += Long.MAX_VALUE;
+            currentTimeNanos += Long.MAX_VALUE;
+        }
+
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = (previousTimeNanos >>> SHIFT[i]);
+            long currentTicks = (currentTimeNanos >>> SHIFT[i]);
+            if ((currentTicks - previousTicks) <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks, expired);
+        }
+    }
+
+    /**
+     * Empties the buckets of the level, which the time has passed
+     */
+    private void expire(int index, long previousTicks, long currentTicks, List<Node<K, V>> expired) {
+        Node<K, V>[] timerWheel = wheel[index];
+        int mask = timerWheel.length - 1;
+
+        // the current bucket is also processed, because it may contain
+        // the entries scheduled a whole rotation ago
+        int steps = (int) Math.min(1 + currentTicks - previousTicks, timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+
+        for (int i = start; i < end; i++) {
+            Node<K, V> sentinel = timerWheel[i & mask];
+            Node<K, V> node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+
+            while (node != sentinel) {
+                Node<K, V> next = node.next;
+                node.prev = null;
+                node.next = null;
+
+                if ((node.time - nanos) > 0) {
+                    schedule(node);
+                } else {
+                    expired.add(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * Schedules the entry to expire at its {@link Node#time}.
+     * The times may wrap around, they are compared by their difference.
+     *
+     * @param node the entry, which is not in the wheel
+     */
+    void schedule(Node<K, V> node) {
+        Node<K, V> sentinel = findBucket(node.time);
+        node.next = sentinel;
+        node.prev = sentinel.prev;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    /**
+     * Moves the entry to the bucket of its new expiration time
+     */
+    void reschedule(Node<K, V> node) {
+        if (node.next != null) {
+            unlink(node);
+        }
+        schedule(node);
+    }
+
+    /**
+     * Removes the entry from the wheel, if it is scheduled
+     */
+    void deschedule(Node<K, V> node) {
+        if (node.next != null) {
+            unlink(node);
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.next = null;
+        node.prev = null;
+    }
+
+    private Node<K, V> findBucket(long time) {
+        long duration = Math.max(0L, time - nanos);
+        if (duration == 0L) {
+            time = nanos;
+        }
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = (time >>> SHIFT[i]);
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private static long ceilingPowerOfTwo(long x) {
+        return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * The entry, which can be scheduled in the wheel.
+     * The sentinels of the buckets are linked to themselves.
+     */
+    static class Node<K, V> {
+        final K key;
+        /** The time of the expiration, in nanoseconds */
+        long time;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key) {
+            this.key = key;
+            if (key == null) {
+                prev = this;
+                next = this;
+            }
+        }
+    }
+}
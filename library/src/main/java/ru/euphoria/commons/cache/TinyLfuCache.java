@@ -0,0 +1,672 @@
+package ru.euphoria.commons.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache that holds strong references to a limited number of values,
+ * which uses the W-TinyLFU policy to decide which entries to keep.
+ *
+ * <p>New entries are added to a small LRU window (1% of the capacity).
+ * The entries, which leave the window, compete for a place
+ * in the main space with the victim of the main space. The entry,
+ * which was requested more often in the recent past, survives. The frequency
+ * is estimated by a compact count-min sketch, which also remembers the keys
+ * that are no longer in the cache, and ages over time.
+ *
+ * <p>The main space is a segmented LRU: entries, which are requested
+ * at least twice, are moved from the probation to the protected segment
+ * (80% of the main space). So a one-off scan through the cache evicts
+ * only the window and the probation entries, but not the hot ones.
+ *
+ * <p>The {@link #sizeOf}, {@link #entryRemoved} and {@link #create}
+ * hooks have the same semantics as in {@link LruCache}.
+ *
+ * @since 1.2
+ */
+public class TinyLfuCache<K, V> implements Cache<K, V>, Trimmable {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /** The percent of the capacity, which is given to the window */
+    private static final float WINDOW_PERCENT = 0.01f;
+    /** The percent of the main space, which is given to the protected segment */
+    private static final float PROTECTED_PERCENT = 0.80f;
+
+    private final HashMap<K, Node<K, V>> map;
+    private final FrequencySketch<K> sketch;
+
+    private final Node<K, V>[] heads;
+    private final long[] sizes = new long[3];
+    private final long[] maxSizes = new long[3];
+
+    /** Size of this cache in units. Not necessarily the number of elements. */
+    private long size;
+    private long maxSize;
+
+    private final Weigher<? super K, ? super V> weigher;
+    private final StatsCounter stats = new StatsCounter();
+    private volatile RemovalListener<K, V> removalListener;
+    private final TrimmerRegistration trimmer = new TrimmerRegistration(this);
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public TinyLfuCache(long maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Creates a cache, which is bounded by the total weight of entries,
+     * e.g. by the size of values in bytes, see {@link Weighers}
+     *
+     * @param maxSize the maximum sum of weights of the entries in this cache
+     * @param weigher the weigher of entries, or null to use {@link #sizeOf}
+     */
+    public TinyLfuCache(long maxSize, Weigher<? super K, ? super V> weigher) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.weigher = weigher;
+        this.map = new HashMap<>();
+        // generic arrays can't be created, the array holds only the sentinels of this cache
+        @SuppressWarnings("unchecked")
+        Node<K, V>[] heads = (Node<K, V>[]) new Node<?, ?>[3];
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = new Node<>(null, null, 0, i);
+        }
+        this.heads = heads;
+        this.sketch = new FrequencySketch<>(Math.min(maxSize, 64));
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            setMaxSize(maxSize);
+            evicted = evictEntries();
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, its frequency is
+     * incremented and it is moved to the head of its queue.
+     * This returns null if a value is not cached and cannot be created.
+     */
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        synchronized (this) {
+            sketch.increment(key);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                onAccess(node);
+                stats.recordHits(1);
+                return node.value;
+            }
+            stats.recordMisses(1);
+        }
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        long start = System.nanoTime();
+        V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+        trimmer.onInsert();
+        stats.recordLoadSuccess(System.nanoTime() - start);
+
+        V mapValue = null;
+        ArrayList<Node<K, V>> evicted = null;
+        synchronized (this) {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                mapValue = node.value;
+            } else {
+                add(key, createdValue);
+                evicted = evictEntries();
+            }
+        }
+
+        if (mapValue != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, createdValue, mapValue);
+            return mapValue;
+        } else {
+            notifyEvicted(evicted);
+            return createdValue;
+        }
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. A new value is added to the window,
+     * a replaced value keeps the place of the previous one.
+     */
+    @Override
+    public final boolean put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        trimmer.onInsert();
+
+        V previous;
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            previous = putInternal(key, value);
+            evicted = evictEntries();
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.REPLACED, key, previous, value);
+        }
+        notifyEvicted(evicted);
+        return true;
+    }
+
+    /**
+     * Returns the values of {@code keys}, which exist in the cache. The found
+     * values are moved to the head of their queues. Unlike {@link #get}, the
+     * missing values are not created. The lock is taken once for all keys.
+     */
+    @Override
+    public final Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        LinkedHashMap<K, V> result = new LinkedHashMap<>();
+        synchronized (this) {
+            for (K key : keys) {
+                if (key == null) {
+                    throw new NullPointerException("key == null");
+                }
+
+                sketch.increment(key);
+                Node<K, V> node = map.get(key);
+                if (node != null) {
+                    onAccess(node);
+                    stats.recordHits(1);
+                    result.put(key, node.value);
+                } else {
+                    stats.recordMisses(1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches all {@code entries}, like {@link #put}, but takes
+     * the lock once for all entries and evicts once at the end.
+     */
+    @Override
+    public final void putAll(Map<? extends K, ? extends V> entries) {
+        trimmer.onInsert();
+
+        LinkedHashMap<K, V> replaced = null;
+        ArrayList<Node<K, V>> evicted;
+        synchronized (this) {
+            for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+                K key = entry.getKey();
+                V value = entry.getValue();
+                if (key == null || value == null) {
+                    throw new NullPointerException("key == null || value == null");
+                }
+
+                V previous = putInternal(key, value);
+                if (previous != null) {
+                    if (replaced == null) {
+                        replaced = new LinkedHashMap<>();
+                    }
+                    replaced.put(key, previous);
+                }
+            }
+            evicted = evictEntries();
+        }
+
+        if (replaced != null) {
+            for (Map.Entry<K, V> entry : replaced.entrySet()) {
+                notifyRemoved(RemovalCause.REPLACED, entry.getKey(), entry.getValue(), entries.get(entry.getKey()));
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     */
+    @Override
+    public final boolean remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Node<K, V> previous;
+        synchronized (this) {
+            previous = map.remove(key);
+            if (previous != null) {
+                unlink(previous);
+                size -= previous.weight;
+            }
+        }
+
+        if (previous != null) {
+            notifyRemoved(RemovalCause.EXPLICIT, key, previous.value, null);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the coldest entries until the total of remaining entries is at or
+     * below the requested size. The probation entries are removed first,
+     * then the protected entries and the window.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(long maxSize) {
+        ArrayList<Node<K, V>> evicted = new ArrayList<>();
+        synchronized (this) {
+            checkSize();
+            while (size > maxSize && !map.isEmpty()) {
+                Node<K, V> victim = heads[PROBATION].next;
+                if (victim == heads[PROBATION]) {
+                    victim = heads[PROTECTED].next;
+                }
+                if (victim == heads[PROTECTED]) {
+                    victim = heads[WINDOW].next;
+                }
+                evict(victim, evicted);
+            }
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed,
+     * see {@link LruCache#entryRemoved}. The default implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Sets the listener, which is notified after {@link #entryRemoved}
+     * for each removed entry, or null to remove the listener.
+     * See {@link AsyncRemovalListener} to deliver notifications in background.
+     */
+    public final void setRemovalListener(RemovalListener<K, V> listener) {
+        this.removalListener = listener;
+    }
+
+    private void notifyRemoved(RemovalCause cause, K key, V oldValue, V newValue) {
+        entryRemoved(cause.wasEvicted(), key, oldValue, newValue);
+        RemovalListener<K, V> listener = removalListener;
+        if (listener != null) {
+            listener.onRemoval(new RemovalNotification<K, V>(key, oldValue, cause));
+        }
+    }
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key,
+     * see {@link LruCache#create}. The default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units, see {@link LruCache#sizeOf}. The default
+     * implementation returns the weight of the {@link Weigher}, if set, or 1.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected long sizeOf(K key, V value) {
+        return weigher != null ? weigher.weigh(key, value) : 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    @Override
+    public void clear() {
+        evictAll();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    @Override
+    public synchronized final int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the sum of the sizes of the entries in this cache, like
+     * {@link #size()}, but without the limit of {@link Integer#MAX_VALUE}.
+     */
+    public synchronized final long weightedSize() {
+        return size;
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public synchronized final long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final long hitCount() {
+        return stats.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final long missCount() {
+        return stats.missCount();
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final long createCount() {
+        return stats.loadSuccessCount();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final long putCount() {
+        return stats.putCount();
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final long evictionCount() {
+        return stats.evictionCount();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. The counters
+     * are read without the lock, so this never blocks the cache.
+     */
+    public final CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from
+     * the coldest to the hottest entries: probation, window and then protected,
+     * each from least recently accessed to most recently accessed.
+     */
+    public synchronized final Map<K, V> snapshot() {
+        LinkedHashMap<K, V> snapshot = new LinkedHashMap<>(map.size());
+        for (int queue : new int[] {PROBATION, WINDOW, PROTECTED}) {
+            Node<K, V> head = heads[queue];
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                snapshot.put(node.key, node.value);
+            }
+        }
+        return snapshot;
+    }
+
+    @Override public synchronized final String toString() {
+        long hitCount = stats.hitCount();
+        long missCount = stats.missCount();
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("TinyLfuCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+
+    private void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        long window = Math.max(1, (long) (maxSize * WINDOW_PERCENT));
+        long main = Math.max(0, maxSize - window);
+        maxSizes[WINDOW] = window;
+        maxSizes[PROTECTED] = (long) (main * PROTECTED_PERCENT);
+        maxSizes[PROBATION] = main - maxSizes[PROTECTED];
+    }
+
+    /**
+     * Adds or replaces the entry. Must be called under the lock
+     *
+     * @return the replaced value, or null
+     */
+    private V putInternal(K key, V value) {
+        stats.recordPuts(1);
+        sketch.increment(key);
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            add(key, value);
+            return null;
+        }
+
+        V previous = node.value;
+        long weight = safeSizeOf(key, value);
+        size += weight - node.weight;
+        sizes[node.queue] += weight - node.weight;
+        node.value = value;
+        node.weight = weight;
+        onAccess(node);
+        return previous;
+    }
+
+    /** Adds a new entry to the window. Must be called under the lock */
+    private void add(K key, V value) {
+        long weight = safeSizeOf(key, value);
+        Node<K, V> node = new Node<>(key, value, weight, WINDOW);
+        map.put(key, node);
+        size += weight;
+        link(node, WINDOW);
+
+        // the sketch is sized by the number of entries, which is unknown
+        // for the weighted caches, so it grows with the cache
+        if (map.size() > sketch.capacity()) {
+            sketch.ensureCapacity(map.size() * 2L);
+        }
+    }
+
+    /** Moves the accessed entry to the head of its queue. Must be called under the lock */
+    private void onAccess(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+            case PROTECTED:
+                int queue = node.queue;
+                unlink(node);
+                link(node, queue);
+                break;
+
+            case PROBATION:
+                // the second access, the entry becomes protected and
+                // the eldest protected entries go back to the probation
+                unlink(node);
+                link(node, PROTECTED);
+                while (sizes[PROTECTED] > maxSizes[PROTECTED]) {
+                    Node<K, V> demoted = heads[PROTECTED].next;
+                    if (demoted == node) {
+                        break;
+                    }
+                    unlink(demoted);
+                    link(demoted, PROBATION);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves the overflow of the window into the probation, and then
+     * evicts the losers of admission until the cache fits into its size.
+     * Must be called under the lock.
+     *
+     * @return the evicted entries, to notify outside the lock
+     */
+    private ArrayList<Node<K, V>> evictEntries() {
+        checkSize();
+
+        int candidates = 0;
+        while (sizes[WINDOW] > maxSizes[WINDOW]) {
+            Node<K, V> node = heads[WINDOW].next;
+            unlink(node);
+            link(node, PROBATION);
+            candidates++;
+        }
+
+        // the candidates are the latest entries of the probation,
+        // they are judged from the latest one
+        Node<K, V> candidate = candidates > 0 ? heads[PROBATION].prev : null;
+        ArrayList<Node<K, V>> evicted = null;
+        while (size > maxSize && !map.isEmpty()) {
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+
+            Node<K, V> victim = heads[PROBATION].next;
+            if (victim == heads[PROBATION]) {
+                victim = heads[PROTECTED].next;
+            }
+            if (victim == heads[PROTECTED]) {
+                // the main space is empty
+                evict(heads[WINDOW].next, evicted);
+                continue;
+            }
+
+            if (candidate == null || candidate == victim) {
+                evict(victim, evicted);
+                candidate = null;
+                continue;
+            }
+
+            // the winner stays in the probation, the next candidate is
+            // the one, which left the window before the current one
+            Node<K, V> next = --candidates > 0 ? candidate.prev : null;
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim, evicted);
+                if (next == victim) {
+                    // the victim was the eldest candidate
+                    next = null;
+                }
+            } else {
+                evict(candidate, evicted);
+            }
+            candidate = next;
+        }
+        return evicted;
+    }
+
+    private void evict(Node<K, V> node, ArrayList<Node<K, V>> evicted) {
+        map.remove(node.key);
+        unlink(node);
+        size -= node.weight;
+        stats.recordEviction(node.weight);
+        evicted.add(node);
+    }
+
+    private void notifyEvicted(ArrayList<Node<K, V>> evicted) {
+        if (evicted != null) {
+            for (int i = 0; i < evicted.size(); i++) {
+                Node<K, V> node = evicted.get(i);
+                notifyRemoved(RemovalCause.SIZE, node.key, node.value, null);
+            }
+        }
+    }
+
+    private void link(Node<K, V> node, int queue) {
+        Node<K, V> head = heads[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        sizes[queue] += node.weight;
+    }
+
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        sizes[node.queue] -= node.weight;
+    }
+
+    private void checkSize() {
+        if (size < 0 || (map.isEmpty() && size != 0)) {
+            throw new IllegalStateException(getClass().getName()
+                    + ".sizeOf() is reporting inconsistent results!");
+        }
+    }
+
+    private long safeSizeOf(K key, V value) {
+        long result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * The entry of the cache, which is linked in one of the queues.
+     * The heads of the queues are sentinel nodes.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        long weight;
+        int queue;
+
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, int queue) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.queue = queue;
+            // the sentinel is linked to itself
+            this.prev = this;
+            this.next = this;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * The level of memory pressure, at which {@link MemoryTrimmer}
+ * shrinks the registered caches
+ *
+ * @since 1.2
+ */
+public enum TrimLevel {
+    /** The memory is getting low, the caches release a part of entries */
+    MODERATE,
+    /** The memory is low, the process will be killed soon, if not released */
+    CRITICAL,
+    /** The process is the next to be killed, the caches release everything they can */
+    COMPLETE
+}
@@ -0,0 +1,25 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * A cache, which can release its entries on request, e.g. when
+ * the system is low on memory, see {@link MemoryTrimmer}
+ *
+ * @since 1.2
+ */
+public interface Trimmable {
+
+    /**
+     * Returns the budget of the cache: the maximum number of entries,
+     * or the maximum sum of the sizes of entries
+     */
+    long maxSize();
+
+    /**
+     * Removes the eldest or the least valuable entries until the total
+     * of the remaining entries is at or below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized entries.
+     */
+    void trimToSize(long maxSize);
+}
@@ -0,0 +1,43 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * Joins a cache to {@link MemoryTrimmer} on its first insertion instead of
+ * the constructor, so the registry never trims a partly built cache.
+ * The caches of this package hold one in a final field and call
+ * {@link #onInsert()} on every insertion.
+ *
+ * @since 1.2
+ */
+final class TrimmerRegistration {
+    private final Trimmable cache;
+    /** True, until the cache joins {@link MemoryTrimmer} */
+    private volatile boolean pending;
+
+    /**
+     * Creates the registration of the cache, which joins
+     * {@link MemoryTrimmer} on its first insertion
+     */
+    TrimmerRegistration(Trimmable cache) {
+        this(cache, true);
+    }
+
+    /**
+     * @param pending false, if the cache is a part of another cache,
+     *                e.g. a segment, and never joins {@link MemoryTrimmer} itself
+     */
+    TrimmerRegistration(Trimmable cache, boolean pending) {
+        this.cache = cache;
+        this.pending = pending;
+    }
+
+    /**
+     * Registers the cache, if this is its first insertion.
+     * Costs one volatile read after that.
+     */
+    void onInsert() {
+        if (pending) {
+            pending = false;
+            MemoryTrimmer.registerOnInsert(cache);
+        }
+    }
+}
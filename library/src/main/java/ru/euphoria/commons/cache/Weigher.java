@@ -0,0 +1,19 @@
+package ru.euphoria.commons.cache;
+
+/**
+ * Calculates the weight of cache entries, e.g. the size of values in bytes.
+ * The caches are bounded by the total weight of entries instead of their
+ * number. See {@link Weighers} for the built-in implementations.
+ *
+ * @since 1.2
+ */
+public interface Weigher<K, V> {
+    /**
+     * Returns the weight of the entry. The weight must not be negative
+     * and must not change while the entry is in the cache.
+     *
+     * @param key   the key of the entry
+     * @param value the value of the entry
+     */
+    long weigh(K key, V value);
+}
@@ -0,0 +1,207 @@
+package ru.euphoria.commons.cache;
+
+import ru.euphoria.commons.json.JsonArray;
+import ru.euphoria.commons.json.JsonObject;
+
+/**
+ * The built-in {@link Weigher}s, which estimate the retained heap size
+ * of values in bytes. So a cache can be bounded by the real memory:
+ *
+ * <pre>
+ *     LruCache&lt;String, JsonObject&gt; responses = new LruCache&lt;&gt;(
+ *             4 * FileStreams.ONE_MB, Weighers.&lt;String&gt;jsonObjects());
+ * </pre>
+ *
+ * <p>The estimates assume a 32-bit heap or compressed references: 4 bytes
+ * per reference, 8 bytes of object header, 12 bytes of array header and
+ * the 8 bytes alignment. The keys are not weighed. The shared objects,
+ * such as interned strings, are counted for each value.
+ *
+ * @since 1.2
+ */
+public final class Weighers {
+    private static final int REFERENCE = 4;
+    private static final int OBJECT_HEADER = 8;
+    private static final int ARRAY_HEADER = 12;
+
+    /** String object of Android up to 5.1: header, value reference, offset, count and hash */
+    private static final int STRING = align(OBJECT_HEADER + REFERENCE + 3 * 4);
+    /** Boxed primitives: header and up to 8 bytes of value */
+    private static final int BOXED = align(OBJECT_HEADER + 8);
+    /** JsonObject with its LinkedHashMap and the header entry of the map */
+    private static final int JSON_OBJECT = align(OBJECT_HEADER + REFERENCE)
+            + align(OBJECT_HEADER + 6 * REFERENCE + 3 * 4 + 4)
+            + align(OBJECT_HEADER + 6 * REFERENCE + 4);
+    /** LinkedHashMap entry: key, value, next, before, after and hash */
+    private static final int JSON_OBJECT_ENTRY = align(OBJECT_HEADER + 5 * REFERENCE + 4);
+    /** JsonArray with its ArrayList */
+    private static final int JSON_ARRAY = align(OBJECT_HEADER + REFERENCE)
+            + align(OBJECT_HEADER + REFERENCE + 2 * 4);
+
+    private static final Weigher<Object, Object> SINGLETON = new Weigher<Object, Object>() {
+        @Override
+        public long weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    private static final Weigher<Object, Object> RETAINED_SIZE = new Weigher<Object, Object>() {
+        @Override
+        public long weigh(Object key, Object value) {
+            return sizeOf(value);
+        }
+    };
+
+    private Weighers() {
+        // no instances
+    }
+
+    /**
+     * Returns the weigher, which weighs each entry as 1,
+     * so the cache is bounded by the number of entries
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Weigher<K, V> singleton() {
+        return (Weigher<K, V>) SINGLETON;
+    }
+
+    /**
+     * Returns the weigher of {@link String} values,
+     * see {@link #sizeOf(String)} for the assumed layout
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Weigher<K, String> strings() {
+        return (Weigher<K, String>) (Weigher) RETAINED_SIZE;
+    }
+
+    /**
+     * Returns the weigher of byte array values
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Weigher<K, byte[]> byteArrays() {
+        return (Weigher<K, byte[]>) (Weigher) RETAINED_SIZE;
+    }
+
+    /**
+     * Returns the weigher of {@link JsonObject} values, with all nested values
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Weigher<K, JsonObject> jsonObjects() {
+        return (Weigher<K, JsonObject>) (Weigher) RETAINED_SIZE;
+    }
+
+    /**
+     * Returns the weigher of {@link JsonArray} values, with all nested values
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> Weigher<K, JsonArray> jsonArrays() {
+        return (Weigher<K, JsonArray>) (Weigher) RETAINED_SIZE;
+    }
+
+    /**
+     * Returns the weigher of any values, which uses {@link #sizeOf(Object)}
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> Weigher<K, V> retainedSize() {
+        return (Weigher<K, V>) RETAINED_SIZE;
+    }
+
+    /**
+     * Returns the estimated retained size of the value in bytes. Supports
+     * strings, byte and char arrays, JSON objects and arrays and boxed
+     * primitives. Other objects are weighed as an object header.
+     */
+    public static long sizeOf(Object value) {
+        if (value == null || value == JsonObject.NULL || value instanceof Boolean) {
+            // shared instances
+            return 0;
+        }
+        if (value instanceof String) {
+            return sizeOf((String) value);
+        }
+        if (value instanceof byte[]) {
+            return sizeOf((byte[]) value);
+        }
+        if (value instanceof char[]) {
+            return align(ARRAY_HEADER + 2L * ((char[]) value).length);
+        }
+        if (value instanceof JsonObject) {
+            return sizeOf((JsonObject) value);
+        }
+        if (value instanceof JsonArray) {
+            return sizeOf((JsonArray) value);
+        }
+        if (value instanceof Number) {
+            return BOXED;
+        }
+        return align(OBJECT_HEADER);
+    }
+
+    /**
+     * Returns the estimated retained size of the string in bytes.
+     *
+     * <p>The estimate assumes the layout of {@link String} on Android
+     * up to 5.1: an object with offset and count fields, and a separate
+     * char array of 2 bytes per character. The newer runtimes keep the
+     * characters in the string object, and may compress ASCII text
+     * to 1 byte per character, so the string may take up to a half
+     * of the estimate there.
+     */
+    public static long sizeOf(String value) {
+        return STRING + align(ARRAY_HEADER + 2L * value.length());
+    }
+
+    /**
+     * Returns the retained size of the byte array
+     */
+    public static long sizeOf(byte[] value) {
+        return align(ARRAY_HEADER + (long) value.length);
+    }
+
+    /**
+     * Returns the estimated retained size of the JSON object
+     * with all nested values in bytes
+     */
+    public static long sizeOf(JsonObject value) {
+        int length = value.length();
+        long size = JSON_OBJECT + align(ARRAY_HEADER + (long) REFERENCE * tableSize(length));
+        for (String name : value.keySet()) {
+            size += JSON_OBJECT_ENTRY + sizeOf(name) + sizeOf(value.opt(name));
+        }
+        return size;
+    }
+
+    /**
+     * Returns the estimated retained size of the JSON array
+     * with all nested values in bytes
+     */
+    public static long sizeOf(JsonArray value) {
+        int length = value.length();
+        // ArrayList grows by half, assume the array is 3/4 full
+        long size = JSON_ARRAY + align(ARRAY_HEADER + (long) REFERENCE * (length + length / 3));
+        for (int i = 0; i < length; i++) {
+            size += sizeOf(value.opt(i));
+        }
+        return size;
+    }
+
+    /**
+     * Returns the capacity of the table of {@link java.util.HashMap}
+     * with the specified number of entries
+     */
+    private static int tableSize(int entries) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,197 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the metrics of an executor: the counts of tasks, the times,
+ * which they waited and ran, and the times per label of tasks. Recording
+ * does not take locks, the per-label counters are created once per label.
+ *
+ * @since 1.2
+ */
+public final class ExecutorMetrics {
+    /** The maximum number of labels, the tasks of other labels are counted as {@link #OTHER} */
+    public static final int MAX_LABELS = 256;
+    /** The label of the tasks over {@link #MAX_LABELS} */
+    public static final String OTHER = "other";
+
+    private final StripedCounter submittedCount = new StripedCounter();
+    private final StripedCounter completedCount = new StripedCounter();
+    private final StripedCounter rejectedCount = new StripedCounter();
+    private final Histogram waitTimes = new Histogram();
+    private final Histogram runTimes = new Histogram();
+    private final ConcurrentHashMap<String, LabelCounter> labels = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the task with the label
+     *
+     * @param label the label of the task, e.g. "parse-feed"
+     * @param task  the task to label
+     */
+    public static Runnable labeled(final String label, final Runnable task) {
+        if (label == null || task == null) {
+            throw new NullPointerException("label == null || task == null");
+        }
+        return new LabeledRunnable(label, task);
+    }
+
+    /**
+     * Returns the task with the label
+     *
+     * @param label the label of the task, e.g. "parse-feed"
+     * @param task  the task to label
+     */
+    public static <T> Callable<T> labeled(final String label, final Callable<T> task) {
+        if (label == null || task == null) {
+            throw new NullPointerException("label == null || task == null");
+        }
+        return new LabeledCallable<>(label, task);
+    }
+
+    /**
+     * Returns the label of the task: {@link Labeled#label()}
+     * or the name of its class
+     */
+    public static String labelOf(Object task) {
+        if (task instanceof Labeled) {
+            return ((Labeled) task).label();
+        }
+        return task.getClass().getName();
+    }
+
+    /**
+     * Records a task, which was passed to the executor
+     */
+    public void recordSubmitted() {
+        submittedCount.increment();
+    }
+
+    /**
+     * Records a task, which was rejected or discarded
+     */
+    public void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    /**
+     * Records a task, which has run
+     *
+     * @param label    the label of the task, see {@link #labelOf}
+     * @param waitTime the time in nanoseconds, which the task waited for a worker
+     * @param runTime  the time in nanoseconds, which the task ran
+     */
+    public void recordCompleted(String label, long waitTime, long runTime) {
+        completedCount.increment();
+        waitTimes.record(waitTime);
+        runTimes.record(runTime);
+
+        LabelCounter counter = labels.get(label);
+        if (counter == null) {
+            if (labels.size() >= MAX_LABELS) {
+                label = OTHER;
+            }
+            LabelCounter created = new LabelCounter();
+            counter = labels.putIfAbsent(label, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.record(waitTime, runTime);
+    }
+
+    /**
+     * Returns a snapshot of the metrics with the current state of the executor
+     *
+     * @param queueDepth  the number of queued tasks
+     * @param activeCount the number of running workers
+     * @param poolSize    the number of started workers
+     */
+    public ExecutorStats snapshot(int queueDepth, int activeCount, int poolSize) {
+        ArrayList<ExecutorStats.LabelStats> stats = new ArrayList<>(labels.size());
+        for (Map.Entry<String, LabelCounter> entry : labels.entrySet()) {
+            stats.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        return new ExecutorStats(queueDepth, activeCount, poolSize,
+                submittedCount.sum(), completedCount.sum(), rejectedCount.sum(),
+                waitTimes.snapshot(), runTimes.snapshot(), ExecutorStats.sortSlowestFirst(stats));
+    }
+
+    private static final class LabelCounter {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalWaitTime = new AtomicLong();
+        final AtomicLong totalRunTime = new AtomicLong();
+        final AtomicLong maxRunTime = new AtomicLong();
+
+        void record(long waitTime, long runTime) {
+            count.incrementAndGet();
+            totalWaitTime.addAndGet(waitTime);
+            totalRunTime.addAndGet(runTime);
+
+            long max;
+            while (runTime > (max = maxRunTime.get())) {
+                if (maxRunTime.compareAndSet(max, runTime)) {
+                    break;
+                }
+            }
+        }
+
+        ExecutorStats.LabelStats snapshot(String label) {
+            return new ExecutorStats.LabelStats(label, count.get(), totalWaitTime.get(),
+                    totalRunTime.get(), maxRunTime.get());
+        }
+    }
+
+    private static final class LabeledRunnable implements Runnable, Labeled {
+        private final String label;
+        private final Runnable task;
+
+        LabeledRunnable(String label, Runnable task) {
+            this.label = label;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final class LabeledCallable<T> implements Callable<T>, Labeled {
+        private final String label;
+        private final Callable<T> task;
+
+        LabeledCallable(String label, Callable<T> task) {
+            this.label = label;
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            return task.call();
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+}
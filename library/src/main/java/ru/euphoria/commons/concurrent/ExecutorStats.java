@@ -0,0 +1,210 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable statistics of an executor, taken by {@code stats()} of executors.
+ * The queue depth and the active workers show, whether the pool is
+ * saturated, the wait times show, how long the tasks waited for a worker,
+ * and the run times and the labels show, which tasks are slow.
+ *
+ * <pre>
+ *     ExecutorStats stats = ThreadExecutor.stats();
+ *     Log.d(TAG, "queued=" + stats.queueDepth()
+ *             + ", p99 wait=" + stats.waitTimes().percentile(99) + "ns"
+ *             + ", slowest=" + stats.slowestLabels(3));
+ * </pre>
+ *
+ * @since 1.2
+ */
+public final class ExecutorStats {
+    private final int queueDepth;
+    private final int activeCount;
+    private final int poolSize;
+    private final long submittedCount;
+    private final long completedCount;
+    private final long rejectedCount;
+    private final Histogram.Snapshot waitTimes;
+    private final Histogram.Snapshot runTimes;
+    private final List<LabelStats> labels;
+
+    ExecutorStats(int queueDepth, int activeCount, int poolSize,
+                  long submittedCount, long completedCount, long rejectedCount,
+                  Histogram.Snapshot waitTimes, Histogram.Snapshot runTimes,
+                  List<LabelStats> labels) {
+        this.queueDepth = queueDepth;
+        this.activeCount = activeCount;
+        this.poolSize = poolSize;
+        this.submittedCount = submittedCount;
+        this.completedCount = completedCount;
+        this.rejectedCount = rejectedCount;
+        this.waitTimes = waitTimes;
+        this.runTimes = runTimes;
+        this.labels = labels;
+    }
+
+    /**
+     * Returns the number of tasks, which wait for a worker
+     */
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Returns the number of workers, which run tasks
+     */
+    public int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * Returns the number of started workers
+     */
+    public int poolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Returns the number of tasks, which were passed to the executor
+     */
+    public long submittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * Returns the number of tasks, which have run, normally or with an exception
+     */
+    public long completedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Returns the number of tasks, which were rejected or discarded,
+     * because the queue was full or the executor was shut down
+     */
+    public long rejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the times in nanoseconds, which the tasks waited for a worker
+     */
+    public Histogram.Snapshot waitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * Returns the times in nanoseconds, which the tasks ran
+     */
+    public Histogram.Snapshot runTimes() {
+        return runTimes;
+    }
+
+    /**
+     * Returns the statistics of all labels, the slowest first
+     */
+    public List<LabelStats> labels() {
+        return labels;
+    }
+
+    /**
+     * Returns the statistics of the labels with the highest mean run time
+     *
+     * @param limit the maximum number of labels
+     */
+    public List<LabelStats> slowestLabels(int limit) {
+        return labels.subList(0, Math.min(limit, labels.size()));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExecutorStats[queued=%d,active=%d,pool=%d,submitted=%d,completed=%d,rejected=%d,"
+                        + "p99Wait=%dns,p99Run=%dns]",
+                queueDepth, activeCount, poolSize, submittedCount, completedCount, rejectedCount,
+                waitTimes.percentile(99), runTimes.percentile(99));
+    }
+
+    /**
+     * Sorts the labels, the slowest first
+     */
+    static List<LabelStats> sortSlowestFirst(ArrayList<LabelStats> labels) {
+        Collections.sort(labels, new Comparator<LabelStats>() {
+            @Override
+            public int compare(LabelStats lhs, LabelStats rhs) {
+                return Double.compare(rhs.meanRunTime(), lhs.meanRunTime());
+            }
+        });
+        return Collections.unmodifiableList(labels);
+    }
+
+    /**
+     * Immutable statistics of the tasks with the same label
+     */
+    public static final class LabelStats {
+        private final String label;
+        private final long count;
+        private final long totalWaitTime;
+        private final long totalRunTime;
+        private final long maxRunTime;
+
+        LabelStats(String label, long count, long totalWaitTime, long totalRunTime, long maxRunTime) {
+            this.label = label;
+            this.count = count;
+            this.totalWaitTime = totalWaitTime;
+            this.totalRunTime = totalRunTime;
+            this.maxRunTime = maxRunTime;
+        }
+
+        /**
+         * Returns the label, see {@link Labeled}
+         */
+        public String label() {
+            return label;
+        }
+
+        /**
+         * Returns the number of tasks, which have run
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the total run time of the tasks in nanoseconds
+         */
+        public long totalRunTime() {
+            return totalRunTime;
+        }
+
+        /**
+         * Returns the longest run time of a task in nanoseconds
+         */
+        public long maxRunTime() {
+            return maxRunTime;
+        }
+
+        /**
+         * Returns the mean run time in nanoseconds, or 0 if there were no runs
+         */
+        public double meanRunTime() {
+            return count == 0 ? 0 : (double) totalRunTime / count;
+        }
+
+        /**
+         * Returns the mean time in nanoseconds, which the tasks waited
+         * for a worker, or 0 if there were no runs
+         */
+        public double meanWaitTime() {
+            return count == 0 ? 0 : (double) totalWaitTime / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("LabelStats[label=%s,count=%d,meanRun=%.0fns,maxRun=%dns,meanWait=%.0fns]",
+                    label, count, meanRunTime(), maxRunTime, meanWaitTime());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The recursive task of {@link WorkStealingExecutor}, which splits
+ * the large work, e.g. a big json array, into the parts, runs them
+ * in parallel and joins the results:
+ *
+ * <pre>
+ *     class SumTask extends ForkTask&lt;Long&gt; {
+ *         protected Long compute() {
+ *             if (to - from &lt;= 4096) {
+ *                 return sum(array, from, to);
+ *             }
+ *             int middle = (from + to) &gt;&gt;&gt; 1;
+ *             SumTask left = new SumTask(array, from, middle);
+ *             SumTask right = new SumTask(array, middle, to);
+ *             left.fork();
+ *             return right.compute() + left.join();
+ *         }
+ *     }
+ *
+ *     long sum = ThreadExecutor.invokeOnCpu(new SumTask(array, 0, array.length));
+ * </pre>
+ *
+ * <p>The thread, which joins a task, does not block while the task
+ * waits in a queue, it runs the queued tasks, so the workers are never
+ * all blocked by the joins. Each task runs once.
+ *
+ * @since 1.2
+ */
+public abstract class ForkTask<V> implements Runnable {
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private V result;
+    private Throwable error;
+    /** The workers, which are parked in {@link #join}, guarded by this task */
+    private ArrayList<Thread> joiners;
+
+    /**
+     * Does the work of this task, forks and joins the subtasks
+     *
+     * @return the result of this task
+     */
+    protected abstract V compute();
+
+    /**
+     * Runs this task, if it is not yet started. The exceptions
+     * are stored and rethrown by {@link #join}.
+     */
+    @Override
+    public final void run() {
+        if (!state.compareAndSet(NEW, RUNNING)) {
+            return;
+        }
+        try {
+            result = compute();
+        } catch (Throwable e) {
+            error = e;
+        }
+        synchronized (this) {
+            state.set(DONE);
+            notifyAll();
+            if (joiners != null) {
+                for (Thread joiner : joiners) {
+                    LockSupport.unpark(joiner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes this task asynchronously: on a worker of {@link WorkStealingExecutor},
+     * pushes it to the own deque of the worker, otherwise executes it
+     * by {@link ThreadExecutor#executeOnCpu}
+     *
+     * @return this task
+     */
+    public final ForkTask<V> fork() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof WorkStealingExecutor.Worker) {
+            ((WorkStealingExecutor.Worker) thread).executor.execute(this);
+        } else {
+            ThreadExecutor.executeOnCpu(this);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the result of this task, when it is done. A worker runs
+     * the other tasks while waiting, other threads block.
+     *
+     * @throws RuntimeException the exception of {@link #compute}
+     */
+    public final V join() {
+        if (!isDone()) {
+            Thread thread = Thread.currentThread();
+            if (thread instanceof WorkStealingExecutor.Worker) {
+                WorkStealingExecutor.Worker worker = (WorkStealingExecutor.Worker) thread;
+                worker.executor.helpJoin(worker, this);
+            } else {
+                awaitDone();
+            }
+        }
+        return report();
+    }
+
+    /**
+     * Runs this task on the current thread and returns its result.
+     * If the task is already running on another thread, joins it.
+     *
+     * @throws RuntimeException the exception of {@link #compute}
+     */
+    public final V invoke() {
+        run();
+        return join();
+    }
+
+    /**
+     * Returns true, if this task is done, normally or with an exception
+     */
+    public final boolean isDone() {
+        return state.get() == DONE;
+    }
+
+    /**
+     * Forks the first task, runs the second one on the current thread
+     * and joins the first one
+     */
+    public static void invokeAll(ForkTask<?> first, ForkTask<?> second) {
+        first.fork();
+        second.invoke();
+        first.join();
+    }
+
+    /**
+     * Forks all tasks except the first one, runs the first one
+     * on the current thread and joins the others
+     */
+    public static void invokeAll(List<? extends ForkTask<?>> tasks) {
+        for (int i = tasks.size() - 1; i > 0; i--) {
+            tasks.get(i).fork();
+        }
+        if (!tasks.isEmpty()) {
+            tasks.get(0).invoke();
+        }
+        for (int i = 1; i < tasks.size(); i++) {
+            tasks.get(i).join();
+        }
+    }
+
+    /**
+     * Waits until this task is done, on a thread, which is not a worker
+     */
+    private void awaitDone() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (!isDone()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registers the worker, which is going to park until this task is done
+     *
+     * @return false, if this task is already done
+     */
+    final synchronized boolean addJoiner(Thread joiner) {
+        if (isDone()) {
+            return false;
+        }
+        if (joiners == null) {
+            joiners = new ArrayList<>(2);
+        }
+        joiners.add(joiner);
+        return true;
+    }
+
+    final synchronized void removeJoiner(Thread joiner) {
+        if (joiners != null) {
+            joiners.remove(joiner);
+        }
+    }
+
+    private V report() {
+        Throwable error = this.error;
+        if (error == null) {
+            return result;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new RuntimeException(error);
+    }
+}
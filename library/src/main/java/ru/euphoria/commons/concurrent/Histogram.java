@@ -0,0 +1,264 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent histogram of non-negative {@code long} values,
+ * e.g. latencies in nanoseconds.
+ *
+ * <p>The values are counted in buckets of powers of two: the bucket
+ * {@code i} holds the values in range {@code [2^(i-1), 2^i)}, the bucket
+ * {@code 0} holds zero and negative values. So recording is one atomic
+ * increment without locks, and the percentiles are accurate up to a factor
+ * of two, which is enough to see the shape of latencies.
+ *
+ * <p>The histogram is striped like {@link StripedCounter}: the threads
+ * share one cell, until they collide on it, then each thread records to
+ * the cell chosen by its id. The buckets of a cell are allocated by chunks
+ * of 8 on the first value in their range, so a histogram of latencies,
+ * which fall into a few adjacent buckets, costs a few hundred bytes.
+ *
+ * @since 1.2
+ */
+public final class Histogram {
+    /** The number of buckets, one for each bit of long and zero */
+    public static final int BUCKET_COUNT = 65;
+    /** The number of buckets in a chunk, 64 bytes */
+    private static final int CHUNK_SIZE = 8;
+    private static final int CHUNK_COUNT = (BUCKET_COUNT + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    private final Cell base = new Cell();
+    /** Created on the first contention on {@link #base} */
+    private volatile AtomicReferenceArray<Cell> cells;
+
+    /**
+     * Records the specified value
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        int bucket = bucketOf(value);
+        AtomicReferenceArray<Cell> cells = this.cells;
+        if (cells == null) {
+            if (base.tryRecord(bucket, value)) {
+                return;
+            }
+            cells = createCells();
+        }
+        cellOf(cells).record(bucket, value);
+    }
+
+    /**
+     * Returns a snapshot of the recorded values. The snapshot is taken
+     * without blocking the recording threads, so it is not atomic.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long sum = base.addTo(counts);
+        AtomicReferenceArray<Cell> cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < cells.length(); i++) {
+                Cell cell = cells.get(i);
+                if (cell != null) {
+                    sum += cell.addTo(counts);
+                }
+            }
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    private synchronized AtomicReferenceArray<Cell> createCells() {
+        if (cells == null) {
+            cells = new AtomicReferenceArray<>(StripedCounter.STRIPES);
+        }
+        return cells;
+    }
+
+    private static Cell cellOf(AtomicReferenceArray<Cell> cells) {
+        int index = StripedCounter.index();
+        Cell cell = cells.get(index);
+        if (cell == null) {
+            cells.compareAndSet(index, null, new Cell());
+            cell = cells.get(index);
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the bucket index of the specified value
+     */
+    public static int bucketOf(long value) {
+        return value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Returns the exclusive upper bound of the values in the bucket
+     */
+    public static long upperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * The buckets and the sum of the values, which are recorded by a group of threads
+     */
+    private static final class Cell {
+        /** The chunks of {@link #CHUNK_SIZE} buckets, allocated on the first value */
+        private final AtomicReferenceArray<AtomicLongArray> chunks =
+                new AtomicReferenceArray<>(CHUNK_COUNT);
+        private final AtomicLong sum = new AtomicLong();
+
+        /**
+         * Records the value, unless another thread is recording to the same bucket
+         *
+         * @return false, if the bucket is contended and nothing was recorded
+         */
+        boolean tryRecord(int bucket, long value) {
+            AtomicLongArray chunk = chunk(bucket / CHUNK_SIZE);
+            int index = bucket % CHUNK_SIZE;
+            long count = chunk.get(index);
+            if (!chunk.compareAndSet(index, count, count + 1)) {
+                return false;
+            }
+            sum.addAndGet(Math.max(0, value));
+            return true;
+        }
+
+        void record(int bucket, long value) {
+            chunk(bucket / CHUNK_SIZE).incrementAndGet(bucket % CHUNK_SIZE);
+            sum.addAndGet(Math.max(0, value));
+        }
+
+        /**
+         * Adds the counts of the buckets to the array, returns the sum of the values
+         */
+        long addTo(long[] counts) {
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                AtomicLongArray chunk = chunks.get(i);
+                if (chunk == null) {
+                    continue;
+                }
+                int first = i * CHUNK_SIZE;
+                int last = Math.min(first + CHUNK_SIZE, BUCKET_COUNT);
+                for (int bucket = first; bucket < last; bucket++) {
+                    counts[bucket] += chunk.get(bucket - first);
+                }
+            }
+            return sum.get();
+        }
+
+        private AtomicLongArray chunk(int index) {
+            AtomicLongArray chunk = chunks.get(index);
+            if (chunk == null) {
+                chunks.compareAndSet(index, null, new AtomicLongArray(CHUNK_SIZE));
+                chunk = chunks.get(index);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * The immutable state of the histogram
+     */
+    public static final class Snapshot {
+        /** The snapshot without values */
+        public static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+        }
+
+        /**
+         * Returns the number of recorded values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of recorded values
+         */
+        public long sum() {
+            return sum;
+        }
+
+        /**
+         * Returns the number of values in the bucket
+         */
+        public long count(int bucket) {
+            return counts[bucket];
+        }
+
+        /**
+         * Returns the mean of recorded values, or 0 if there are no values
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the upper bound of the bucket, which contains
+         * the specified percentile, or 0 if there are no values
+         *
+         * @param percentile the percentile, from 0.0 to 100.0
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in range [0, 100]");
+            }
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKET_COUNT - 1);
+        }
+
+        /**
+         * Returns the values recorded since the specified earlier snapshot
+         */
+        public Snapshot minus(Snapshot other) {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = Math.max(0, counts[i] - other.counts[i]);
+            }
+            return new Snapshot(result, Math.max(0, sum - other.sum));
+        }
+
+        /**
+         * Returns the values of both snapshots
+         */
+        public Snapshot plus(Snapshot other) {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(result, sum + other.sum);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Histogram[count=%d,mean=%.1f,p50=%d,p99=%d]",
+                    count, mean(), percentile(50), percentile(99));
+        }
+    }
+}
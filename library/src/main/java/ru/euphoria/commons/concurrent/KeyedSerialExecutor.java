@@ -0,0 +1,287 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks of the same key one after another, in the order they
+ * were executed, while the tasks of different keys run in parallel
+ * on the shared executor. E.g. the events of one conversation are applied
+ * in order, but the conversations don't wait for each other:
+ *
+ * <pre>
+ *     events.execute(message.peerId(), new Runnable() {
+ *         public void run() {
+ *             applyEvent(message);
+ *         }
+ *     });
+ * </pre>
+ *
+ * <p>Each key with pending tasks has a lock-free queue and at most one
+ * drain task in the executor, no thread is dedicated to a key. If the executor
+ * rejects the drain of an idle key, {@link #execute} throws the exception and
+ * the task is not added. If it rejects or discards the drain later, the tasks
+ * of the key wait for the next task of the key, which starts a new drain. The queue
+ * of a key is dropped, when it is drained, so the idle keys hold no memory.
+ * A key runs at most {@link #BATCH_SIZE} tasks in a row, then yields
+ * the worker to the other keys: its drain task is executed again behind
+ * the queued ones, so the executor should run the tasks in the FIFO order,
+ * like {@link PriorityExecutor} or {@link WorkStealingExecutor}.
+ *
+ * @since 1.2
+ */
+public class KeyedSerialExecutor<K> {
+    /** The maximum number of tasks of one key, which run without yielding the worker */
+    public static final int BATCH_SIZE = 32;
+
+    private final Executor executor;
+    private final ConcurrentHashMap<K, SerialQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link KeyedSerialExecutor} on the cpu threads of {@link ThreadExecutor}
+     */
+    public KeyedSerialExecutor() {
+        this(ThreadExecutor.cpuExecutor());
+    }
+
+    /**
+     * Creates a new {@link KeyedSerialExecutor}
+     *
+     * @param executor the executor to run the tasks on
+     */
+    public KeyedSerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor == null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Executes the task after all tasks of the same key, which were executed before
+     *
+     * @param key  the key of the order, e.g. the id of a conversation
+     * @param task the code to execute in a background
+     * @throws RejectedExecutionException if the executor rejects the drain of the key,
+     *                                    the task is not executed then
+     */
+    public void execute(K key, Runnable task) {
+        if (key == null || task == null) {
+            throw new NullPointerException("key == null || task == null");
+        }
+
+        while (true) {
+            SerialQueue queue = queues.get(key);
+            if (queue == null) {
+                SerialQueue created = new SerialQueue(key);
+                queue = queues.putIfAbsent(key, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+
+            queue.tasks.offer(task);
+            if (queue.schedule(task)) {
+                return;
+            }
+            // drained and dead, replace by a new one
+            queues.remove(key, queue);
+        }
+    }
+
+    /**
+     * Submits the task like {@link #execute}
+     *
+     * @param key  the key of the order
+     * @param task the code to execute in a background
+     * @return the promise of the result of the task
+     */
+    public <T> Promise<T> submit(K key, final Callable<T> task) {
+        if (task == null) {
+            throw new NullPointerException("key == null || task == null");
+        }
+        final Promise<T> promise = new Promise<>();
+        execute(key, new Runnable() {
+            @Override
+            public void run() {
+                if (promise.isDone()) {
+                    return;
+                }
+                try {
+                    promise.complete(task.call());
+                } catch (Throwable e) {
+                    promise.fail(e);
+                }
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Returns the number of keys, which have pending or running tasks
+     */
+    public int activeKeyCount() {
+        return queues.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeyedSerialExecutor[activeKeys=%d]", activeKeyCount());
+    }
+
+    /**
+     * The tasks of one key and the state of its drain: {@link #IDLE},
+     * {@link #SCHEDULED} or {@link #DEAD} after the queue was drained
+     * and removed from the map. The tasks are added before the state is read,
+     * so the drain, which goes idle, sees all tasks of the callers, which saw it
+     * scheduled, and the callers, which see it dead, take their tasks back.
+     */
+    private final class SerialQueue {
+        static final int IDLE = 0;
+        static final int SCHEDULED = 1;
+        static final int DEAD = -1;
+
+        final K key;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicInteger state = new AtomicInteger(IDLE);
+
+        SerialQueue(K key) {
+            this.key = key;
+        }
+
+        /**
+         * Starts the drain for the task, which was just added, if it is idle.
+         * Returns false, if the queue is dead and the task was not run,
+         * the task is taken back then.
+         */
+        boolean schedule(Runnable task) {
+            while (true) {
+                int current = state.get();
+                if (current == SCHEDULED) {
+                    return true;
+                }
+                if (current == DEAD) {
+                    // the last drain could take the task, before it went dead
+                    return !tasks.remove(task);
+                }
+                if (state.compareAndSet(IDLE, SCHEDULED)) {
+                    try {
+                        executor.execute(new Drain(this));
+                    } catch (RuntimeException e) {
+                        tasks.remove(task);
+                        unschedule();
+                        throw e;
+                    }
+                    return true;
+                }
+            }
+        }
+
+        void drain() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    if (retire()) {
+                        return;
+                    }
+                    // added, while the drain was going idle
+                    continue;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            // let the other keys run
+            yieldWorker();
+        }
+
+        /**
+         * Stops the drain of the empty queue. Returns false, if the tasks
+         * were added meanwhile and the drain goes on
+         */
+        private boolean retire() {
+            state.set(IDLE);
+            if (tasks.isEmpty()) {
+                if (state.compareAndSet(IDLE, DEAD)) {
+                    queues.remove(key, this);
+                }
+                return true;
+            }
+            // the caller, which saw it idle, has started the next drain
+            return !state.compareAndSet(IDLE, SCHEDULED);
+        }
+
+        /**
+         * Marks the drain as not scheduled, after it was rejected or discarded
+         * by the executor. The remaining tasks stay in the queue, until the next
+         * task of the key starts a new drain.
+         */
+        void unschedule() {
+            state.set(IDLE);
+            if (tasks.isEmpty() && state.compareAndSet(IDLE, DEAD)) {
+                queues.remove(key, this);
+            }
+        }
+
+        /**
+         * Executes the drain again after the queued tasks. A worker of
+         * {@link WorkStealingExecutor} would push it to its own deque
+         * and take it back at once, so it goes to the tail of a queue.
+         */
+        private void yieldWorker() {
+            try {
+                if (executor instanceof WorkStealingExecutor) {
+                    ((WorkStealingExecutor) executor).executeFifo(new Drain(this));
+                } else {
+                    executor.execute(new Drain(this));
+                }
+            } catch (RejectedExecutionException e) {
+                e.printStackTrace();
+                unschedule();
+            }
+        }
+    }
+
+    /**
+     * The drain of one key in the executor. It is a future, so the policies
+     * of {@link PriorityExecutor} never drop it, and an executor, which
+     * cancels the discarded futures, does not leave the key scheduled.
+     */
+    private static final class Drain extends FutureTask<Void> {
+        private final KeyedSerialExecutor<?>.SerialQueue queue;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Drain(final KeyedSerialExecutor<?>.SerialQueue queue) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    queue.drain();
+                }
+            }, null);
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                super.run();
+            }
+        }
+
+        @Override
+        protected void done() {
+            // a running drain goes on, even if it is cancelled
+            if (isCancelled() && started.compareAndSet(false, true)) {
+                queue.unschedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.euphoria.commons.concurrent;
+
+/**
+ * The task, which has a label for the metrics of executors, e.g. "parse-feed".
+ * The tasks without a label are counted by the name of their class.
+ *
+ * <pre>
+ *     ThreadExecutor.execute(ExecutorMetrics.labeled("load-avatar", task));
+ *     ...
+ *     for (ExecutorStats.LabelStats label : ThreadExecutor.stats().slowestLabels(5)) {
+ *         Log.d(TAG, label.toString());
+ *     }
+ * </pre>
+ *
+ * @since 1.2
+ */
+public interface Labeled {
+    /**
+     * Returns the label of this task, the tasks of the same kind
+     * have the same label
+     */
+    String label();
+}
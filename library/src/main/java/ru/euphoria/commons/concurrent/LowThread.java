@@ -36,7 +36,12 @@ public class LowThread extends Thread {
     public void run() {
         // using the background priority
         // for smooth user interface
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        } catch (NoClassDefFoundError e) {
+            // not on android, e.g. in the benchmarks on the desktop JVM
+            setPriority(MIN_PRIORITY);
+        }
         super.run();
     }
 }
@@ -0,0 +1,395 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executor with a fixed number of {@link LowThread} workers
+ * and a bounded queue, which is ordered by the priority of tasks.
+ * So the work, which the user waits for, overtakes the prefetch,
+ * which was queued before it:
+ *
+ * <pre>
+ *     executor.execute(loadAvatar, PriorityExecutor.PRIORITY_HIGH);
+ *     executor.execute(prefetchFeed, PriorityExecutor.PRIORITY_LOW);
+ * </pre>
+ *
+ * <p>The tasks of the same priority run in the order they were executed.
+ * The idle workers stop after {@link #KEEP_ALIVE_SECONDS}, so the idle app
+ * does not hold the threads. When the queue is full, the task is passed
+ * to the {@link RejectedExecutionHandler}, by default {@link DiscardLowestPolicy}.
+ * The policies of this class never cancel a queued {@link Future}, because
+ * it belongs to the caller, which submitted it, and never run a task
+ * on the calling thread, which may be the main thread.
+ *
+ * @since 1.2
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+    /** The priority of the work, which can wait, e.g. prefetch */
+    public static final int PRIORITY_LOW = -10;
+    /** The priority of {@link #execute(Runnable)} and {@link #submit(Runnable)} */
+    public static final int PRIORITY_NORMAL = 0;
+    /** The priority of the work, which the user waits for */
+    public static final int PRIORITY_HIGH = 10;
+
+    /** The time, after which the idle workers stop */
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ExecutorMetrics metrics;
+
+    /**
+     * Creates a new {@link PriorityExecutor}, which discards the tasks
+     * with the lowest priority when the queue is full
+     *
+     * @param threads  the maximum number of workers
+     * @param capacity the maximum number of queued tasks
+     */
+    public PriorityExecutor(int threads, int capacity) {
+        this(threads, capacity, new DiscardLowestPolicy());
+    }
+
+    /**
+     * Creates a new {@link PriorityExecutor}
+     *
+     * @param threads  the maximum number of workers
+     * @param capacity the maximum number of queued tasks
+     * @param handler  the policy for the tasks, which don't fit in the queue,
+     *                 e.g. {@link DiscardLowestPolicy}, {@link GrowQueuePolicy}
+     *                 or {@link AbortPolicy}
+     */
+    public PriorityExecutor(int threads, int capacity, RejectedExecutionHandler handler) {
+        this(threads, capacity, handler, new ExecutorMetrics());
+    }
+
+    private PriorityExecutor(int threads, int capacity, RejectedExecutionHandler handler,
+                             ExecutorMetrics metrics) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityTaskQueue(capacity),
+                new ThreadExecutor.PriorityThreadFactory(), new CountingPolicy(handler, metrics));
+        this.metrics = metrics;
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executes the task with {@link #PRIORITY_NORMAL}
+     *
+     * @param command the code to execute in a background
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (command instanceof Prioritized) {
+            enqueue(command);
+        } else {
+            execute(command, PRIORITY_NORMAL);
+        }
+    }
+
+    /**
+     * Executes the task with the specified priority
+     *
+     * @param command  the code to execute in a background
+     * @param priority the priority, the higher one runs first,
+     *                 e.g. {@link #PRIORITY_HIGH}
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException("command == null");
+        }
+        enqueue(new PriorityRunnable(command, priority, sequence.getAndIncrement()));
+    }
+
+    /**
+     * Submits the task with the specified priority
+     *
+     * @param task     the code to execute in a background
+     * @param priority the priority, the higher one runs first
+     * @return the future of the result of the task
+     */
+    public <T> Future<T> submit(Callable<T> task, int priority) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        PriorityFuture<T> future = new PriorityFuture<>(task, priority, sequence.getAndIncrement());
+        enqueue(future);
+        return future;
+    }
+
+    /**
+     * Submits the task with the specified priority
+     *
+     * @param task     the code to execute in a background
+     * @param priority the priority, the higher one runs first
+     * @return the future, which returns null on success
+     */
+    public Future<?> submit(Runnable task, int priority) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        PriorityFuture<Void> future = new PriorityFuture<>(task, null, priority, sequence.getAndIncrement());
+        enqueue(future);
+        return future;
+    }
+
+    /**
+     * Returns the statistics of this executor: the queue depth, the counts
+     * of tasks, the times, which they waited and ran, and the slowest labels
+     */
+    public ExecutorStats stats() {
+        return metrics.snapshot(getQueue().size(), getActiveCount(), getPoolSize());
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        if (task instanceof Prioritized) {
+            ((Prioritized) task).setStartTime(System.nanoTime());
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable error) {
+        if (task instanceof Prioritized) {
+            Prioritized prioritized = (Prioritized) task;
+            long start = prioritized.startTime();
+            metrics.recordCompleted(prioritized.label(),
+                    start - prioritized.submitTime(), System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityFuture<>(runnable, value, PRIORITY_NORMAL, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityFuture<>(callable, PRIORITY_NORMAL, sequence.getAndIncrement());
+    }
+
+    private void enqueue(Runnable task) {
+        metrics.recordSubmitted();
+        super.execute(task);
+    }
+
+    /**
+     * The queued task, which knows its priority, the order, in which
+     * it was executed, and its label and times for the metrics
+     */
+    interface Prioritized {
+        int priority();
+
+        long sequence();
+
+        String label();
+
+        long submitTime();
+
+        long startTime();
+
+        void setStartTime(long time);
+
+        /**
+         * Returns true, if the task may be dropped from the queue without
+         * notice: a plain {@link Runnable}, not a {@link Future}
+         */
+        boolean discardable();
+    }
+
+    /**
+     * Counts the rejected tasks and passes them to the policy
+     */
+    private static final class CountingPolicy implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler policy;
+        private final ExecutorMetrics metrics;
+
+        CountingPolicy(RejectedExecutionHandler policy, ExecutorMetrics metrics) {
+            if (policy == null) {
+                throw new NullPointerException("policy == null");
+            }
+            this.policy = policy;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            metrics.recordRejected();
+            policy.rejectedExecution(r, executor);
+        }
+    }
+
+    /**
+     * The policy, which keeps the tasks with the highest priority, when the
+     * queue is full: a queued plain {@link Runnable} with a lower priority
+     * is dropped, see {@link #onDiscarded}, to make room for the rejected task.
+     * The queued futures are never dropped, they belong to their callers.
+     * If there is no such task, the rejected task is not queued and
+     * {@code execute} throws {@link RejectedExecutionException},
+     * like after the shutdown of the executor.
+     */
+    public static class DiscardLowestPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !(executor.getQueue() instanceof PriorityTaskQueue)) {
+                throw new RejectedExecutionException("Task " + r + " rejected from " + executor);
+            }
+            Runnable discarded = ((PriorityTaskQueue) executor.getQueue()).offerOrReplaceLowest(r);
+            if (discarded == r) {
+                throw new RejectedExecutionException("Task " + r + " rejected from " + executor
+                        + ", the queue is full of tasks with higher priorities");
+            }
+            // the workers may have stopped since the rejection
+            executor.prestartCoreThread();
+            if (discarded != null) {
+                onDiscarded(((PriorityRunnable) discarded).command);
+            }
+        }
+
+        /**
+         * Called with the plain {@link Runnable}, which was dropped from the queue
+         * to make room for a task with a higher priority. The default
+         * implementation does nothing, override it e.g. to log the dropped work.
+         */
+        protected void onDiscarded(Runnable command) {
+        }
+    }
+
+    /**
+     * The policy, which never drops a task: when the queue is full, the task
+     * is queued anyway, so the queue grows beyond its capacity, until the workers
+     * catch up, and the capacity is a soft limit. After the shutdown
+     * of the executor, {@code execute} throws {@link RejectedExecutionException}.
+     */
+    public static class GrowQueuePolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown() || !(executor.getQueue() instanceof PriorityTaskQueue)) {
+                throw new RejectedExecutionException("Task " + r + " rejected from " + executor);
+            }
+            ((PriorityTaskQueue) executor.getQueue()).forceOffer(r);
+            // the workers may have stopped since the rejection
+            executor.prestartCoreThread();
+        }
+    }
+
+    private static final class PriorityRunnable implements Runnable, Prioritized {
+        private final Runnable command;
+        private final int priority;
+        private final long sequence;
+        private final long submitTime = System.nanoTime();
+        private long startTime;
+
+        PriorityRunnable(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public long sequence() {
+            return sequence;
+        }
+
+        @Override
+        public String label() {
+            return ExecutorMetrics.labelOf(command);
+        }
+
+        @Override
+        public long submitTime() {
+            return submitTime;
+        }
+
+        @Override
+        public long startTime() {
+            return startTime;
+        }
+
+        @Override
+        public void setStartTime(long time) {
+            startTime = time;
+        }
+
+        @Override
+        public boolean discardable() {
+            return !(command instanceof Future);
+        }
+
+        @Override
+        public String toString() {
+            return command.toString();
+        }
+    }
+
+    private static final class PriorityFuture<T> extends FutureTask<T> implements Prioritized {
+        private final int priority;
+        private final long sequence;
+        private final String label;
+        private final long submitTime = System.nanoTime();
+        private long startTime;
+
+        PriorityFuture(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+            this.label = ExecutorMetrics.labelOf(callable);
+        }
+
+        PriorityFuture(Runnable runnable, T result, int priority, long sequence) {
+            super(runnable, result);
+            this.priority = priority;
+            this.sequence = sequence;
+            this.label = ExecutorMetrics.labelOf(runnable);
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public long sequence() {
+            return sequence;
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        public long submitTime() {
+            return submitTime;
+        }
+
+        @Override
+        public long startTime() {
+            return startTime;
+        }
+
+        @Override
+        public void setStartTime(long time) {
+            startTime = time;
+        }
+
+        @Override
+        public boolean discardable() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded blocking queue of the tasks of {@link PriorityExecutor}.
+ * The task with the highest priority is taken first, the tasks
+ * of the same priority are taken in the order they were added.
+ *
+ * <p>Unlike {@link java.util.concurrent.PriorityBlockingQueue}, the queue
+ * holds at most {@code capacity} tasks, {@link #offer} returns false
+ * when it is full, so the executor rejects the task. The rejection policy
+ * may replace a queued task by {@link #offerOrReplaceLowest}, or add it
+ * beyond the capacity by {@link #forceOffer}.
+ *
+ * @since 1.2
+ */
+final class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    /** The higher priority first, then the earlier task first */
+    static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable lhs, Runnable rhs) {
+            PriorityExecutor.Prioritized left = (PriorityExecutor.Prioritized) lhs;
+            PriorityExecutor.Prioritized right = (PriorityExecutor.Prioritized) rhs;
+            if (left.priority() != right.priority()) {
+                return left.priority() > right.priority() ? -1 : 1;
+            }
+            return left.sequence() < right.sequence() ? -1 : (left.sequence() == right.sequence() ? 0 : 1);
+        }
+    };
+
+    private final int capacity;
+    private final PriorityQueue<Runnable> queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Creates a new {@link PriorityTaskQueue}
+     *
+     * @param capacity the maximum number of tasks
+     */
+    PriorityTaskQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0");
+        }
+        this.capacity = capacity;
+        this.queue = new PriorityQueue<>(Math.min(capacity, 64), ORDER);
+    }
+
+    /**
+     * Returns the maximum number of tasks
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        checkTask(task);
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            queue.offer(task);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        checkTask(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            queue.offer(task);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        checkTask(task);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            queue.offer(task);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the task, if the queue is not full. Otherwise replaces the queued
+     * task with the lowest priority, which may be discarded, see
+     * {@link PriorityExecutor.Prioritized#discardable}, if the specified task
+     * has a higher priority.
+     *
+     * @param task the task to add
+     * @return the task, which was not queued: the replaced one,
+     *         the specified one, or null if the queue was not full
+     */
+    Runnable offerOrReplaceLowest(Runnable task) {
+        checkTask(task);
+        lock.lock();
+        try {
+            if (queue.size() < capacity) {
+                queue.offer(task);
+                notEmpty.signal();
+                return null;
+            }
+
+            // the heap does not keep the lowest task at a known place,
+            // but the queue is bounded, so the scan is short
+            Runnable lowest = null;
+            for (Runnable queued : queue) {
+                if (!((PriorityExecutor.Prioritized) queued).discardable()) {
+                    continue;
+                }
+                if (lowest == null || ORDER.compare(queued, lowest) > 0) {
+                    lowest = queued;
+                }
+            }
+            if (lowest == null || ORDER.compare(task, lowest) >= 0) {
+                return task;
+            }
+            queue.remove(lowest);
+            queue.offer(task);
+            notEmpty.signal();
+            return lowest;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the task, even if the queue is full
+     *
+     * @param task the task to add
+     */
+    void forceOffer(Runnable task) {
+        checkTask(task);
+        lock.lock();
+        try {
+            queue.offer(task);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            // the forced tasks may exceed the capacity
+            return Math.max(capacity - queue.size(), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            boolean removed = queue.remove(task);
+            if (removed) {
+                notFull.signal();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object task) {
+        lock.lock();
+        try {
+            return queue.contains(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            queue.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException("c == null");
+        }
+        if (c == this) {
+            throw new IllegalArgumentException("c == this");
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !queue.isEmpty()) {
+                c.add(queue.poll());
+                count++;
+            }
+            if (count > 0) {
+                notFull.signalAll();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the iterator over the copy of the tasks, in no particular order
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<>(queue).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] toArray() {
+        lock.lock();
+        try {
+            return queue.toArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a) {
+        lock.lock();
+        try {
+            return queue.toArray(a);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        Runnable task = queue.poll();
+        if (task != null) {
+            notFull.signal();
+        }
+        return task;
+    }
+
+    private static void checkTask(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        if (!(task instanceof PriorityExecutor.Prioritized)) {
+            throw new IllegalArgumentException("task is not prioritized: " + task);
+        }
+    }
+}
@@ -0,0 +1,660 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of a background work, which will be available later.
+ * The stages are chained without blocking a thread between them,
+ * each stage runs when the previous one completes:
+ *
+ * <pre>
+ *     Client.executeAsync(request)
+ *             .map(new Promise.Function&lt;Response, JsonObject&gt;() {
+ *                 public JsonObject apply(Response response) throws Exception {
+ *                     return response.asJson();
+ *                 }
+ *             }, ThreadExecutor.cpuExecutor())
+ *             .timeout(30, TimeUnit.SECONDS)
+ *             .onComplete(listener, mainThreadExecutor);
+ * </pre>
+ *
+ * <p>A stage without an executor runs on the thread, which completed
+ * the previous stage, so it must be short. A failure skips the next
+ * stages up to {@link #recover} or {@link #onComplete}.
+ *
+ * <p>{@link #cancel Cancellation} fails the promise with
+ * {@link CancellationException} and cancels the work, which it waits for:
+ * the background task or the previous stages.
+ *
+ * @since 1.2
+ */
+public class Promise<T> implements Future<T> {
+    /** Runs the stages on the thread, which completed the previous stage */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private volatile int state = PENDING;
+    private T value;
+    private Throwable error;
+    /** The callbacks, which wait for the completion, null after it */
+    private ArrayList<Runnable> callbacks = new ArrayList<>(2);
+    /** The work, which is cancelled with this promise */
+    private volatile Future<?> source;
+
+    /**
+     * Creates a new pending {@link Promise}, which is completed
+     * by {@link #complete} or {@link #fail}
+     */
+    public Promise() {
+    }
+
+    /**
+     * Returns the promise, which has succeeded with the value
+     */
+    public static <T> Promise<T> of(T value) {
+        Promise<T> promise = new Promise<>();
+        promise.complete(value);
+        return promise;
+    }
+
+    /**
+     * Returns the promise, which has failed with the error
+     */
+    public static <T> Promise<T> failed(Throwable error) {
+        Promise<T> promise = new Promise<>();
+        promise.fail(error);
+        return promise;
+    }
+
+    /**
+     * Runs the task on the executor and returns the promise of its result.
+     * The cancellation of the promise cancels the task, the cancellation
+     * of the task, e.g. by the rejection policy of the executor,
+     * cancels the promise.
+     *
+     * @param task     the task to run
+     * @param executor the executor to run the task on
+     */
+    public static <T> Promise<T> submit(Callable<T> task, Executor executor) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        Promise<T> promise = new Promise<>();
+        PromiseTask<T> future = new PromiseTask<>(task, promise);
+        promise.source = future;
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            promise.fail(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Returns the promise of the values of all promises, in the same order.
+     * It fails with the first failure of them.
+     */
+    public static <T> Promise<List<T>> all(final List<? extends Promise<? extends T>> promises) {
+        final Promise<List<T>> result = new Promise<>();
+        final Object[] values = new Object[promises.size()];
+        final AtomicInteger remaining = new AtomicInteger(promises.size());
+        if (promises.isEmpty()) {
+            result.complete(new ArrayList<T>(0));
+            return result;
+        }
+        result.listen(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    for (Promise<? extends T> promise : promises) {
+                        promise.cancel(false);
+                    }
+                }
+            }
+        }, DIRECT);
+
+        for (int i = 0; i < promises.size(); i++) {
+            final int index = i;
+            final Promise<? extends T> promise = promises.get(i);
+            promise.listen(new Runnable() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    if (promise.state != SUCCEEDED) {
+                        result.finish(promise.state == CANCELLED ? FAILED : promise.state, null, promise.error);
+                        return;
+                    }
+                    values[index] = promise.value;
+                    if (remaining.decrementAndGet() == 0) {
+                        ArrayList<T> list = new ArrayList<>(values.length);
+                        for (Object value : values) {
+                            list.add((T) value);
+                        }
+                        result.complete(list);
+                    }
+                }
+            }, DIRECT);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the promise of the values of both promises,
+     * combined by the function
+     */
+    public static <A, B, R> Promise<R> zip(final Promise<A> first, final Promise<B> second,
+                                           final Combiner<? super A, ? super B, ? extends R> combiner) {
+        return all(Arrays.<Promise<?>>asList(first, second)).map(new Function<List<Object>, R>() {
+            @Override
+            public R apply(List<Object> values) throws Exception {
+                return combiner.combine(first.value, second.value);
+            }
+        });
+    }
+
+    /**
+     * Completes this promise with the value, if it is pending
+     *
+     * @return true, if this call has completed the promise
+     */
+    public boolean complete(T value) {
+        return finish(SUCCEEDED, value, null);
+    }
+
+    /**
+     * Fails this promise with the error, if it is pending
+     *
+     * @return true, if this call has completed the promise
+     */
+    public boolean fail(Throwable error) {
+        if (error == null) {
+            throw new NullPointerException("error == null");
+        }
+        return finish(FAILED, null, error);
+    }
+
+    /**
+     * Fails this promise with {@link CancellationException}, if it is pending,
+     * and cancels the work, which it waits for
+     *
+     * @param mayInterruptIfRunning true to interrupt the thread of the background task
+     * @return true, if this call has cancelled the promise
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!finish(CANCELLED, null, new CancellationException("Promise was cancelled"))) {
+            return false;
+        }
+        Future<?> source = this.source;
+        if (source != null) {
+            source.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the promise of the value, transformed by the function
+     * on the thread, which completed this promise
+     */
+    public <R> Promise<R> map(Function<? super T, ? extends R> function) {
+        return map(function, DIRECT);
+    }
+
+    /**
+     * Returns the promise of the value, transformed by the function
+     * on the executor
+     */
+    public <R> Promise<R> map(final Function<? super T, ? extends R> function, Executor executor) {
+        final Promise<R> next = new Promise<>();
+        next.source = this;
+        listen(new Stage<R>(next, executor) {
+            @Override
+            void onSuccess(T value) throws Exception {
+                next.complete(function.apply(value));
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Returns the promise of the result of the next async work, which is
+     * started by the function on the thread, which completed this promise
+     */
+    public <R> Promise<R> flatMap(Function<? super T, ? extends Promise<R>> function) {
+        return flatMap(function, DIRECT);
+    }
+
+    /**
+     * Returns the promise of the result of the next async work, which is
+     * started by the function on the executor
+     */
+    public <R> Promise<R> flatMap(final Function<? super T, ? extends Promise<R>> function, Executor executor) {
+        final Promise<R> next = new Promise<>();
+        next.source = this;
+        listen(new Stage<R>(next, executor) {
+            @Override
+            void onSuccess(T value) throws Exception {
+                final Promise<R> inner = function.apply(value);
+                next.source = inner;
+                inner.listen(new Runnable() {
+                    @Override
+                    public void run() {
+                        next.finish(inner.state, inner.value, inner.error);
+                    }
+                }, DIRECT);
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Returns the promise, which replaces the failure of this promise
+     * with the value of the function. The cancellation is not recovered.
+     */
+    public Promise<T> recover(final Function<? super Throwable, ? extends T> function) {
+        final Promise<T> next = new Promise<>();
+        next.source = this;
+        listen(new Runnable() {
+            @Override
+            public void run() {
+                if (state == FAILED) {
+                    try {
+                        next.complete(function.apply(error));
+                    } catch (Throwable e) {
+                        next.fail(e);
+                    }
+                } else {
+                    next.finish(state, value, error);
+                }
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Fails this promise with {@link TimeoutException} and cancels
+     * the work, which it waits for, if it is not completed in time
+     *
+     * @return this promise
+     */
+    public Promise<T> timeout(final long timeout, final TimeUnit unit) {
+        if (isDone()) {
+            return this;
+        }
+        final ScheduledTask timer = ThreadExecutor.scheduleOnCpu(new Runnable() {
+            @Override
+            public void run() {
+                if (fail(new TimeoutException("Promise timed out after " + timeout + " " + unit))) {
+                    Future<?> source = Promise.this.source;
+                    if (source != null) {
+                        source.cancel(true);
+                    }
+                }
+            }
+        }, timeout, unit);
+        listen(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel();
+            }
+        }, DIRECT);
+        return this;
+    }
+
+    /**
+     * Calls the listener, when this promise completes, on the thread,
+     * which completed it
+     *
+     * @return this promise
+     */
+    public Promise<T> onComplete(Listener<? super T> listener) {
+        return onComplete(listener, DIRECT);
+    }
+
+    /**
+     * Calls the listener on the executor, when this promise completes
+     *
+     * @return this promise
+     */
+    public Promise<T> onComplete(final Listener<? super T> listener, Executor executor) {
+        listen(new Runnable() {
+            @Override
+            public void run() {
+                if (state == SUCCEEDED) {
+                    listener.onSuccess(value);
+                } else {
+                    listener.onFailure(error);
+                }
+            }
+        }, executor);
+        return this;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * Returns true, if this promise has succeeded
+     */
+    public boolean isSucceeded() {
+        return state == SUCCEEDED;
+    }
+
+    /**
+     * Returns the error, if this promise has failed or was cancelled, null otherwise
+     */
+    public Throwable error() {
+        return state == SUCCEEDED ? null : error;
+    }
+
+    /**
+     * Waits for the value. Use the stages instead, where possible.
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (state == PENDING) {
+                wait();
+            }
+        }
+        return report();
+    }
+
+    /**
+     * Waits for the value for the specified time.
+     * Use {@link #timeout} and the stages instead, where possible.
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (state == PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return report();
+    }
+
+    @Override
+    public String toString() {
+        switch (state) {
+            case SUCCEEDED:
+                return "Promise[succeeded=" + value + "]";
+            case FAILED:
+                return "Promise[failed=" + error + "]";
+            case CANCELLED:
+                return "Promise[cancelled]";
+            default:
+                return "Promise[pending]";
+        }
+    }
+
+    /**
+     * Runs the callback on the executor, when this promise completes
+     */
+    void listen(Runnable callback, Executor executor) {
+        Runnable task = executor == DIRECT ? callback : new Dispatch(callback, executor);
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private boolean finish(int state, T value, Throwable error) {
+        ArrayList<Runnable> callbacks;
+        synchronized (this) {
+            if (this.state != PENDING) {
+                return false;
+            }
+            this.value = value;
+            this.error = error;
+            this.state = state;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+            notifyAll();
+        }
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    private T report() throws ExecutionException {
+        switch (state) {
+            case SUCCEEDED:
+                return value;
+            case CANCELLED:
+                throw (CancellationException) error;
+            default:
+                throw new ExecutionException(error);
+        }
+    }
+
+    /**
+     * The transformation of a value
+     */
+    public interface Function<A, R> {
+        R apply(A value) throws Exception;
+    }
+
+    /**
+     * The combination of two values
+     */
+    public interface Combiner<A, B, R> {
+        R combine(A first, B second) throws Exception;
+    }
+
+    /**
+     * The callback of the completion
+     */
+    public interface Listener<T> {
+        void onSuccess(T value);
+
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * The stage, which runs on its executor on the success of this promise,
+     * and passes the failures and the exceptions to the next promise.
+     * If the executor rejects or discards the stage, the next promise
+     * fails or is cancelled, so it never stays pending.
+     */
+    private abstract class Stage<R> implements Runnable {
+        private final Promise<R> next;
+        private final Executor executor;
+
+        Stage(Promise<R> next, Executor executor) {
+            this.next = next;
+            this.executor = executor;
+        }
+
+        abstract void onSuccess(T value) throws Exception;
+
+        @Override
+        public void run() {
+            if (state != SUCCEEDED) {
+                next.finish(state, null, error);
+                return;
+            }
+            if (next.isDone()) {
+                // cancelled, while this promise was pending
+                return;
+            }
+
+            Runnable apply = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onSuccess(value);
+                    } catch (Throwable e) {
+                        next.fail(e);
+                    }
+                }
+            };
+            new CallbackTask(apply) {
+                @Override
+                void onRejected(RejectedExecutionException e) {
+                    next.fail(e);
+                }
+
+                @Override
+                void onCancelled() {
+                    next.cancel(false);
+                }
+            }.executeOn(executor);
+        }
+    }
+
+    /**
+     * Runs the callback on the executor. If the executor rejects
+     * or discards it, the callback runs on the current thread,
+     * so a listener is never lost.
+     */
+    private static final class Dispatch implements Runnable {
+        private final Runnable callback;
+        private final Executor executor;
+
+        Dispatch(Runnable callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            new CallbackTask(callback) {
+                @Override
+                void onRejected(RejectedExecutionException e) {
+                    callback.run();
+                }
+
+                @Override
+                void onCancelled() {
+                    callback.run();
+                }
+            }.executeOn(executor);
+        }
+    }
+
+    /**
+     * The callback, which is passed to an executor as a {@link Future},
+     * so the rejection policies cancel it instead of dropping it silently
+     */
+    private abstract static class CallbackTask extends FutureTask<Void> implements Labeled {
+        private final String label;
+
+        CallbackTask(Runnable callback) {
+            super(callback, null);
+            this.label = ExecutorMetrics.labelOf(callback);
+        }
+
+        /** Called, if the executor throws {@link RejectedExecutionException} */
+        abstract void onRejected(RejectedExecutionException e);
+
+        /** Called, if the task is cancelled before it runs, e.g. discarded by the executor */
+        abstract void onCancelled();
+
+        void executeOn(Executor executor) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                onRejected(e);
+            }
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                onCancelled();
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException e) {
+                // a listener threw, like the direct callbacks in finish()
+                e.getCause().printStackTrace();
+            } catch (InterruptedException e) {
+                // done, so get() does not wait
+            }
+        }
+    }
+
+    /**
+     * The background task of {@link #submit}
+     */
+    private static final class PromiseTask<T> extends FutureTask<Void> implements Labeled {
+        private final Promise<T> promise;
+        private final String label;
+
+        PromiseTask(final Callable<T> task, final Promise<T> promise) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        promise.complete(task.call());
+                    } catch (Throwable e) {
+                        promise.fail(e);
+                    }
+                }
+            }, null);
+            this.promise = promise;
+            this.label = ExecutorMetrics.labelOf(task);
+        }
+
+        @Override
+        public String label() {
+            return label;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                promise.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The handle of a task, which was scheduled by {@link TaskScheduler},
+ * to cancel it or to check its state.
+ *
+ * <p>When the task is due, it is handed to its executor. The task is
+ * coalesced: while the previous run is queued or running, the next
+ * runs are skipped, so a slow periodic task never piles up in the queue.
+ *
+ * <p>If the executor rejects the run, or cancels it, e.g. on its shutdown,
+ * the run is counted by {@link #rejectCount}: a periodic task runs again
+ * in the next period, and a one-shot task is done with the failure,
+ * see {@link #getFailure}.
+ *
+ * @since 1.2
+ */
+public final class ScheduledTask {
+    private final TaskScheduler scheduler;
+    private final Runnable command;
+    private final Executor executor;
+    /** The period in nanos, or 0 for a one-shot task */
+    private final long period;
+    /** True, while a run is queued in the executor or running */
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong skipCount = new AtomicLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile Throwable failure;
+    private volatile Run current;
+
+    /** The time of the next run by {@link System#nanoTime}, guarded by the scheduler */
+    long time;
+    /** The order of scheduling, for the tasks of the same time, guarded by the scheduler */
+    long sequence;
+
+    ScheduledTask(TaskScheduler scheduler, Runnable command, Executor executor,
+                  long time, long period) {
+        this.scheduler = scheduler;
+        this.command = command;
+        this.executor = executor;
+        this.time = time;
+        this.period = period;
+    }
+
+    /**
+     * Cancels the next runs of this task. The run, which is queued
+     * in the executor, is cancelled too, the running one is not interrupted.
+     *
+     * @return false, if this task is already cancelled or done
+     */
+    public boolean cancel() {
+        if (cancelled || done) {
+            return false;
+        }
+        cancelled = true;
+        scheduler.remove(this);
+
+        Run run = current;
+        if (run != null) {
+            run.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true, if {@link #cancel} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns true, if this task is cancelled, or it is a one-shot task,
+     * which has run
+     */
+    public boolean isDone() {
+        return done || cancelled;
+    }
+
+    /**
+     * Returns true, if this task runs periodically
+     */
+    public boolean isPeriodic() {
+        return period != 0;
+    }
+
+    /**
+     * Returns the number of the completed runs
+     */
+    public long runCount() {
+        return runCount.get();
+    }
+
+    /**
+     * Returns the number of runs, which were skipped,
+     * because the previous run was still queued or running
+     */
+    public long skipCount() {
+        return skipCount.get();
+    }
+
+    /**
+     * Returns the number of runs, which the executor rejected, or cancelled
+     * before they started
+     */
+    public long rejectCount() {
+        return rejectCount.get();
+    }
+
+    /**
+     * Returns the reason, why the one-shot task is done without a run:
+     * the {@link RejectedExecutionException} of the executor, or a
+     * {@link CancellationException}, if the executor cancelled the run.
+     * Returns null, if the task has run, is not yet done, or is periodic.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns the time until the next run, or 0 if it is due
+     *
+     * @param unit the unit of the result
+     */
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(Math.max(0, scheduler.timeOf(this) - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScheduledTask[command=%s,periodic=%b,runs=%d,skips=%d,rejects=%d,cancelled=%b]",
+                command, isPeriodic(), runCount(), skipCount(), rejectCount(), cancelled);
+    }
+
+    long period() {
+        return period;
+    }
+
+    /**
+     * Hands this task to its executor, called by the timer thread, when it is due
+     */
+    void fire() {
+        if (cancelled) {
+            return;
+        }
+        if (!pending.compareAndSet(false, true)) {
+            skipCount.incrementAndGet();
+            return;
+        }
+
+        Run run = new Run();
+        current = run;
+        try {
+            executor.execute(run);
+        } catch (RejectedExecutionException e) {
+            current = null;
+            pending.set(false);
+            rejected(e);
+        }
+    }
+
+    /**
+     * Counts the run, which did not start. A one-shot task will never run,
+     * so it is done with the failure, a periodic one runs in the next period
+     */
+    private void rejected(Throwable cause) {
+        rejectCount.incrementAndGet();
+        if (period == 0) {
+            failure = cause;
+            done = true;
+            scheduler.remove(this);
+        }
+        cause.printStackTrace();
+    }
+
+    /**
+     * The single run of the task. A periodic task keeps running after
+     * an exception, the exception is printed.
+     */
+    private final class Run extends FutureTask<Void> implements Labeled {
+        Run() {
+            super(command, null);
+        }
+
+        @Override
+        public String label() {
+            return ExecutorMetrics.labelOf(command);
+        }
+
+        @Override
+        protected void done() {
+            current = null;
+            pending.set(false);
+            if (isCancelled()) {
+                if (!cancelled) {
+                    // not by ScheduledTask.cancel, e.g. by the policy of the executor
+                    rejected(new CancellationException("the run of " + command + " was cancelled by the executor"));
+                }
+                return;
+            }
+
+            runCount.incrementAndGet();
+            try {
+                get();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (InterruptedException | CancellationException ignored) {
+                // the run is already done
+            }
+            if (period == 0) {
+                done = true;
+            }
+        }
+    }
+}
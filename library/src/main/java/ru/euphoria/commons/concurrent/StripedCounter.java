@@ -0,0 +1,109 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@code long} counter for frequent updates from many threads.
+ *
+ * <p>Like {@code LongAdder} of Java 8, the counter starts as a single
+ * base value. When two threads collide on it, the value is spread over
+ * several cells, each thread adds to the cell chosen by its id. So the
+ * concurrent updates rarely touch the same cell, unlike a single
+ * {@link AtomicLong}, and a counter, which is never contended, costs
+ * a few bytes. The cells are padded to separate cache lines. Reading
+ * sums all cells and never blocks the updates, but the sum is not
+ * an atomic snapshot.
+ *
+ * @since 1.2
+ */
+public final class StripedCounter {
+    /** The distance between cells in longs, 64 bytes */
+    private static final int PADDING = 8;
+    /** The number of cells, a power of two */
+    static final int STRIPES = stripes();
+
+    private final AtomicLong base = new AtomicLong();
+    /** Created on the first contention on {@link #base} */
+    private volatile AtomicLongArray cells;
+
+    /**
+     * Adds one to the counter
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds the specified value to the counter
+     *
+     * @param delta the value to add, may be negative
+     */
+    public void add(long delta) {
+        AtomicLongArray cells = this.cells;
+        if (cells == null) {
+            long value = base.get();
+            if (base.compareAndSet(value, value + delta)) {
+                return;
+            }
+            cells = createCells();
+        }
+        cells.addAndGet(index() * PADDING, delta);
+    }
+
+    /**
+     * Returns the current sum of the counter
+     */
+    public long sum() {
+        long sum = base.get();
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Resets the counter to zero. The concurrent updates may be lost.
+     */
+    public void reset() {
+        base.set(0);
+        AtomicLongArray cells = this.cells;
+        if (cells != null) {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PADDING, 0);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    private synchronized AtomicLongArray createCells() {
+        if (cells == null) {
+            cells = new AtomicLongArray(STRIPES * PADDING);
+        }
+        return cells;
+    }
+
+    /**
+     * Returns the index of the cell of the current thread, below {@link #STRIPES}
+     */
+    static int index() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash >>> 16) & (STRIPES - 1);
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < ThreadExecutor.CPU_COUNT * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,207 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tasks after a delay or periodically. A single timer thread
+ * waits for the next due task and hands it to the executor of the task,
+ * so the waiting does not hold a thread per task, like a loop
+ * with {@link Thread#sleep} does.
+ *
+ * <pre>
+ *     ScheduledTask refresh = scheduler.scheduleAtFixedRate(refreshToken,
+ *             0, 30, TimeUnit.MINUTES, executor);
+ *     ...
+ *     refresh.cancel();
+ * </pre>
+ *
+ * <p>The time is measured by {@link System#nanoTime}, so it does not jump
+ * with the wall clock. A periodic task keeps its rate: if it was delayed
+ * for several periods, the missed runs are skipped, not run in a burst.
+ * See {@link ScheduledTask} for the coalescing of slow runs.
+ *
+ * @since 1.2
+ */
+public class TaskScheduler {
+    private static final Comparator<ScheduledTask> ORDER = new Comparator<ScheduledTask>() {
+        @Override
+        public int compare(ScheduledTask lhs, ScheduledTask rhs) {
+            long diff = lhs.time - rhs.time;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    private final String name;
+    private final PriorityQueue<ScheduledTask> queue = new PriorityQueue<>(16, ORDER);
+    private long sequence;
+    private Thread thread;
+    private boolean shutdown;
+
+    /**
+     * Creates a new {@link TaskScheduler}. The timer thread
+     * starts on the first scheduled task.
+     *
+     * @param name the name of the timer thread
+     */
+    public TaskScheduler(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the task once after the delay
+     *
+     * @param command  the code to run
+     * @param delay    the delay, 0 to run now
+     * @param unit     the unit of the delay
+     * @param executor the executor to run the task on
+     * @return the handle to cancel the task
+     */
+    public ScheduledTask schedule(Runnable command, long delay, TimeUnit unit, Executor executor) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay < 0");
+        }
+        return enqueue(command, unit.toNanos(delay), 0, executor);
+    }
+
+    /**
+     * Runs the task periodically. The runs start at {@code initialDelay},
+     * then {@code initialDelay + period} and so on.
+     *
+     * @param command      the code to run
+     * @param initialDelay the delay of the first run
+     * @param period       the period between the starts of the runs
+     * @param unit         the unit of the delays
+     * @param executor     the executor to run the task on
+     * @return the handle to cancel the task
+     */
+    public ScheduledTask scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                                             TimeUnit unit, Executor executor) {
+        if (initialDelay < 0) {
+            throw new IllegalArgumentException("initialDelay < 0");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period <= 0");
+        }
+        return enqueue(command, unit.toNanos(initialDelay), unit.toNanos(period), executor);
+    }
+
+    /**
+     * Returns the number of the scheduled tasks
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * Cancels all tasks and stops the timer thread.
+     * The tasks, which are already handed to executors, still run.
+     */
+    public void shutdown() {
+        ArrayList<ScheduledTask> tasks;
+        synchronized (this) {
+            shutdown = true;
+            tasks = new ArrayList<>(queue);
+            notifyAll();
+        }
+        for (ScheduledTask task : tasks) {
+            task.cancel();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("TaskScheduler[name=%s,tasks=%d]", name, queue.size());
+    }
+
+    synchronized void remove(ScheduledTask task) {
+        queue.remove(task);
+    }
+
+    synchronized long timeOf(ScheduledTask task) {
+        return task.time;
+    }
+
+    private ScheduledTask enqueue(Runnable command, long delay, long period, Executor executor) {
+        if (command == null || executor == null) {
+            throw new NullPointerException("command == null || executor == null");
+        }
+
+        ScheduledTask task = new ScheduledTask(this, command, executor, System.nanoTime() + delay, period);
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("Scheduler is shut down");
+            }
+            task.sequence = sequence++;
+            queue.offer(task);
+            if (thread == null) {
+                thread = new LowThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                });
+                thread.setName(name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            if (queue.peek() == task) {
+                // the timer waits for a later task
+                notifyAll();
+            }
+        }
+        return task;
+    }
+
+    private void loop() {
+        ArrayList<ScheduledTask> due = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                while (true) {
+                    if (shutdown) {
+                        return;
+                    }
+                    ScheduledTask head = queue.peek();
+                    long delay = head == null ? 0 : head.time - System.nanoTime();
+                    if (head != null && delay <= 0) {
+                        break;
+                    }
+                    try {
+                        if (head == null) {
+                            wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(this, delay);
+                        }
+                    } catch (InterruptedException e) {
+                        // keep the timer running, only shutdown stops it
+                    }
+                }
+
+                long now = System.nanoTime();
+                ScheduledTask head;
+                while ((head = queue.peek()) != null && head.time - now <= 0) {
+                    queue.poll();
+                    due.add(head);
+                    if (head.period() != 0 && !head.isCancelled()) {
+                        // keep the rate, skip the runs, which were missed
+                        long periods = (now - head.time) / head.period() + 1;
+                        head.time += periods * head.period();
+                        queue.offer(head);
+                    }
+                }
+            }
+
+            // outside of the lock, the executors may be slow or reject
+            for (ScheduledTask task : due) {
+                task.fire();
+            }
+            due.clear();
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package ru.euphoria.commons.concurrent;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple thread executor
@@ -13,20 +14,50 @@ import java.util.concurrent.ThreadFactory;
 public class ThreadExecutor {
     /** Number of processor cores available */
     public static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-    /** Thread executor for execute on background with low priority */
-    private static final Executor cpuExecutor = Executors.newFixedThreadPool(CPU_COUNT + 1, new PriorityThreadFactory());
+    /** The maximum number of workers of {@link #execute}, they mostly wait for I/O */
+    public static final int POOL_SIZE = Math.max(4, CPU_COUNT * 2);
+    /** The number of tasks, which wait for a worker of {@link #execute}, above which the queue grows */
+    public static final int QUEUE_CAPACITY = 256;
+    /** The work-stealing executor of {@link #executeOnCpu}, one {@link LowThread} per core */
+    private static final WorkStealingExecutor cpuExecutor = new WorkStealingExecutor(CPU_COUNT);
+    /** The bounded executor of {@link #execute}, see {@link PriorityExecutor} */
+    private static final PriorityExecutor executor = new PriorityExecutor(POOL_SIZE, QUEUE_CAPACITY,
+            new PriorityExecutor.GrowQueuePolicy());
+    /** The timer of {@link #schedule}, which hands the due tasks to the executors above */
+    private static final TaskScheduler scheduler = new TaskScheduler("ThreadExecutor-timer");
 
     /**
-     * Execute runnable with {@link Executor} on {@link LowThread}
+     * Execute runnable with {@link PriorityExecutor#PRIORITY_NORMAL} on one of
+     * {@link #POOL_SIZE} {@link LowThread}s. When {@link #QUEUE_CAPACITY} tasks
+     * already wait, the task is queued anyway, so no task is dropped
+     * or run on the calling thread, see {@link PriorityExecutor.GrowQueuePolicy}.
+     *
+     * <p>The pool is shared by the whole app and has only {@link #POOL_SIZE}
+     * workers. A task, which blocks for long, e.g. waits for a socket without
+     * a timeout or for another task of this pool, holds one of them all
+     * the time, and a few such tasks stall all background work of the app.
      *
      * @param command is the code you need to execute in a background
      */
     public static void execute(Runnable command) {
-        new LowThread(command).start();
+        executor.execute(command);
+    }
+
+    /**
+     * Execute runnable with the specified priority, the queued tasks
+     * with the higher priority run first
+     *
+     * @param command  the code to execute in a background
+     * @param priority the priority of the task, e.g. {@link PriorityExecutor#PRIORITY_HIGH}
+     *                 for the work, which the user waits for
+     */
+    public static void execute(Runnable command, int priority) {
+        executor.execute(command, priority);
     }
 
     /**
-     * Execute runnable with {@link Executor} on cpu threads
+     * Execute runnable on cpu threads, see {@link WorkStealingExecutor}.
+     * Use it for short cpu-bound tasks, e.g. parsing, not for I/O.
      *
      * @param command the code to execute in a background
      */
@@ -34,6 +65,139 @@ public class ThreadExecutor {
         cpuExecutor.execute(command);
     }
 
+    /**
+     * Runs the recursive task on cpu threads and waits for its result
+     *
+     * @param task the task, which forks its parts
+     * @return the result of the task
+     */
+    public static <V> V invokeOnCpu(ForkTask<V> task) {
+        return cpuExecutor.invoke(task);
+    }
+
+    /**
+     * Submits the task like {@link #execute(Runnable)}
+     *
+     * @param task the code to execute in a background
+     * @return the promise of the result of the task
+     */
+    public static <T> Promise<T> submit(Callable<T> task) {
+        return Promise.submit(task, executor);
+    }
+
+    /**
+     * Submits the task like {@link #execute(Runnable, int)}
+     *
+     * @param task     the code to execute in a background
+     * @param priority the priority of the task, e.g. {@link PriorityExecutor#PRIORITY_HIGH}
+     * @return the promise of the result of the task
+     */
+    public static <T> Promise<T> submit(Callable<T> task, final int priority) {
+        return Promise.submit(task, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(command, priority);
+            }
+        });
+    }
+
+    /**
+     * Submits the task like {@link #executeOnCpu}
+     *
+     * @param task the code to execute in a background
+     * @return the promise of the result of the task
+     */
+    public static <T> Promise<T> submitOnCpu(Callable<T> task) {
+        return Promise.submit(task, cpuExecutor);
+    }
+
+    /**
+     * Returns the statistics of the executor of {@link #execute(Runnable)}.
+     * A deep queue and long wait times mean, that the pool is saturated,
+     * long run times mean, that the tasks are slow, see
+     * {@link ExecutorStats#slowestLabels}.
+     */
+    public static ExecutorStats stats() {
+        return executor.stats();
+    }
+
+    /**
+     * Returns the statistics of the executor of {@link #executeOnCpu}
+     */
+    public static ExecutorStats cpuStats() {
+        return cpuExecutor.stats();
+    }
+
+    /**
+     * Returns the executor of {@link #execute(Runnable)}, e.g. for the stages
+     * of {@link Promise}, which do I/O
+     */
+    public static Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Returns the executor of {@link #executeOnCpu}, e.g. for the stages
+     * of {@link Promise}, which parse
+     */
+    public static Executor cpuExecutor() {
+        return cpuExecutor;
+    }
+
+    /**
+     * Execute runnable like {@link #execute(Runnable)} after the delay
+     *
+     * @param command the code to execute in a background
+     * @param delay   the delay, 0 to execute now
+     * @param unit    the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public static ScheduledTask schedule(Runnable command, long delay, TimeUnit unit) {
+        return scheduler.schedule(command, delay, unit, executor);
+    }
+
+    /**
+     * Execute runnable like {@link #execute(Runnable)} periodically, e.g. to refresh
+     * a token. A run is skipped, while the previous one is queued or running.
+     *
+     * @param command      the code to execute in a background
+     * @param initialDelay the delay of the first run
+     * @param period       the period between the starts of the runs
+     * @param unit         the unit of the delays
+     * @return the handle to cancel the task
+     */
+    public static ScheduledTask scheduleAtFixedRate(Runnable command, long initialDelay,
+                                                    long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(command, initialDelay, period, unit, executor);
+    }
+
+    /**
+     * Execute runnable like {@link #executeOnCpu} after the delay
+     *
+     * @param command the code to execute in a background
+     * @param delay   the delay, 0 to execute now
+     * @param unit    the unit of the delay
+     * @return the handle to cancel the task
+     */
+    public static ScheduledTask scheduleOnCpu(Runnable command, long delay, TimeUnit unit) {
+        return scheduler.schedule(command, delay, unit, cpuExecutor);
+    }
+
+    /**
+     * Execute runnable like {@link #executeOnCpu} periodically, e.g. to clean up
+     * a cache. A run is skipped, while the previous one is queued or running.
+     *
+     * @param command      the code to execute in a background
+     * @param initialDelay the delay of the first run
+     * @param period       the period between the starts of the runs
+     * @param unit         the unit of the delays
+     * @return the handle to cancel the task
+     */
+    public static ScheduledTask scheduleAtFixedRateOnCpu(Runnable command, long initialDelay,
+                                                         long period, TimeUnit unit) {
+        return scheduler.scheduleAtFixedRate(command, initialDelay, period, unit, cpuExecutor);
+    }
+
     /**
      * Thread factory for execute thread with low priority
      */
@@ -0,0 +1,425 @@
+package ru.euphoria.commons.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The executor for short cpu-bound tasks, e.g. parsing, where each
+ * {@link LowThread} worker has its own queues, instead of one queue,
+ * which all producers and workers contend for.
+ *
+ * <p>The tasks, which are executed from other threads, are spread over
+ * the workers round-robin and run in the order they were executed.
+ * The tasks, which a worker forks, are pushed to its own deque: the worker
+ * takes them back in the reverse order, the latest and the smallest first,
+ * while the idle workers steal the oldest and the largest ones from
+ * the other end. The workers start on the first task.
+ *
+ * <p>The recursive tasks are {@link ForkTask}s:
+ *
+ * <pre>
+ *     int sum = executor.invoke(new SumTask(array, 0, array.length));
+ * </pre>
+ *
+ * <p>The uncaught exceptions of plain {@link Runnable}s are printed,
+ * the worker keeps running.
+ *
+ * @since 1.2
+ */
+public class WorkStealingExecutor implements Executor {
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    /** The number of workers, which are parked in {@link #helpJoin} */
+    private final AtomicInteger joinerCount = new AtomicInteger();
+    private final AtomicLong stealCount = new AtomicLong();
+    private final AtomicInteger activeCount = new AtomicInteger();
+    private final ExecutorMetrics metrics = new ExecutorMetrics();
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition workAvailable = idleLock.newCondition();
+    private volatile boolean started;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new {@link WorkStealingExecutor}
+     *
+     * @param parallelism the number of workers, usually the number of cores
+     */
+    public WorkStealingExecutor(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(this, i);
+        }
+    }
+
+    /**
+     * Executes the task on one of the workers. On a worker of this
+     * executor, the task is pushed to its own deque, like {@link ForkTask#fork}.
+     *
+     * @param task the code to execute in a background
+     * @throws RejectedExecutionException if this executor is shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(task, false);
+    }
+
+    /**
+     * Executes the task at the tail of the queue of one of the workers,
+     * like a task executed from another thread, even if the current thread
+     * is a worker of this executor. So the task runs after the queued ones,
+     * e.g. a long drain yields the worker to them.
+     *
+     * @param task the code to execute in a background
+     * @throws RejectedExecutionException if this executor is shut down
+     */
+    void executeFifo(Runnable task) {
+        execute(task, true);
+    }
+
+    private void execute(Runnable task, boolean fifo) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        if (shutdown) {
+            metrics.recordRejected();
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        if (!started) {
+            start();
+        }
+
+        metrics.recordSubmitted();
+        TimedTask timed = new TimedTask(task);
+        Worker current = fifo ? null : currentWorker();
+        if (current != null) {
+            current.pushLocal(timed);
+        } else {
+            int index = (nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+            workers[index].submit(timed);
+        }
+        signalWork();
+    }
+
+    /**
+     * Executes the task and waits for its result. If the current thread
+     * is a worker of this executor, it runs the other tasks while waiting.
+     *
+     * @param task the task to execute
+     * @return the result of the task
+     */
+    public <V> V invoke(ForkTask<V> task) {
+        execute(task);
+        return task.join();
+    }
+
+    /**
+     * Returns the number of workers
+     */
+    public int parallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the number of tasks, which were taken from the queues of other workers
+     */
+    public long stealCount() {
+        return stealCount.get();
+    }
+
+    /**
+     * Returns the number of tasks, which wait in the queues of all workers
+     */
+    public int queuedTaskCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the statistics of this executor: the queue depth, the counts
+     * of tasks, the times, which they waited and ran, and the slowest labels.
+     * The run time of a task, which joins its subtasks, includes the subtasks,
+     * which it ran while waiting.
+     */
+    public ExecutorStats stats() {
+        return metrics.snapshot(queuedTaskCount(), activeCount.get(), started ? workers.length : 0);
+    }
+
+    /**
+     * Rejects new tasks, the workers stop after all queued tasks are done
+     */
+    public void shutdown() {
+        shutdown = true;
+        idleLock.lock();
+        try {
+            workAvailable.signalAll();
+        } finally {
+            idleLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true, if {@link #shutdown} was called
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WorkStealingExecutor[parallelism=%d,queued=%d,active=%d,steals=%d]",
+                workers.length, queuedTaskCount(), activeCount.get(), stealCount());
+    }
+
+    /**
+     * Returns the worker of this executor, which runs the current thread,
+     * or null if the current thread is not a worker of this executor
+     */
+    Worker currentWorker() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker && ((Worker) thread).executor == this) {
+            return (Worker) thread;
+        }
+        return null;
+    }
+
+    /**
+     * Runs the tasks of the worker and the stolen ones until the task is done.
+     * When there is nothing to run, the worker parks, until the task is done
+     * or a new task is queued, e.g. forked by the thief of the joined task.
+     */
+    void helpJoin(Worker worker, ForkTask<?> task) {
+        while (!task.isDone()) {
+            TimedTask next = findJoinTask(worker);
+            if (next == null) {
+                worker.joining = true;
+                joinerCount.incrementAndGet();
+                try {
+                    if (task.addJoiner(worker)) {
+                        // scan again after publishing the joining state,
+                        // so a task, which was queued just before, is not missed
+                        next = findJoinTask(worker);
+                        if (next == null && !task.isDone()) {
+                            LockSupport.park(task);
+                        }
+                        task.removeJoiner(worker);
+                    }
+                } finally {
+                    joinerCount.decrementAndGet();
+                    worker.joining = false;
+                }
+            }
+            if (next != null) {
+                runTask(next);
+            }
+        }
+    }
+
+    private TimedTask findJoinTask(Worker worker) {
+        // the task is usually on top of the own deque,
+        // otherwise it was stolen and the thief may fork more work
+        TimedTask next = worker.pollLocal();
+        if (next == null) {
+            // the tasks submitted to this worker wait for it, unless another worker is idle
+            next = worker.pollSubmitted();
+        }
+        if (next == null) {
+            next = steal(worker);
+        }
+        return next;
+    }
+
+    private synchronized void start() {
+        if (started) {
+            return;
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        started = true;
+    }
+
+    private void signalWork() {
+        if (idleCount.get() > 0) {
+            idleLock.lock();
+            try {
+                workAvailable.signal();
+            } finally {
+                idleLock.unlock();
+            }
+        }
+        if (joinerCount.get() > 0) {
+            for (Worker worker : workers) {
+                if (worker.joining) {
+                    LockSupport.unpark(worker);
+                }
+            }
+        }
+    }
+
+    private void runWorker(Worker worker) {
+        while (true) {
+            TimedTask task = findTask(worker);
+            if (task == null) {
+                idleLock.lock();
+                try {
+                    idleCount.incrementAndGet();
+                    try {
+                        // scan again after publishing the idle state,
+                        // so a task, which was executed just before, is not missed
+                        task = findTask(worker);
+                        if (task == null) {
+                            if (shutdown) {
+                                return;
+                            }
+                            workAvailable.awaitUninterruptibly();
+                        }
+                    } finally {
+                        idleCount.decrementAndGet();
+                    }
+                } finally {
+                    idleLock.unlock();
+                }
+                if (task == null) {
+                    continue;
+                }
+            }
+            runTask(task);
+        }
+    }
+
+    private TimedTask findTask(Worker worker) {
+        TimedTask task = worker.pollLocal();
+        if (task == null) {
+            task = worker.pollSubmitted();
+        }
+        if (task == null) {
+            task = steal(worker);
+        }
+        return task;
+    }
+
+    /**
+     * Takes the oldest task of another worker, starting at a random one
+     */
+    private TimedTask steal(Worker thief) {
+        int start = thief.nextRandom(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            Worker victim = workers[(start + i) % workers.length];
+            if (victim == thief) {
+                continue;
+            }
+            TimedTask task = victim.steal();
+            if (task != null) {
+                stealCount.incrementAndGet();
+                if (victim.size() > 0) {
+                    // there is more work, wake up one more thief
+                    signalWork();
+                }
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void runTask(TimedTask task) {
+        long start = System.nanoTime();
+        activeCount.incrementAndGet();
+        try {
+            task.task.run();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            activeCount.decrementAndGet();
+            metrics.recordCompleted(ExecutorMetrics.labelOf(task.task),
+                    start - task.submitTime, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The queued task and the time, when it was executed
+     */
+    private static final class TimedTask {
+        final Runnable task;
+        final long submitTime = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * The worker with two queues, guarded by the worker itself: the deque
+     * of forked tasks and the queue of the tasks, executed by other threads
+     */
+    static final class Worker extends LowThread {
+        final WorkStealingExecutor executor;
+        /** True, while the worker is parked in {@link WorkStealingExecutor#helpJoin} */
+        volatile boolean joining;
+        private final ArrayDeque<TimedTask> forked = new ArrayDeque<>();
+        private final ArrayDeque<TimedTask> submitted = new ArrayDeque<>();
+        private int seed;
+
+        Worker(WorkStealingExecutor executor, int index) {
+            super();
+            this.executor = executor;
+            this.seed = index * 0x9E3779B9 + 1;
+            setName("WorkStealingExecutor-" + index);
+        }
+
+        @Override
+        public void run() {
+            // sets the background priority
+            super.run();
+            executor.runWorker(this);
+        }
+
+        synchronized void pushLocal(TimedTask task) {
+            forked.addLast(task);
+        }
+
+        synchronized TimedTask pollLocal() {
+            return forked.pollLast();
+        }
+
+        synchronized void submit(TimedTask task) {
+            submitted.addLast(task);
+        }
+
+        synchronized TimedTask pollSubmitted() {
+            return submitted.pollFirst();
+        }
+
+        synchronized TimedTask steal() {
+            TimedTask task = forked.pollFirst();
+            return task != null ? task : submitted.pollFirst();
+        }
+
+        synchronized int size() {
+            return forked.size() + submitted.size();
+        }
+
+        /**
+         * Returns the pseudorandom number from 0 to bound - 1, only called by this worker
+         */
+        int nextRandom(int bound) {
+            // xorshift
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            return (seed & Integer.MAX_VALUE) % bound;
+        }
+    }
+}
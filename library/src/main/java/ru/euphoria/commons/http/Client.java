@@ -5,11 +5,13 @@ import android.os.Build;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.Callable;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -19,6 +21,8 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import ru.euphoria.commons.BuildConfig;
+import ru.euphoria.commons.concurrent.Promise;
+import ru.euphoria.commons.concurrent.ThreadExecutor;
 import ru.euphoria.commons.io.EasyStreams;
 
 /**
@@ -27,7 +31,7 @@ import ru.euphoria.commons.io.EasyStreams;
  * Supports all standard protocols (HTTP, HTTPS, other...).
  *
  * Are requests asynchronous? Yes,
- * use {@link #execute(Request, Request.OnResponseListener)}.
+ * use {@link #executeAsync(Request)}.
  *
  * Support Android 2.2 (Froyo) and older? Yes.
  * Prior to Android 2.2 (Froyo), {@link HttpURLConnection} class
@@ -96,9 +100,16 @@ public class Client {
     }
 
     public static Response execute(Request request) throws IOException {
+        return execute(request, null);
+    }
+
+    private static Response execute(Request request, AsyncCall call) throws IOException {
         HttpURLConnection connection = null;
         try {
             connection = createConnection(request);
+            if (call != null) {
+                call.attach(connection);
+            }
 
             InputStream stream = connection.getInputStream();
             String encoding = connection.getContentEncoding();
@@ -113,6 +124,29 @@ public class Client {
         }
     }
 
+    /**
+     * Executes the request on {@link ThreadExecutor} in a background.
+     * The cancellation or the timeout of the promise disconnects
+     * the running request, so the blocked read fails at once.
+     *
+     * @param request the request to execute
+     * @return the promise of the response
+     */
+    public static Promise<Response> executeAsync(Request request) {
+        final AsyncCall call = new AsyncCall(request);
+        return ThreadExecutor.submit(call).onComplete(new Promise.Listener<Response>() {
+            @Override
+            public void onSuccess(Response value) {
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                // an interrupt doesn't unblock the socket read, the disconnection does
+                call.abort();
+            }
+        });
+    }
+
     /**
      * Creates a new {@link java.net.URLConnection} for specified request.
      */
@@ -128,4 +162,39 @@ public class Client {
         connection.setRequestProperty("Accept-Encoding", "gzip");
         return connection;
     }
+
+    /**
+     * The request of {@link #executeAsync}, which can be aborted from another thread
+     */
+    private static final class AsyncCall implements Callable<Response> {
+        private final Request request;
+        private HttpURLConnection connection;
+        private boolean aborted;
+
+        AsyncCall(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public Response call() throws Exception {
+            return execute(request, this);
+        }
+
+        synchronized void attach(HttpURLConnection connection) throws IOException {
+            if (aborted) {
+                throw new InterruptedIOException("Request was cancelled");
+            }
+            this.connection = connection;
+        }
+
+        void abort() {
+            HttpURLConnection connection;
+            synchronized (this) {
+                aborted = true;
+                connection = this.connection;
+                this.connection = null;
+            }
+            EasyStreams.close(connection);
+        }
+    }
 }
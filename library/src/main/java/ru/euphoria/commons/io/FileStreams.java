@@ -263,6 +263,17 @@ public class FileStreams {
      * @throws FileNotFoundException if file can't be opened for writing
      */
     public static Writer writer(File to) throws FileNotFoundException {
-        return new OutputStreamWriter(new FileOutputStream(to), Charsets.UTF_8);
+        return writer(to, false);
+    }
+
+    /**
+     * Creates a new {@link Writer} for specified file to write or append.
+     *
+     * @param to     the file to write
+     * @param append true to write to the end of file, false to rewrite it
+     * @throws FileNotFoundException if file can't be opened for writing
+     */
+    public static Writer writer(File to, boolean append) throws FileNotFoundException {
+        return new OutputStreamWriter(new FileOutputStream(to, append), Charsets.UTF_8);
     }
 }
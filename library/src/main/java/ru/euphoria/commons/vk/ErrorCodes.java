@@ -123,4 +123,40 @@ public class ErrorCodes {
         // empty
     }
 
+    /**
+     * Returns true, if the error is caused by the request itself or by the state
+     * of the requested object, so repeating the same request returns the same
+     * error, e.g. {@link #ACCESS_DENIED} or {@link #USER_BANNED_OR_DELETED}.
+     * Returns false for the temporary errors, e.g. {@link #TOO_MANY_REQUESTS},
+     * and for the errors, which are resolved by the user, e.g. {@link #CAPTCHA_NEEDED}.
+     *
+     * @param code the error code of {@link VKException}
+     */
+    public static boolean isPermanent(int code) {
+        switch (code) {
+            case UNKNOWN_METHOD:
+            case NO_RIGHTS:
+            case BAD_REQUEST:
+            case ACCESS_DENIED:
+            case USER_BANNED_OR_DELETED:
+            case ACTION_PROHIBITED:
+            case ACTION_ALLOWED_ONLY_FOR_STANDALONE:
+            case METHOD_OFF:
+            case PARAMETER_IS_NOT_SPECIFIED:
+            case INCORRECT_USER_ID:
+            case ACCESS_TO_ALBUM_DENIED:
+            case ACCESS_TO_AUDIO_DENIED:
+            case ACCESS_TO_GROUP_DENIED:
+            case PERMISSION_DENIED:
+            case CANNOT_SEND_MESSAGE_BLACK_LIST:
+            case CANNOT_SEND_MESSAGE_GROUP:
+            case INVALID_DOC_ID:
+            case ACCESS_TO_DOC_DENIED:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
 }
\ No newline at end of file
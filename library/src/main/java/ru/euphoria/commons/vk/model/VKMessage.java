@@ -28,6 +28,9 @@ public class VKMessage implements Serializable {
     public static final int MEDIA = 512;      // сообщение содержит медиаконтент
     public static final int BESEDA = 8192;    // беседа
 
+    /** The offset of the peer ids of chats, see {@link #peerId()} */
+    public static final int CHAT_PEER_OFFSET = 2000000000;
+
     public static final String ACTION_CHAT_CREATE = "chat_create";
     public static final String ACTION_CHAT_INVITE_USER = "chat_invite_user";
     public static final String ACTION_CHAT_KICK_USER = "chat_kick_user";
@@ -178,6 +181,14 @@ public class VKMessage implements Serializable {
         return chat_id != 0;
     }
 
+    /**
+     * Returns the id of the conversation of this message, like peer_id of VK API:
+     * {@link #CHAT_PEER_OFFSET} + chat_id for chats, user_id for dialogs
+     */
+    public int peerId() {
+        return isChat() ? CHAT_PEER_OFFSET + chat_id : user_id;
+    }
+
     public static boolean isDeleted(int flags) {
         return (flags & DELETED) != 0;
     }
@@ -0,0 +1,81 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BloomFilterTest {
+    /** The offset of the first slice: magic, expected insertions, rate and slice count */
+    private static final int SLICE = 4 + 4 + 8 + 4;
+
+    @Test
+    public void readsWrittenFilter() throws IOException {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        for (int i = 0; i < 100; i++) {
+            filter.add("key" + i);
+        }
+
+        BloomFilter copy = read(write(filter));
+        assertEquals(filter.count(), copy.count());
+        assertEquals(filter.sizeInBytes(), copy.sizeInBytes());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(copy.mightContain("key" + i));
+        }
+    }
+
+    @Test
+    public void rejectsHugeHashCount() throws IOException {
+        byte[] bytes = write(new BloomFilter(10, 0.01));
+        ByteBuffer.wrap(bytes).putInt(SLICE + 8, Integer.MAX_VALUE);
+        assertMalformed(bytes);
+    }
+
+    @Test
+    public void rejectsHugeLength() throws IOException {
+        byte[] bytes = write(new BloomFilter(10, 0.01));
+        ByteBuffer.wrap(bytes).putInt(SLICE + 12, Integer.MAX_VALUE);
+        assertMalformed(bytes);
+    }
+
+    @Test
+    public void rejectsForeignCapacity() throws IOException {
+        byte[] bytes = write(new BloomFilter(10, 0.01));
+        ByteBuffer.wrap(bytes).putInt(SLICE, 1000000);
+        assertMalformed(bytes);
+    }
+
+    @Test
+    public void rejectsMoreKeysThanCapacity() throws IOException {
+        byte[] bytes = write(new BloomFilter(10, 0.01));
+        ByteBuffer.wrap(bytes).putInt(SLICE + 4, 11);
+        assertMalformed(bytes);
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            read(bytes);
+            fail("the malformed filter is read");
+        } catch (IOException expected) {
+            // the sizes are out of range
+        }
+    }
+
+    private static byte[] write(BloomFilter filter) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static BloomFilter read(byte[] bytes) throws IOException {
+        return BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
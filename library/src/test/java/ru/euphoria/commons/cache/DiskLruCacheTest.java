@@ -0,0 +1,143 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import ru.euphoria.commons.io.FileStreams;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskLruCacheTest {
+    private File directory;
+    private DiskLruCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(System.getProperty("java.io.tmpdir"), "DiskLruCacheTest" + System.nanoTime());
+        cache = DiskLruCache.open(directory, 1, 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        FileStreams.delete(directory);
+    }
+
+    @Test
+    public void journalIsReplayedOnOpen() throws IOException {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(20));
+        cache.put("c", bytes(30));
+        cache.remove("b");
+        // a is the most recently used
+        assertArrayEquals(bytes(10), cache.get("a"));
+        cache.close();
+
+        cache = DiskLruCache.open(directory, 1, 1024);
+        assertArrayEquals(bytes(10), cache.get("a"));
+        assertNull(cache.get("b"));
+        assertArrayEquals(bytes(30), cache.get("c"));
+        assertEquals(40, cache.sizeInBytes());
+    }
+
+    @Test
+    public void interruptedEditIsDeletedOnOpen() throws IOException {
+        cache.put("a", bytes(10));
+        DiskLruCache.Editor editor = cache.edit("b");
+        FileStreams.write(bytes(20), new File(directory, "b.0.tmp"));
+        editor.newOutputStream().write(1);
+
+        // the process dies without closing the cache
+        DiskLruCache reopened = DiskLruCache.open(directory, 1, 1024);
+        try {
+            assertArrayEquals(bytes(10), reopened.get("a"));
+            assertNull(reopened.get("b"));
+            assertFalse(new File(directory, "b.0.tmp").exists());
+            assertEquals(10, reopened.sizeInBytes());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void damagedJournalIsRebuiltFromFiles() throws IOException {
+        cache.put("a", bytes(10));
+        cache.put("b", bytes(20));
+        cache.close();
+
+        // the last line was cut by a crash
+        FileWriter writer = new FileWriter(new File(directory, DiskLruCache.JOURNAL_FILE), true);
+        writer.write("CLEAN c");
+        writer.close();
+
+        cache = DiskLruCache.open(directory, 1, 1024);
+        assertArrayEquals(bytes(10), cache.get("a"));
+        assertArrayEquals(bytes(20), cache.get("b"));
+        assertEquals(30, cache.sizeInBytes());
+    }
+
+    @Test
+    public void failedCommitReturnsFalse() throws IOException {
+        // the value can't replace a non-empty directory
+        File clean = new File(directory, "a.0");
+        assertTrue(clean.mkdir());
+        FileStreams.write(bytes(1), new File(clean, "child"));
+
+        assertFalse(cache.put("a", bytes(10)));
+        assertNull(cache.get("a"));
+        // the entry is released
+        assertTrue(cache.edit("a") != null);
+    }
+
+    @Test
+    public void keyNamedJournal() throws IOException {
+        assertTrue(cache.put(DiskLruCache.JOURNAL_FILE, bytes(10)));
+        cache.close();
+
+        cache = DiskLruCache.open(directory, 1, 1024);
+        assertArrayEquals(bytes(10), cache.get(DiskLruCache.JOURNAL_FILE));
+    }
+
+    @Test
+    public void filterAnswersMissesOfNewKeys() throws IOException {
+        cache.put("a", bytes(10));
+        cache.close();
+
+        cache = DiskLruCache.open(directory, 1, 1024);
+        assertArrayEquals(bytes(10), cache.get("a"));
+        for (int i = 0; i < 100; i++) {
+            assertNull(cache.get("missing" + i));
+        }
+        assertEquals(100, cache.missCount());
+        // 1% false positives
+        assertTrue(cache.filteredMissCount() >= 90);
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void deletedFileIsMissNotHit() throws IOException {
+        cache.put("a", bytes(10));
+        assertTrue(new File(directory, "a.0").delete());
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (length + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,190 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadingCacheTest {
+    private static final CacheLoader<Integer, String> LOADER = new CacheLoader<Integer, String>() {
+        @Override
+        public String load(Integer key) {
+            return "value" + key;
+        }
+    };
+
+    /** Holds the tasks until they are run by the test */
+    private static final class QueueExecutor implements Executor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    }
+
+    @Test
+    public void rejectedLoadReleasesKey() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        LoadingCache<Integer, String> cache = new LoadingCache<>(
+                new LruCache<Integer, String>(10), LOADER, rejecting);
+
+        try {
+            cache.getAsync(1).get();
+            fail("the rejected load must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        // the key is not stuck in the loading state
+        assertEquals("value1", cache.get(1));
+    }
+
+    @Test
+    public void cancelledWaiterDoesNotCancelLoad() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        LoadingCache<Integer, String> cache = new LoadingCache<>(
+                new LruCache<Integer, String>(10), LOADER, executor);
+
+        Future<String> first = cache.getAsync(1);
+        Future<String> second = cache.getAsync(1);
+        assertEquals(1, executor.tasks.size());
+        assertTrue(first.cancel(false));
+
+        executor.tasks.get(0).run();
+        assertFalse(second.isCancelled());
+        assertEquals("value1", second.get());
+    }
+
+    @Test
+    public void cancelledLoadIsFailure() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        LoadingCache<Integer, String> cache = new LoadingCache<>(
+                new LruCache<Integer, String>(10), LOADER, executor);
+
+        Future<String> future = cache.getAsync(1);
+        // e.g. discarded by the executor
+        ((FutureTask<?>) executor.tasks.get(0)).cancel(false);
+
+        try {
+            future.get();
+            fail("the cancelled load must fail");
+        } catch (ExecutionException expected) {
+            // the load failed
+        }
+        assertEquals("value1", cache.get(1));
+    }
+
+    @Test
+    public void brokenBulkLoadFailsAllKeys() throws Exception {
+        CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                return "value" + key;
+            }
+
+            @Override
+            public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) {
+                return null;
+            }
+        };
+        LoadingCache<Integer, String> cache = new LoadingCache<>(
+                new LruCache<Integer, String>(10), loader);
+
+        try {
+            cache.getAll(Arrays.asList(1, 2));
+            fail("the broken bulk load must fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof NullPointerException);
+        }
+        // the keys are released
+        assertEquals("value1", cache.get(1));
+    }
+
+    @Test
+    public void failedRefreshDoesNotFailLoad() throws Exception {
+        CacheLoader<Integer, String> loader = new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                return "value" + key;
+            }
+
+            @Override
+            public String reload(Integer key, String oldValue) throws Exception {
+                throw new Exception("reload failed");
+            }
+        };
+        QueueExecutor executor = new QueueExecutor();
+        LruCache<Integer, String> values = new LruCache<>(10);
+        LoadingCache<Integer, String> cache = new LoadingCache<>(values, loader, executor);
+
+        values.put(1, "old");
+        cache.refresh(1);
+        // the value is evicted while the refresh is running
+        values.remove(1);
+
+        Future<String> future = cache.getAsync(1);
+        for (int i = 0; i < executor.tasks.size(); i++) {
+            executor.tasks.get(i).run();
+        }
+        assertEquals("value1", future.get());
+    }
+
+    @Test
+    public void removeDuringRefreshDropsValue() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        LruCache<Integer, String> values = new LruCache<>(10);
+        LoadingCache<Integer, String> cache = new LoadingCache<>(values, LOADER, executor);
+
+        cache.put(1, "old");
+        cache.refresh(1);
+        assertEquals(1, executor.tasks.size());
+
+        cache.remove(1);
+        executor.tasks.get(0).run();
+        assertEquals(0, values.size());
+    }
+
+    @Test
+    public void removeDuringLoadDropsValue() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        LruCache<Integer, String> values = new LruCache<>(10);
+        LoadingCache<Integer, String> cache = new LoadingCache<>(values, LOADER, executor);
+
+        Future<String> future = cache.getAsync(1);
+        cache.remove(1);
+        executor.tasks.get(0).run();
+
+        // the waiter gets the value, but it is not cached
+        assertEquals("value1", future.get());
+        assertEquals(0, values.size());
+    }
+
+    @Test
+    public void putDuringRefreshKeepsPutValue() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        LruCache<Integer, String> values = new LruCache<>(10);
+        LoadingCache<Integer, String> cache = new LoadingCache<>(values, LOADER, executor);
+
+        cache.put(1, "old");
+        cache.refresh(1);
+        cache.put(1, "new");
+        executor.tasks.get(0).run();
+        assertEquals("new", values.get(1));
+    }
+}
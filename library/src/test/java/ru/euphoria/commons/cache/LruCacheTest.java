@@ -0,0 +1,77 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        cache.get(1);
+        cache.put(4, "d");
+
+        assertNull(cache.get(2));
+        assertEquals(Arrays.asList(3, 1, 4), new ArrayList<>(cache.snapshot().keySet()));
+    }
+
+    @Test
+    public void hottestTakesMostRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<>(10);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, "v" + i);
+        }
+        cache.get(0);
+
+        CacheSnapshot<Integer, String> hottest = cache.hottest(3);
+        assertEquals(3, hottest.size());
+        assertEquals(3, (int) hottest.keyAt(0));
+        assertEquals(4, (int) hottest.keyAt(1));
+        assertEquals(0, (int) hottest.keyAt(2));
+        assertEquals("v0", hottest.valueAt(2));
+        assertEquals(0, cache.hottest(0).size());
+        assertEquals(5, cache.hottest(100).size());
+    }
+
+    @Test
+    public void restoresBehindPresentEntries() {
+        LruCache<Integer, String> source = new LruCache<>(10);
+        for (int i = 0; i < 4; i++) {
+            source.put(i, "old" + i);
+        }
+
+        LruCache<Integer, String> cache = new LruCache<>(4);
+        cache.put(3, "new3");
+        cache.put(10, "new10");
+        // only the two hottest absent entries fit
+        assertEquals(2, cache.restore(source.hottest(4)));
+
+        assertEquals(Arrays.asList(1, 2, 3, 10), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals("new3", cache.get(3));
+        // the restored entries are evicted first
+        cache.put(11, "new11");
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void restoresLargeSnapshotInBatches() {
+        int count = LruCache.RESTORE_BATCH_SIZE * 3 + 5;
+        LruCache<Integer, Integer> source = new LruCache<>(count);
+        for (int i = 0; i < count; i++) {
+            source.put(i, i);
+        }
+
+        LruCache<Integer, Integer> cache = new LruCache<>(count);
+        assertEquals(count, cache.restore(source.hottest(count)));
+        assertEquals(new ArrayList<>(source.snapshot().keySet()),
+                new ArrayList<>(cache.snapshot().keySet()));
+    }
+}
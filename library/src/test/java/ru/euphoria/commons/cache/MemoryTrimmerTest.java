@@ -0,0 +1,146 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryTrimmerTest {
+
+    @Test
+    public void trimsToFractionOfLevel() {
+        LruCache<Integer, String> cache = new LruCache<>(100);
+        MemoryTrimmer.register(cache, MemoryTrimmer.COST_NORMAL, 0.5f, 0.25f, 0f);
+        fill(cache, 100);
+
+        MemoryTrimmer.trim(TrimLevel.MODERATE);
+        assertEquals(50, cache.size());
+        // the most recently used entries survive
+        assertEquals("99", cache.get(99));
+
+        MemoryTrimmer.trim(TrimLevel.CRITICAL);
+        assertEquals(25, cache.size());
+
+        MemoryTrimmer.trim(TrimLevel.COMPLETE);
+        assertEquals(0, cache.size());
+        MemoryTrimmer.unregister(cache);
+    }
+
+    @Test
+    public void mapsComponentCallbacksLevels() {
+        assertSame(TrimLevel.MODERATE, MemoryTrimmer.levelOf(5));
+        assertSame(TrimLevel.CRITICAL, MemoryTrimmer.levelOf(15));
+        assertNull(MemoryTrimmer.levelOf(20));
+        assertSame(TrimLevel.MODERATE, MemoryTrimmer.levelOf(40));
+        assertSame(TrimLevel.CRITICAL, MemoryTrimmer.levelOf(60));
+        assertSame(TrimLevel.COMPLETE, MemoryTrimmer.levelOf(80));
+        assertNull(MemoryTrimmer.levelOf(0));
+    }
+
+    @Test
+    public void trimsCheapestFirst() {
+        ArrayList<String> order = new ArrayList<>();
+        RecordingCache expensive = new RecordingCache("expensive", order);
+        RecordingCache cheap = new RecordingCache("cheap", order);
+        MemoryTrimmer.register(expensive, MemoryTrimmer.COST_HIGH);
+        MemoryTrimmer.register(cheap, MemoryTrimmer.COST_LOW);
+
+        MemoryTrimmer.trim(TrimLevel.CRITICAL);
+        assertEquals(2, order.size());
+        assertEquals("cheap", order.get(0));
+        assertEquals("expensive", order.get(1));
+        // a quarter of the budget by default
+        assertEquals(25, cheap.trimmedTo);
+
+        MemoryTrimmer.unregister(expensive);
+        MemoryTrimmer.unregister(cheap);
+    }
+
+    @Test
+    public void joinsOnFirstInsertionOnly() {
+        collectGarbage();
+        int registered = MemoryTrimmer.registeredCount();
+
+        ConcurrentLruCache<Integer, String> cache = new ConcurrentLruCache<>(100);
+        assertEquals(registered, MemoryTrimmer.registeredCount());
+        fill(cache, 10);
+        // the segments don't join, only the cache itself
+        assertEquals(registered + 1, MemoryTrimmer.registeredCount());
+
+        LruCache<Integer, String> unregistered = new LruCache<>(100);
+        MemoryTrimmer.unregister(unregistered);
+        fill(unregistered, 10);
+        assertEquals(registered + 1, MemoryTrimmer.registeredCount());
+        MemoryTrimmer.unregister(cache);
+    }
+
+    @Test
+    public void forgetsCollectedCaches() {
+        collectGarbage();
+        int registered = MemoryTrimmer.registeredCount();
+
+        LruCache<Integer, String> cache = new LruCache<>(100);
+        fill(cache, 10);
+        assertEquals(registered + 1, MemoryTrimmer.registeredCount());
+
+        WeakReference<LruCache<Integer, String>> reference = new WeakReference<>(cache);
+        cache = null;
+        assertTrue(collect(reference));
+        assertEquals(registered, MemoryTrimmer.registeredCount());
+        // the collected cache is skipped
+        MemoryTrimmer.trim(TrimLevel.COMPLETE);
+    }
+
+    private static void fill(Cache<Integer, String> cache, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.put(i, String.valueOf(i));
+        }
+    }
+
+    /** Runs the GC until the referent is collected, returns false on timeout */
+    private static boolean collect(WeakReference<?> reference) {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return reference.get() == null;
+    }
+
+    /** Collects the caches left by other tests, so the registry doesn't shrink under the test */
+    private static void collectGarbage() {
+        collect(new WeakReference<>(new Object()));
+        System.gc();
+    }
+
+    private static final class RecordingCache implements Trimmable {
+        final String name;
+        final ArrayList<String> order;
+        long trimmedTo = Long.MIN_VALUE;
+
+        RecordingCache(String name, ArrayList<String> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        public long maxSize() {
+            return 100;
+        }
+
+        @Override
+        public void trimToSize(long maxSize) {
+            order.add(name);
+            trimmedTo = maxSize;
+        }
+    }
+}
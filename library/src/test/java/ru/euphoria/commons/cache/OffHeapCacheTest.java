@@ -0,0 +1,75 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheTest {
+
+    @Test
+    public void handleOutlivesRemovalAndReuse() {
+        // a single slab of 16 chunks of 64 bytes
+        OffHeapCache<String> cache = new OffHeapCache<>(1024, 1024);
+        assertTrue(cache.put("pinned", filled(64, 1)));
+
+        OffHeapCache.Handle handle = cache.acquire("pinned");
+        cache.remove("pinned");
+        assertNull(cache.get("pinned"));
+
+        // the other values of the same size class reuse every free chunk
+        for (int i = 0; i < 32; i++) {
+            assertTrue(cache.put("key" + i, filled(64, 2)));
+        }
+        // a value of another class needs the whole slab, which is pinned
+        assertFalse(cache.put("large", filled(1024, 3)));
+
+        assertTrue(Arrays.equals(filled(64, 1).array(), read(handle.buffer())));
+
+        handle.close();
+        handle.close();
+        assertTrue(cache.put("large", filled(1024, 3)));
+        assertEquals(1024, cache.get("large").remaining());
+    }
+
+    @Test
+    public void handleOutlivesReplace() {
+        OffHeapCache<String> cache = new OffHeapCache<>(1024, 1024);
+        cache.put("key", filled(64, 1));
+
+        OffHeapCache.Handle handle = cache.acquire("key");
+        cache.put("key", filled(64, 2));
+
+        assertTrue(Arrays.equals(filled(64, 1).array(), read(handle.buffer())));
+        assertTrue(Arrays.equals(filled(64, 2).array(), read(cache.get("key"))));
+        handle.close();
+    }
+
+    @Test
+    public void handleIsReadOnly() {
+        OffHeapCache<String> cache = new OffHeapCache<>(1024, 1024);
+        cache.put("key", filled(64, 1));
+
+        OffHeapCache.Handle handle = cache.acquire("key");
+        assertTrue(handle.buffer().isReadOnly());
+        assertNull(cache.acquire("absent"));
+        handle.close();
+    }
+
+    private static ByteBuffer filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static byte[] read(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
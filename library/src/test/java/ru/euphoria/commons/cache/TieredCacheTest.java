@@ -0,0 +1,152 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredCacheTest {
+
+    /** Holds the tasks until they are run by the test */
+    private static final class QueueExecutor implements Executor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /** A disk tier in memory, which counts the lookups and can stall the writes */
+    private static class MapCache extends AbstractCache<String, String> {
+        final HashMap<String, String> map = new HashMap<>();
+        final AtomicInteger getCount = new AtomicInteger();
+
+        @Override
+        public synchronized String get(String key) {
+            getCount.incrementAndGet();
+            return map.get(key);
+        }
+
+        @Override
+        public synchronized boolean put(String key, String value) {
+            return map.put(key, value) == null;
+        }
+
+        @Override
+        public synchronized boolean remove(String key) {
+            return map.remove(key) != null;
+        }
+
+        @Override
+        public synchronized int size() {
+            return map.size();
+        }
+
+        @Override
+        public synchronized void clear() {
+            map.clear();
+        }
+    }
+
+    @Test
+    public void removeWaitsForRunningDemotion() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final MapCache disk = new MapCache() {
+            @Override
+            public boolean put(String key, String value) {
+                writing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return super.put(key, value);
+            }
+        };
+        QueueExecutor executor = new QueueExecutor();
+        final TieredCache<String, String> cache = new TieredCache<>(1, disk, null, executor);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        final Runnable demotion = executor.tasks.remove(0);
+
+        Thread writer = new Thread(demotion);
+        writer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        Thread remover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.remove("a");
+            }
+        });
+        remover.start();
+        // the remover is blocked behind the write, let the write finish
+        Thread.sleep(50);
+        proceed.countDown();
+        writer.join();
+        remover.join();
+
+        assertNull(disk.map.get("a"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void clearDropsOnlyItsOwnGeneration() {
+        MapCache disk = new MapCache();
+        QueueExecutor executor = new QueueExecutor();
+        TieredCache<String, String> cache = new TieredCache<>(2, disk, null, executor);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+
+        cache.clear();
+        // only the demotion of "a", which was scheduled before clear(), and is dropped
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertTrue(disk.map.isEmpty());
+
+        // the evictions after clear() are demoted as usual
+        cache.put("d", "4");
+        cache.put("e", "5");
+        cache.put("f", "6");
+        executor.runAll();
+        assertEquals("4", disk.map.get("d"));
+        assertEquals(1, cache.demotionCount());
+    }
+
+    @Test
+    public void missWithLoaderReadsDiskOnce() {
+        MapCache disk = new MapCache();
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return "loaded " + key;
+            }
+        };
+        TieredCache<String, String> cache = new TieredCache<>(10, disk, loader, new QueueExecutor());
+
+        assertEquals("loaded a", cache.get("a"));
+        assertEquals(1, disk.getCount.get());
+        assertEquals(1, cache.missCount());
+
+        assertEquals("loaded a", cache.get("a"));
+        assertEquals(1, disk.getCount.get());
+        assertEquals(1, cache.memoryHitCount());
+    }
+}
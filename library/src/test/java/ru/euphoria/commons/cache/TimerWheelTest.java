@@ -0,0 +1,132 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+    /** The span of a bucket of the first level, the precision of the wheel */
+    private static final long PRECISION = 1L << 30;
+
+    @Test
+    public void cascadesFromHoursToSeconds() {
+        long start = 0;
+        TimerWheel<Integer, Integer> wheel = new TimerWheel<>(start);
+        TimerWheel.Node<Integer, Integer> node = node(1, start + TimeUnit.HOURS.toNanos(2) + 123);
+        wheel.schedule(node);
+
+        // a minute per step: the entry moves down from the hour level
+        // to the minute and the second levels, and never expires early
+        long expiredAt = advanceUntilExpired(wheel, start, TimeUnit.MINUTES.toNanos(1), node);
+        assertTrue(expiredAt - node.time >= 0);
+        assertTrue(expiredAt - node.time < TimeUnit.MINUTES.toNanos(1));
+
+        // a second per step, so the second level must fire on time
+        node.time = expiredAt + TimeUnit.MINUTES.toNanos(3) + 7;
+        wheel.schedule(node);
+        long secondAt = advanceUntilExpired(wheel, expiredAt, TimeUnit.SECONDS.toNanos(1), node);
+        assertTrue(secondAt - node.time >= 0);
+        assertTrue(secondAt - node.time <= PRECISION + TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void expiresWithinPrecision() {
+        Random random = new Random(42);
+        long start = random.nextLong();
+        long step = TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 200; i++) {
+            TimerWheel<Integer, Integer> wheel = new TimerWheel<>(start);
+            long delay = (long) (random.nextDouble() * TimeUnit.MINUTES.toNanos(5));
+            TimerWheel.Node<Integer, Integer> node = node(i, start + delay);
+            wheel.schedule(node);
+
+            long expiredAt = advanceUntilExpired(wheel, start, step, node);
+            assertTrue("expired early by " + (node.time - expiredAt), expiredAt - node.time >= 0);
+            assertTrue("expired late by " + (expiredAt - node.time),
+                    expiredAt - node.time <= PRECISION + step);
+        }
+    }
+
+    @Test
+    public void expiresAcrossWrapAround() {
+        long step = TimeUnit.MILLISECONDS.toNanos(100);
+        long[] starts = {Long.MAX_VALUE - TimeUnit.SECONDS.toNanos(3), -TimeUnit.SECONDS.toNanos(3)};
+        for (long start : starts) {
+            TimerWheel<Integer, Integer> wheel = new TimerWheel<>(start);
+            TimerWheel.Node<Integer, Integer> early = node(1, start + TimeUnit.SECONDS.toNanos(1));
+            TimerWheel.Node<Integer, Integer> late = node(2, start + TimeUnit.SECONDS.toNanos(10));
+            wheel.schedule(early);
+            wheel.schedule(late);
+
+            long earlyAt = advanceUntilExpired(wheel, start, step, early);
+            assertTrue(earlyAt - early.time >= 0);
+            assertTrue(earlyAt - early.time <= PRECISION + step);
+            assertTrue("the later entry is still scheduled", late.next != null);
+
+            long lateAt = advanceUntilExpired(wheel, earlyAt, step, late);
+            assertTrue(lateAt - late.time >= 0);
+            assertTrue(lateAt - late.time <= PRECISION + step);
+        }
+    }
+
+    @Test
+    public void expiringCacheSurvivesTickerWrapAround() {
+        FakeTicker ticker = new FakeTicker(Long.MAX_VALUE - TimeUnit.SECONDS.toNanos(30));
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10,
+                1, 0, TimeUnit.MINUTES, ticker);
+        cache.put("key", "value");
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(45));
+        assertEquals("value", cache.get("key"));
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(null, cache.get("key"));
+    }
+
+    /**
+     * Advances the wheel by the step until the node expires,
+     * returns the time of the expiration
+     */
+    private static long advanceUntilExpired(TimerWheel<Integer, Integer> wheel, long start, long step,
+                                            TimerWheel.Node<Integer, Integer> node) {
+        ArrayList<TimerWheel.Node<Integer, Integer>> expired = new ArrayList<>();
+        long now = start;
+        for (int i = 0; i < 1000000; i++) {
+            now += step;
+            wheel.advance(now, expired);
+            if (expired.contains(node)) {
+                return now;
+            }
+            assertTrue("expired early", expired.isEmpty());
+        }
+        throw new AssertionError("never expired");
+    }
+
+    private static TimerWheel.Node<Integer, Integer> node(int key, long time) {
+        TimerWheel.Node<Integer, Integer> node = new TimerWheel.Node<>(key);
+        node.time = time;
+        return node;
+    }
+
+    private static final class FakeTicker implements Ticker {
+        private long nanos;
+
+        FakeTicker(long nanos) {
+            this.nanos = nanos;
+        }
+
+        void advance(long duration) {
+            nanos += duration;
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.euphoria.commons.cache;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    public void putAllJudgesEveryCandidate() {
+        // window = 1, probation = 59 entries, the protected segment is empty;
+        // the sketch is not resized, so it keeps all frequencies
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(60);
+        for (int i = 0; i < 60; i++) {
+            cache.put(i, i);
+        }
+
+        // the misses raise the frequency of the absent key
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.get(1000));
+        }
+
+        LinkedHashMap<Integer, Integer> entries = new LinkedHashMap<>();
+        for (int i = 1000; i < 1004; i++) {
+            entries.put(i, i);
+        }
+        // 59 and 1000..1002 leave the window and compete for 4 places
+        cache.putAll(entries);
+
+        assertTrue(cache.size() <= 60);
+        Map<Integer, Integer> snapshot = cache.snapshot();
+        assertNotNull("the frequent candidate is admitted", snapshot.get(1000));
+        assertFalse("the cold candidate is rejected", snapshot.containsKey(1001));
+        assertFalse("the cold candidate is rejected", snapshot.containsKey(1002));
+        assertFalse("the cold candidate is rejected", snapshot.containsKey(59));
+        for (int i = 1; i < 59; i++) {
+            assertTrue("the victim " + i + " is kept", snapshot.containsKey(i));
+        }
+    }
+
+    @Test
+    public void scanDoesNotFlushHotEntries() {
+        TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(100);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        for (int round = 0; round < 5; round++) {
+            touch(cache, 50);
+        }
+
+        // the one-hit keys of a scan, mixed with the working set;
+        // the sketch grows with the cache in the middle of it
+        for (int key = 1000; key < 11000; key++) {
+            cache.put(key, key);
+            if (key % 100 == 0) {
+                touch(cache, 50);
+            }
+        }
+
+        Map<Integer, Integer> snapshot = cache.snapshot();
+        int kept = 0;
+        for (int i = 0; i < 50; i++) {
+            if (snapshot.containsKey(i)) {
+                kept++;
+            }
+        }
+        assertTrue("only " + kept + " of 50 hot entries are kept", kept >= 48);
+    }
+
+    @Test
+    public void sketchKeepsFrequenciesOnResize() {
+        FrequencySketch<String> sketch = new FrequencySketch<>(16);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("warm");
+
+        sketch.ensureCapacity(1024);
+        assertTrue(sketch.capacity() >= 1024);
+        assertEquals(5, sketch.frequency("hot"));
+        assertTrue(sketch.frequency("warm") >= 1);
+    }
+
+    private static void touch(TinyLfuCache<Integer, Integer> cache, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.get(i);
+        }
+    }
+}
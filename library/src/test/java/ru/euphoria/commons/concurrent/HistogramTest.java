@@ -0,0 +1,72 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+    private static final int THREADS = 8;
+    private static final int VALUES = 100000;
+
+    @Test
+    public void countsValuesInPowerOfTwoBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(3);
+        histogram.record(1000);
+        histogram.record(Long.MAX_VALUE);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(5, snapshot.count());
+        assertEquals(1, snapshot.count(0));
+        assertEquals(1, snapshot.count(1));
+        assertEquals(1, snapshot.count(2));
+        assertEquals(1, snapshot.count(10));
+        assertEquals(1, snapshot.count(63));
+        assertEquals(1024, snapshot.percentile(80));
+    }
+
+    @Test
+    public void keepsEveryValueOfContendedThreads() throws Exception {
+        final Histogram histogram = new Histogram();
+        final StripedCounter counter = new StripedCounter();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < VALUES; j++) {
+                        histogram.record(j & 1023);
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long expectedSum = 0;
+        for (int j = 0; j < VALUES; j++) {
+            expectedSum += j & 1023;
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(THREADS * VALUES, snapshot.count());
+        assertEquals(THREADS * expectedSum, snapshot.sum());
+        assertEquals(THREADS * VALUES, counter.sum());
+
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+}
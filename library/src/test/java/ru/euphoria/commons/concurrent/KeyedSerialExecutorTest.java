@@ -0,0 +1,166 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyedSerialExecutorTest {
+
+    private static final class QueueExecutor implements Executor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+        boolean rejecting;
+
+        @Override
+        public void execute(Runnable command) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static Runnable append(final List<Integer> list, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                list.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void runsTasksOfKeyInOrder() throws Exception {
+        final int keys = 8;
+        final int tasks = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        final KeyedSerialExecutor<Integer> executor = new KeyedSerialExecutor<>(pool);
+
+        final List<List<Integer>> results = new ArrayList<>();
+        final AtomicInteger[] running = new AtomicInteger[keys];
+        for (int i = 0; i < keys; i++) {
+            results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            running[i] = new AtomicInteger();
+        }
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * tasks);
+
+        // a producer per key, the keys race for the workers
+        Thread[] producers = new Thread[keys];
+        for (int k = 0; k < keys; k++) {
+            final int key = k;
+            producers[k] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < tasks; i++) {
+                        final int value = i;
+                        executor.execute(key, new Runnable() {
+                            @Override
+                            public void run() {
+                                if (running[key].incrementAndGet() != 1) {
+                                    overlaps.incrementAndGet();
+                                }
+                                results.get(key).add(value);
+                                running[key].decrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            };
+            producers[k].start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals(0, overlaps.get());
+        for (int k = 0; k < keys; k++) {
+            List<Integer> result = results.get(k);
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(i, (int) result.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void rejectedDrainRollsBackTask() {
+        QueueExecutor queue = new QueueExecutor();
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>(queue);
+        List<Integer> result = new ArrayList<>();
+
+        queue.rejecting = true;
+        try {
+            executor.execute("key", append(result, 1));
+            fail("the rejection must be thrown");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(0, executor.activeKeyCount());
+
+        queue.rejecting = false;
+        executor.execute("key", append(result, 2));
+        executor.execute("key", append(result, 3));
+        assertEquals(1, queue.tasks.size());
+        queue.runAll();
+
+        assertEquals(2, result.size());
+        assertEquals(2, (int) result.get(0));
+        assertEquals(3, (int) result.get(1));
+        assertEquals(0, executor.activeKeyCount());
+    }
+
+    @Test
+    public void discardedDrainRestartsWithNextTask() {
+        QueueExecutor queue = new QueueExecutor();
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>(queue);
+        List<Integer> result = new ArrayList<>();
+
+        executor.execute("key", append(result, 1));
+        // the policy of a full executor discards the drain
+        assertTrue(((Future<?>) queue.tasks.remove(0)).cancel(false));
+        assertEquals(1, executor.activeKeyCount());
+
+        executor.execute("key", append(result, 2));
+        queue.runAll();
+
+        assertEquals(2, result.size());
+        assertEquals(1, (int) result.get(0));
+        assertEquals(2, (int) result.get(1));
+        assertEquals(0, executor.activeKeyCount());
+    }
+
+    @Test
+    public void longDrainYieldsWorker() {
+        QueueExecutor queue = new QueueExecutor();
+        KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<>(queue);
+        List<Integer> result = new ArrayList<>();
+
+        for (int i = 0; i < KeyedSerialExecutor.BATCH_SIZE + 1; i++) {
+            executor.execute("first", append(result, i));
+        }
+        executor.execute("second", append(result, -1));
+
+        queue.runAll();
+        // the second key runs after the first batch
+        assertEquals(-1, (int) result.get(KeyedSerialExecutor.BATCH_SIZE));
+        assertEquals(KeyedSerialExecutor.BATCH_SIZE, (int) result.get(KeyedSerialExecutor.BATCH_SIZE + 1));
+    }
+}
@@ -0,0 +1,122 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityExecutorTest {
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    private PriorityExecutor executor;
+
+    private Runnable named(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+                threads.add(Thread.currentThread());
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void discardLowestDropsQueuedRunnableOnly() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<Runnable> discarded = new ArrayList<>();
+        executor = new PriorityExecutor(1, 2, new PriorityExecutor.DiscardLowestPolicy() {
+            @Override
+            protected void onDiscarded(Runnable command) {
+                discarded.add(command);
+            }
+        });
+        executor.execute(blockUntil(blocked));
+
+        Future<?> future = executor.submit(named("future"), PriorityExecutor.PRIORITY_LOW);
+        Runnable plain = named("plain");
+        executor.execute(plain, PriorityExecutor.PRIORITY_NORMAL);
+
+        // the plain task makes room for the higher one
+        executor.execute(named("high"), PriorityExecutor.PRIORITY_HIGH);
+        assertEquals(1, discarded.size());
+        assertTrue(discarded.get(0) == plain);
+
+        // the queued future is never cancelled, the new task is rejected
+        try {
+            executor.execute(named("another"), PriorityExecutor.PRIORITY_HIGH);
+            fail("the task must be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertFalse(future.isCancelled());
+
+        blocked.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals("high", ran.get(0));
+        assertEquals("future", ran.get(1));
+    }
+
+    @Test
+    public void growQueueRunsEveryTaskOnWorkers() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        executor = new PriorityExecutor(1, 2, new PriorityExecutor.GrowQueuePolicy());
+        executor.execute(blockUntil(blocked));
+
+        Future<?> future = executor.submit(named("future"), PriorityExecutor.PRIORITY_LOW);
+        for (int i = 0; i < 5; i++) {
+            executor.execute(named("task" + i));
+        }
+        assertEquals(6, executor.getQueue().size());
+
+        blocked.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(6, ran.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+        assertEquals("future", ran.get(5));
+    }
+
+    @Test
+    public void shutdownRejectsVisibly() {
+        executor = new PriorityExecutor(1, 2, new PriorityExecutor.GrowQueuePolicy());
+        executor.shutdown();
+        try {
+            executor.execute(named("late"));
+            fail("the task must be rejected");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    private static Runnable blockUntil(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
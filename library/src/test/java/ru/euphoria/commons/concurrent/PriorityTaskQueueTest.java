@@ -0,0 +1,139 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityTaskQueueTest {
+    private long sequence;
+
+    /** The queued task, which is known by its name */
+    private final class Task implements Runnable, PriorityExecutor.Prioritized {
+        final String name;
+        final int priority;
+        final boolean future;
+        final long sequence = PriorityTaskQueueTest.this.sequence++;
+
+        Task(String name, int priority, boolean future) {
+            this.name = name;
+            this.priority = priority;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public int priority() {
+            return priority;
+        }
+
+        @Override
+        public long sequence() {
+            return sequence;
+        }
+
+        @Override
+        public String label() {
+            return name;
+        }
+
+        @Override
+        public long submitTime() {
+            return 0;
+        }
+
+        @Override
+        public long startTime() {
+            return 0;
+        }
+
+        @Override
+        public void setStartTime(long time) {
+        }
+
+        @Override
+        public boolean discardable() {
+            return !future;
+        }
+    }
+
+    private Task task(String name, int priority) {
+        return new Task(name, priority, false);
+    }
+
+    private static List<String> drain(PriorityTaskQueue queue) {
+        List<String> names = new ArrayList<>();
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            names.add(((Task) task).name);
+        }
+        return names;
+    }
+
+    @Test
+    public void takesHigherPriorityThenEarlier() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(10);
+        queue.offer(task("low", PriorityExecutor.PRIORITY_LOW));
+        queue.offer(task("normal1", PriorityExecutor.PRIORITY_NORMAL));
+        queue.offer(task("high", PriorityExecutor.PRIORITY_HIGH));
+        queue.offer(task("normal2", PriorityExecutor.PRIORITY_NORMAL));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("high");
+        expected.add("normal1");
+        expected.add("normal2");
+        expected.add("low");
+        assertEquals(expected, drain(queue));
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(1);
+        assertTrue(queue.offer(task("first", 0)));
+        assertFalse(queue.offer(task("second", 0)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void replacesLowestDiscardableTask() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(2);
+        Task future = new Task("future", PriorityExecutor.PRIORITY_LOW, true);
+        Task plain = task("plain", PriorityExecutor.PRIORITY_NORMAL);
+        queue.offer(future);
+        queue.offer(plain);
+
+        // the future has the lowest priority, but it is not dropped
+        Task high = task("high", PriorityExecutor.PRIORITY_HIGH);
+        assertSame(plain, queue.offerOrReplaceLowest(high));
+
+        // no discardable task is left, the new one is not queued
+        Task another = task("another", PriorityExecutor.PRIORITY_HIGH);
+        assertSame(another, queue.offerOrReplaceLowest(another));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("high");
+        expected.add("future");
+        assertEquals(expected, drain(queue));
+        assertNull(queue.offerOrReplaceLowest(task("room", 0)));
+    }
+
+    @Test
+    public void forcedTaskExceedsCapacity() {
+        PriorityTaskQueue queue = new PriorityTaskQueue(1);
+        queue.offer(task("first", 0));
+        queue.forceOffer(task("second", PriorityExecutor.PRIORITY_HIGH));
+
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals("second", ((Task) queue.poll()).name);
+    }
+}
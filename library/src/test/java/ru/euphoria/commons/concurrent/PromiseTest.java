@@ -0,0 +1,212 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PromiseTest {
+
+    /** Keeps the tasks until the test runs them */
+    private static final class QueueExecutor implements Executor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final Promise.Function<Integer, Integer> TWICE = new Promise.Function<Integer, Integer>() {
+        @Override
+        public Integer apply(Integer value) {
+            return value * 2;
+        }
+    };
+
+    @Test
+    public void chainsStagesOnTheirExecutors() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        Promise<Integer> source = new Promise<>();
+        Promise<String> result = source.map(TWICE, executor)
+                .flatMap(new Promise.Function<Integer, Promise<Integer>>() {
+                    @Override
+                    public Promise<Integer> apply(Integer value) {
+                        return Promise.of(value + 1);
+                    }
+                })
+                .map(new Promise.Function<Integer, String>() {
+                    @Override
+                    public String apply(Integer value) {
+                        return "value=" + value;
+                    }
+                });
+
+        source.complete(20);
+        // the first stage waits for its executor
+        assertFalse(result.isDone());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertTrue(result.isSucceeded());
+        assertEquals("value=41", result.get());
+    }
+
+    @Test
+    public void combinesAllValuesInOrder() throws Exception {
+        Promise<Integer> first = new Promise<>();
+        Promise<Integer> second = new Promise<>();
+        Promise<List<Integer>> all = Promise.all(Arrays.asList(first, second));
+
+        second.complete(2);
+        assertFalse(all.isDone());
+        first.complete(1);
+        assertEquals(Arrays.asList(1, 2), all.get());
+    }
+
+    @Test
+    public void failureSkipsStagesUpToRecover() throws Exception {
+        final IOException error = new IOException("broken");
+        final AtomicBoolean skipped = new AtomicBoolean(true);
+        Promise<Integer> source = new Promise<>();
+        Promise<Integer> failed = source.map(new Promise.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                throw error;
+            }
+        }).map(new Promise.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                skipped.set(false);
+                return value;
+            }
+        });
+        Promise<Integer> recovered = failed.recover(new Promise.Function<Throwable, Integer>() {
+            @Override
+            public Integer apply(Throwable value) {
+                return value == error ? -1 : 0;
+            }
+        });
+
+        final AtomicReference<Throwable> reported = new AtomicReference<>();
+        failed.onComplete(new Promise.Listener<Integer>() {
+            @Override
+            public void onSuccess(Integer value) {
+                fail("the failure is lost");
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                reported.set(e);
+            }
+        });
+
+        source.complete(1);
+        assertTrue(skipped.get());
+        assertSame(error, failed.error());
+        assertSame(error, reported.get());
+        try {
+            failed.get();
+            fail("the failure is lost");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(-1, (int) recovered.get());
+    }
+
+    @Test
+    public void allFailsWithFirstFailure() {
+        IOException error = new IOException("broken");
+        Promise<Integer> first = new Promise<>();
+        Promise<List<Integer>> all = Promise.all(Arrays.asList(first, Promise.<Integer>failed(error)));
+        assertSame(error, all.error());
+        assertFalse(first.isDone());
+    }
+
+    @Test
+    public void cancellationReachesSourceTask() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Promise<Integer> source = Promise.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return 1;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+        Promise<Integer> last = source.map(TWICE).map(TWICE);
+        Promise<Integer> recovered = last.recover(new Promise.Function<Throwable, Integer>() {
+            @Override
+            public Integer apply(Throwable value) {
+                return 0;
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertTrue(last.cancel(true));
+        assertFalse(last.cancel(true));
+        assertTrue(last.isCancelled());
+        // the cancellation goes up the chain to the running task
+        assertTrue(source.isCancelled());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        // the late result of the task is dropped
+        assertTrue(source.isCancelled());
+        assertTrue(recovered.isCancelled());
+        try {
+            last.get();
+            fail("the cancelled promise has a value");
+        } catch (CancellationException expected) {
+            // cancelled
+        }
+    }
+
+    @Test
+    public void rejectedTaskFailsPromise() {
+        Promise<Integer> promise = Promise.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        });
+        assertTrue(promise.isDone());
+        assertTrue(promise.error() instanceof RejectedExecutionException);
+    }
+}
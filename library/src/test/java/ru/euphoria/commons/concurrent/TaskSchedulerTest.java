@@ -0,0 +1,161 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TaskSchedulerTest {
+    private final TaskScheduler scheduler = new TaskScheduler("TaskSchedulerTest");
+    private final AtomicInteger runs = new AtomicInteger();
+    private final Runnable counter = new Runnable() {
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    };
+
+    /** Holds the runs until they are run by the test */
+    private static final class QueueExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        synchronized Runnable take() {
+            return tasks.remove(0);
+        }
+    }
+
+    private static final Executor REJECTING = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException("full");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void runsOneShotTask() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ScheduledTask task = scheduler.schedule(counter, 10, TimeUnit.MILLISECONDS, executor);
+        awaitSize(executor, 1);
+
+        executor.take().run();
+        assertEquals(1, runs.get());
+        assertTrue(task.isDone());
+        assertEquals(1, task.runCount());
+        assertNull(task.getFailure());
+    }
+
+    @Test
+    public void coalescesSlowPeriodicRuns() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ScheduledTask task = scheduler.scheduleAtFixedRate(counter, 0, 5, TimeUnit.MILLISECONDS, executor);
+        awaitSize(executor, 1);
+
+        // the queued run is not run yet, the next ones are skipped
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (task.skipCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(task.skipCount() >= 3);
+        assertEquals(1, executor.size());
+
+        executor.take().run();
+        awaitSize(executor, 1);
+        assertEquals(1, task.runCount());
+        task.cancel();
+    }
+
+    @Test
+    public void rejectedOneShotTaskFails() throws Exception {
+        ScheduledTask task = scheduler.schedule(counter, 0, TimeUnit.MILLISECONDS, REJECTING);
+        awaitDone(task);
+
+        assertFalse(task.isCancelled());
+        assertEquals(0, task.runCount());
+        assertEquals(1, task.rejectCount());
+        assertTrue(task.getFailure() instanceof RejectedExecutionException);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void cancelledRunFailsOneShotTask() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ScheduledTask task = scheduler.schedule(counter, 0, TimeUnit.MILLISECONDS, executor);
+        awaitSize(executor, 1);
+
+        // e.g. discarded by the policy of the executor
+        ((Future<?>) executor.take()).cancel(false);
+        assertTrue(task.isDone());
+        assertFalse(task.isCancelled());
+        assertTrue(task.getFailure() instanceof CancellationException);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void rejectedPeriodicTaskRunsAgain() throws Exception {
+        ScheduledTask task = scheduler.scheduleAtFixedRate(counter, 0, 5, TimeUnit.MILLISECONDS, REJECTING);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (task.rejectCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertTrue(task.rejectCount() >= 3);
+        assertFalse(task.isDone());
+        assertNull(task.getFailure());
+        assertTrue(task.cancel());
+    }
+
+    @Test
+    public void cancelStopsQueuedRun() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ScheduledTask task = scheduler.schedule(counter, 0, TimeUnit.MILLISECONDS, executor);
+        awaitSize(executor, 1);
+
+        assertTrue(task.cancel());
+        executor.take().run();
+        assertEquals(0, runs.get());
+        assertEquals(0, task.rejectCount());
+        assertNull(task.getFailure());
+    }
+
+    private static void awaitSize(QueueExecutor executor, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.size() < size && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, executor.size());
+    }
+
+    private static void awaitDone(ScheduledTask task) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!task.isDone() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(task.isDone());
+    }
+}
@@ -0,0 +1,230 @@
+package ru.euphoria.commons.concurrent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WorkStealingExecutorTest {
+    private WorkStealingExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new WorkStealingExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /** Sums the range by splitting it in halves */
+    private static final class SumTask extends ForkTask<Long> {
+        final int from;
+        final int to;
+
+        SumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= 1000) {
+                long sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            int middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            SumTask right = new SumTask(middle, to);
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+
+    @Test
+    public void idleWorkersStealForkedTasks() {
+        final CountDownLatch running = new CountDownLatch(3);
+        ForkTask<Boolean> root = new ForkTask<Boolean>() {
+            @Override
+            protected Boolean compute() {
+                ForkTask<?>[] parts = new ForkTask<?>[3];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = new ForkTask<Boolean>() {
+                        @Override
+                        protected Boolean compute() {
+                            // all parts run at once, only if the others have stolen them
+                            running.countDown();
+                            try {
+                                return running.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                return false;
+                            }
+                        }
+                    }.fork();
+                }
+                boolean all = true;
+                for (ForkTask<?> part : parts) {
+                    all &= (Boolean) part.join();
+                }
+                return all;
+            }
+        };
+
+        assertTrue(executor.invoke(root));
+        assertTrue(executor.stealCount() >= 2);
+        assertEquals(499999500000L, (long) executor.invoke(new SumTask(0, 1000000)));
+    }
+
+    @Test
+    public void joinerParksUntilStolenTaskIsDone() throws Exception {
+        final CountDownLatch stolen = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> joiner = new AtomicReference<>();
+        ForkTask<Integer> root = new ForkTask<Integer>() {
+            @Override
+            protected Integer compute() {
+                joiner.set(Thread.currentThread());
+                ForkTask<Integer> child = new ForkTask<Integer>() {
+                    @Override
+                    protected Integer compute() {
+                        stolen.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 42;
+                    }
+                }.fork();
+                try {
+                    stolen.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return child.join();
+            }
+        };
+        executor.execute(root);
+
+        assertTrue(stolen.await(5, TimeUnit.SECONDS));
+        // the joiner has nothing to run, it waits without a timeout instead of polling
+        assertTrue("the joiner is not parked", awaitState(joiner, Thread.State.WAITING));
+
+        release.countDown();
+        assertEquals(42, (int) root.join());
+    }
+
+    @Test
+    public void parkedJoinerRunsNewWork() throws Exception {
+        final CountDownLatch stolen = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> joiner = new AtomicReference<>();
+        ForkTask<Integer> root = new ForkTask<Integer>() {
+            @Override
+            protected Integer compute() {
+                joiner.set(Thread.currentThread());
+                ForkTask<Integer> child = new ForkTask<Integer>() {
+                    @Override
+                    protected Integer compute() {
+                        stolen.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return 1;
+                    }
+                }.fork();
+                try {
+                    stolen.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return child.join();
+            }
+        };
+        // one worker joins, the other one runs the stolen child,
+        // so only the parked joiner can run a new task
+        WorkStealingExecutor executor = new WorkStealingExecutor(2);
+        executor.execute(root);
+        assertTrue(stolen.await(5, TimeUnit.SECONDS));
+        assertTrue(awaitState(joiner, Thread.State.WAITING));
+
+        final AtomicReference<Thread> runner = new AtomicReference<>();
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runner.set(Thread.currentThread());
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(runner.get() == joiner.get());
+
+        release.countDown();
+        assertEquals(1, (int) root.join());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shutdownRunsQueuedTasksAndRejectsNew() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue(executor.isShutdown());
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("a task is accepted after shutdown");
+        } catch (RejectedExecutionException expected) {
+            // the executor is shut down
+        }
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.queuedTaskCount());
+    }
+
+    private static boolean awaitState(AtomicReference<Thread> thread, Thread.State state)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Thread current = thread.get();
+            if (current != null && current.getState() == state) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+}